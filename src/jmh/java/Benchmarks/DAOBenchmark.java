@@ -0,0 +1,109 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+
+/**
+ * Throughput of the SocialMediaDAO hot paths against the h2 database at several table sizes.
+ *
+ * Each trial resets the database and seeds tableSize messages spread evenly over ACCOUNTS accounts, so
+ * getAllMessagesByUserId returns tableSize / ACCOUNTS rows and getAllMessages returns all of them.
+ * Messages created by the createMessage benchmark are deleted after every iteration to keep the table size fixed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DAOBenchmark {
+    static final int ACCOUNTS = 100;
+
+    @Param({"1000", "10000", "100000"})
+    int tableSize;
+
+    SocialMediaDAO dao;
+    Message newMessage;
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        dao = new SocialMediaDAO();
+        try(Connection conn = ConnectionPool.getConnection()){
+            conn.setAutoCommit(false);
+            PreparedStatement accounts = conn.prepareStatement("insert into account (username, password) values (?, 'password')");
+            for(int i = 2; i <= ACCOUNTS; i++){
+                accounts.setString(1, "benchuser" + i);
+                accounts.addBatch();
+            }
+            accounts.executeBatch();
+            // the schema script already inserted message 1
+            PreparedStatement messages = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)");
+            for(int i = 2; i <= tableSize; i++){
+                messages.setInt(1, 1 + i % ACCOUNTS);
+                messages.setString(2, "benchmark message " + i);
+                messages.setLong(3, 1669947792L + i);
+                messages.addBatch();
+                if(i % 1000 == 0)
+                    messages.executeBatch();
+            }
+            messages.executeBatch();
+            conn.commit();
+        }
+        if(dao.getAllMessages().size() != tableSize)
+            throw new IllegalStateException("seeding did not produce " + tableSize + " messages");
+        newMessage = new Message(1, "a new benchmark message", 1669947792L);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeCreatedMessages() throws SQLException {
+        try(Connection conn = ConnectionPool.getConnection()){
+            PreparedStatement ps = conn.prepareStatement("delete from message where message_id > ?");
+            ps.setInt(1, tableSize);
+            ps.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public Message createMessage(){
+        return dao.createMessage(newMessage);
+    }
+
+    @Benchmark
+    public Message getMessageById(){
+        return dao.getMessageById(1 + ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages(){
+        return dao.getAllMessages();
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByUserId(){
+        return dao.getAllMessagesByUserId(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+}
@@ -0,0 +1,76 @@
+package Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.MessageJsonCache;
+import Model.Message;
+import Service.ResourceVersions;
+import Util.ByteArrayPool;
+
+/**
+ * Jackson serialization of message lists, as done by the listing endpoints, and deserialization of a single
+ * message, as done for request bodies. assembleCachedMessageList builds the same list from the pre-serialized
+ * fragments of a warm MessageJsonCache, as the listing endpoints now do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int listSize;
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+    List<Message> messages;
+    byte[] messageJson;
+    MessageJsonCache jsonCache;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        messages = new ArrayList<>(listSize);
+        for(int i = 1; i <= listSize; i++)
+            messages.add(new Message(i, 1 + i % 100, "benchmark message number " + i, 1669947792L + i));
+        messageJson = objectMapper.writeValueAsBytes(messages.get(0));
+        jsonCache = new MessageJsonCache(new JsonFactory(), new ResourceVersions(65536), 65536);
+        jsonCache.release(jsonCache.array(messages, jsonCache.stamp()));
+    }
+
+    @Benchmark
+    public byte[] serializeMessageList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public int assembleCachedMessageList(){
+        ByteArrayPool.Buffer buffer = jsonCache.array(messages, jsonCache.stamp());
+        int size = buffer.size();
+        jsonCache.release(buffer);
+        return size;
+    }
+
+    @Benchmark
+    public Message deserializeMessage() throws java.io.IOException {
+        return objectMapper.readValue(messageJson, Message.class);
+    }
+}
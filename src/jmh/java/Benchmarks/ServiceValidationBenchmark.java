@@ -0,0 +1,101 @@
+package Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Model.Message;
+import Service.SocialMediaService;
+
+/**
+ * Cost of the validation SocialMediaService does before it reaches the DAO.
+ *
+ * The service runs over a DAO that echoes its input without touching the database, with search and feeds turned
+ * off so no index is built and no fan-out is queued. For valid input the benchmark measures validation plus the
+ * service's own bookkeeping (message cache and ETag versions), and for invalid input just the rejection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceValidationBenchmark {
+
+    /**
+     * valid: a typical message; blank: whitespace only; tooLong: 256 characters.
+     */
+    @Param({"valid", "blank", "tooLong"})
+    String text;
+
+    SocialMediaService service;
+    Message message;
+    Account account;
+
+    @Setup
+    public void setUp(){
+        System.setProperty("socialmedia.search.enabled", "false");
+        System.setProperty("socialmedia.feed.enabled", "false");
+        service = new SocialMediaService(new EchoDAO());
+        String messageText;
+        switch(text){
+            case "blank":
+                messageText = "      ";
+                break;
+            case "tooLong":
+                messageText = "x".repeat(256);
+                break;
+            default:
+                messageText = "just had a great lunch, anyone up for a walk later?";
+        }
+        message = new Message(1, messageText, 1669947792L);
+        account = new Account("benchuser", "password");
+    }
+
+    @Benchmark
+    public Message createMessage(){
+        return service.createMessage(message);
+    }
+
+    @Benchmark
+    public Message updateMessageTextById(){
+        return service.updateMessageTextById(message, 1);
+    }
+
+    @Benchmark
+    public Account registerAnAccount(){
+        return service.registerAnAccount(account);
+    }
+
+    /**
+     * A DAO whose writes succeed immediately, so only the service's work is measured.
+     */
+    static class EchoDAO extends SocialMediaDAO {
+        @Override
+        public Message createMessage(Message m){
+            return m;
+        }
+
+        @Override
+        public Message updateMessageTextById(Message message, int message_id){
+            return message;
+        }
+
+        @Override
+        public Account registerAnAccount(Account user){
+            return user;
+        }
+    }
+}
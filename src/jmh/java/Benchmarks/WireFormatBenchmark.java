@@ -0,0 +1,85 @@
+package Benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Controller.WireFormat;
+import Model.Message;
+
+/**
+ * Encoding and decoding of message lists in each wire format: whole lists through the format's ObjectMapper, as
+ * for batch bodies, and streamed through its generator, as the listing endpoints write them. The encoded size of
+ * each list is printed in setup, since for the binary formats that is half the point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    WireFormat format;
+
+    @Param({"1", "50", "1000"})
+    int listSize;
+
+    List<Message> messages;
+    byte[] encoded;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+    @Setup
+    public void setUp() throws IOException {
+        messages = new ArrayList<>(listSize);
+        for(int i = 1; i <= listSize; i++)
+            messages.add(new Message(i, 1 + i % 100, "benchmark message number " + i, 1669947792L + i));
+        encoded = format.write(messages);
+        System.out.println(format + " encoding of " + listSize + " messages: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeWithMapper(){
+        return format.write(messages);
+    }
+
+    @Benchmark
+    public int encodeStreaming() throws IOException {
+        out.reset();
+        try(JsonGenerator gen = format.getFactory().createGenerator(out)){
+            gen.writeStartArray();
+            for(Message m : messages){
+                gen.writeStartObject();
+                gen.writeNumberField("message_id", m.getMessage_id());
+                gen.writeNumberField("posted_by", m.getPosted_by());
+                gen.writeStringField("message_text", m.getMessage_text());
+                gen.writeNumberField("time_posted_epoch", m.getTime_posted_epoch());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public Message[] decode(){
+        return format.read(encoded, Message[].class);
+    }
+}
@@ -0,0 +1,312 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Model.Message;
+import Service.MessageChangeListener;
+import Util.ByteArrayPool;
+import Util.PrometheusTextWriter;
+
+/**
+ * Fans message writes out to the clients of GET /messages/stream as Server-Sent Events.
+ *
+ * Each write is encoded once, as a complete SSE frame, when the service reports it; subscribers only copy the
+ * frame's bytes. The newest replaySize frames are also kept in a ring, so a client that reconnects with the
+ * Last-Event-ID of the last event it saw is sent what it missed. Event IDs carry the hub's boot ID; an ID from
+ * another boot, or one older than the ring, cannot be resumed from and gets a "reset" event instead, after which
+ * the client should reload the listing.
+ *
+ * Every subscriber has a queue of queueSize frames, filled without blocking by the writing thread. When a queue is
+ * full the overflow policy decides: DISCONNECT closes the stream, and the client resumes from the ring when it
+ * reconnects, so nothing is lost as long as it keeps up with the ring; DROP skips the event for that subscriber.
+ * At most maxSubscribers streams are open at once, since each holds a request thread.
+ */
+public class MessageEventHub implements MessageChangeListener {
+    /**
+     * What to do with an event for a subscriber whose queue is full.
+     */
+    public enum OverflowPolicy { DROP, DISCONNECT }
+
+    /**
+     * Sent when a subscriber has been idle for the heartbeat interval, so proxies and the client can tell the
+     * stream is alive.
+     */
+    static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Event CLOSED = new Event(0, null);
+
+    private final JsonFactory jsonFactory;
+    private final String bootId = Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 16);
+    private final Event[] ring;
+    private final int queueSize;
+    private final int maxSubscribers;
+    private final OverflowPolicy overflowPolicy;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ByteArrayPool buffers = new ByteArrayPool(4, 512, 1 << 16);
+    /**
+     * The sequence number of the next event; guarded by this.
+     */
+    private long nextSeq = 1;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowDisconnects = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+
+    /**
+     * @param jsonFactory the factory used to encode each message once.
+     * @param replaySize how many recent events are kept for Last-Event-ID resumes.
+     * @param queueSize how many events a subscriber may fall behind by.
+     * @param maxSubscribers the most streams open at once.
+     * @param overflowPolicy what happens when a subscriber falls further behind than queueSize.
+     */
+    public MessageEventHub(JsonFactory jsonFactory, int replaySize, int queueSize, int maxSubscribers, OverflowPolicy overflowPolicy){
+        this.jsonFactory = jsonFactory;
+        this.ring = new Event[Math.max(replaySize, 1)];
+        this.queueSize = queueSize;
+        this.maxSubscribers = maxSubscribers;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void messageCreated(Message m){
+        publish("created", m);
+    }
+
+    @Override
+    public void messageUpdated(Message m){
+        publish("updated", m);
+    }
+
+    @Override
+    public void messageDeleted(Message m){
+        publish("deleted", m);
+    }
+
+    /**
+     * Encodes an event, adds it to the ring and offers it to every matching subscriber. Holding the lock keeps
+     * event IDs in the order events reach subscribers, and keeps subscribe() from missing or repeating one.
+     */
+    private synchronized void publish(String type, Message m){
+        long seq = nextSeq++;
+        Event e = new Event(m.getPosted_by(), frame(seq, type, m));
+        ring[(int) (seq % ring.length)] = e;
+        published.incrementAndGet();
+        for(Subscriber s : subscribers){
+            if(s.postedBy == 0 || s.postedBy == e.postedBy)
+                s.offer(e);
+        }
+    }
+
+    private byte[] frame(long seq, String type, Message m){
+        ByteArrayPool.Buffer out = buffers.acquire();
+        try{
+            out.writeAscii("id: " + bootId + "-" + seq + "\nevent: " + type + "\ndata: ");
+            try(JsonGenerator gen = jsonFactory.createGenerator(out)){
+                SocialMediaController.writeMessage(gen, m.getMessage_id(), m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
+            }
+            out.writeAscii("\n\n");
+            return out.toByteArray();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }finally{
+            buffers.release(out);
+        }
+    }
+
+    /**
+     * Opens a stream. The subscriber must be passed to unsubscribe() when the stream ends.
+     *
+     * @param postedBy only send events for messages by this account, or 0 for every message.
+     * @param lastEventId the request's Last-Event-ID header, or null for a new stream.
+     * @return the subscriber, or null if maxSubscribers streams are already open.
+     */
+    public synchronized Subscriber subscribe(int postedBy, String lastEventId){
+        if(subscribers.size() >= maxSubscribers){
+            rejected.incrementAndGet();
+            return null;
+        }
+        Subscriber s = new Subscriber(postedBy);
+        if(lastEventId != null)
+            replay(s, lastEventId.trim());
+        subscribers.add(s);
+        return s;
+    }
+
+    /**
+     * Queues the ring's events after lastEventId for a resuming subscriber, or a reset if they are not all there.
+     */
+    private void replay(Subscriber s, String lastEventId){
+        long lastSeq = -1;
+        int dash = lastEventId.lastIndexOf('-');
+        if(dash > 0 && lastEventId.substring(0, dash).equals(bootId)){
+            try{
+                lastSeq = Long.parseLong(lastEventId.substring(dash + 1));
+            }catch(NumberFormatException e){
+                lastSeq = -1;
+            }
+        }
+        long oldest = Math.max(1, nextSeq - ring.length);
+        if(lastSeq < oldest - 1 || lastSeq >= nextSeq){
+            resets.incrementAndGet();
+            s.backlog.add(resetFrame());
+            return;
+        }
+        resumed.incrementAndGet();
+        for(long seq = lastSeq + 1; seq < nextSeq; seq++){
+            Event e = ring[(int) (seq % ring.length)];
+            if(s.postedBy == 0 || s.postedBy == e.postedBy)
+                s.backlog.add(e.frame);
+        }
+    }
+
+    /**
+     * @return a reset event, carrying the current position so the client can resume from it after reloading.
+     */
+    private byte[] resetFrame(){
+        return ("id: " + bootId + "-" + (nextSeq - 1) + "\nevent: reset\ndata: \n\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Removes a subscriber once its stream has ended.
+     */
+    public void unsubscribe(Subscriber s){
+        subscribers.remove(s);
+        s.close();
+    }
+
+    /**
+     * Ends every open stream, so that request threads are not left waiting when the server stops.
+     */
+    public void closeAll(){
+        for(Subscriber s : subscribers)
+            unsubscribe(s);
+    }
+
+    /**
+     * @return the number of open streams.
+     */
+    public int getSubscriberCount(){
+        return subscribers.size();
+    }
+
+    /**
+     * Writes the number of open streams and of events published, delivered, dropped and replayed.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("message_stream_subscribers", "gauge", "Open GET /messages/stream connections.")
+                .sample("message_stream_subscribers", getSubscriberCount());
+        w.header("message_stream_events_total", "counter", "Message events published, and their deliveries to subscribers by result.")
+                .sample("message_stream_events_total", published.get(), "result", "published")
+                .sample("message_stream_events_total", delivered.get(), "result", "queued")
+                .sample("message_stream_events_total", dropped.get(), "result", "dropped");
+        w.header("message_stream_disconnects_total", "counter", "Streams closed by the hub, or refused, by reason.")
+                .sample("message_stream_disconnects_total", overflowDisconnects.get(), "reason", "overflow")
+                .sample("message_stream_disconnects_total", rejected.get(), "reason", "rejected");
+        w.header("message_stream_resumes_total", "counter", "Streams opened with a Last-Event-ID, by whether the ring still held the events after it.")
+                .sample("message_stream_resumes_total", resumed.get(), "result", "resumed")
+                .sample("message_stream_resumes_total", resets.get(), "result", "reset");
+    }
+
+    /**
+     * One open stream. Events are offered by writing threads and taken by the stream's request thread.
+     */
+    public class Subscriber {
+        final int postedBy;
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        /**
+         * Frames replayed at subscribe(), sent before anything in the queue; only used by the request thread.
+         */
+        private final ArrayDeque<byte[]> backlog = new ArrayDeque<>();
+        private volatile boolean closed;
+
+        Subscriber(int postedBy){
+            this.postedBy = postedBy;
+        }
+
+        private void offer(Event e){
+            if(closed)
+                return;
+            if(queue.offer(e)){
+                delivered.incrementAndGet();
+                return;
+            }
+            if(overflowPolicy == OverflowPolicy.DROP){
+                dropped.incrementAndGet();
+                return;
+            }
+            overflowDisconnects.incrementAndGet();
+            subscribers.remove(this);
+            close();
+        }
+
+        /**
+         * Stops the stream; the request thread sees this at its next take(), even if it is waiting.
+         */
+        private void close(){
+            if(closed)
+                return;
+            closed = true;
+            queue.clear();
+            queue.offer(CLOSED);
+        }
+
+        /**
+         * Waits for the next frame to send.
+         *
+         * @param timeoutMillis how long to wait before returning a heartbeat instead.
+         * @return the next frame, HEARTBEAT if there was none in time, or null once the stream is closed.
+         * @throws InterruptedException if the request thread is interrupted.
+         */
+        public byte[] take(long timeoutMillis) throws InterruptedException{
+            if(closed)
+                return null;
+            byte[] replayed = backlog.poll();
+            if(replayed != null)
+                return replayed;
+            Event e = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if(e == null)
+                return HEARTBEAT;
+            return e == CLOSED ? null : e.frame;
+        }
+
+        /**
+         * @return the next frame if one is ready, otherwise null; used to batch frames before a flush.
+         */
+        public byte[] poll(){
+            if(closed)
+                return null;
+            byte[] replayed = backlog.poll();
+            if(replayed != null)
+                return replayed;
+            Event e = queue.poll();
+            return e == null || e == CLOSED ? null : e.frame;
+        }
+    }
+
+    private static class Event {
+        final int postedBy;
+        final byte[] frame;
+
+        Event(int postedBy, byte[] frame){
+            this.postedBy = postedBy;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Model.Message;
+import Service.MessageChangeListener;
+import Service.ResourceVersions;
+import Util.ByteArrayPool;
+import Util.PrometheusTextWriter;
+
+/**
+ * The serialized UTF-8 JSON of recently served messages, keyed by message ID and version, so that reads send bytes
+ * instead of running each Message through Jackson again. Lists are assembled by copying the fragments into a
+ * pooled buffer between brackets and commas.
+ *
+ * Versions come from ResourceVersions. A fragment is only stored when the message was read after every write to
+ * its version slot had been stamped; it is then never older than its version, and a later write changes the
+ * version so the fragment stops matching. Writes also drop the fragment outright (this is a message change
+ * listener), so stale fragments do not take up room. Beyond maxSize fragments, arbitrary ones are dropped.
+ */
+public class MessageJsonCache implements MessageChangeListener {
+    private final JsonFactory jsonFactory;
+    private final ResourceVersions versions;
+    private final int maxSize;
+    private final Map<Integer, Fragment> fragments = new ConcurrentHashMap<>();
+    private final ByteArrayPool buffers;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param jsonFactory the factory used to serialize a message on a miss.
+     * @param versions the version counters of the service whose messages are cached.
+     * @param maxSize the most fragments kept.
+     */
+    public MessageJsonCache(JsonFactory jsonFactory, ResourceVersions versions, int maxSize){
+        this(jsonFactory, versions, maxSize, new ByteArrayPool(64, 8192, 1 << 20));
+    }
+
+    /**
+     * @param jsonFactory the factory used to serialize a message on a miss.
+     * @param versions the version counters of the service whose messages are cached.
+     * @param maxSize the most fragments kept.
+     * @param buffers the pool that array() and page() take their buffers from.
+     */
+    public MessageJsonCache(JsonFactory jsonFactory, ResourceVersions versions, int maxSize, ByteArrayPool buffers){
+        this.jsonFactory = jsonFactory;
+        this.versions = versions;
+        this.maxSize = maxSize;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Takes the stamp to pass to fragment() for messages read after this call.
+     *
+     * @return the current global version.
+     */
+    public long stamp(){
+        return versions.getVersion();
+    }
+
+    /**
+     * @param message_id a message.
+     * @return its cached JSON if the cached fragment is current, otherwise null.
+     */
+    public byte[] get(int message_id){
+        Fragment f = fragments.get(message_id);
+        if(f != null && f.version == versions.getMessageVersion(message_id)){
+            hits.incrementAndGet();
+            return f.json;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the JSON of a message, from the cache if it is current and otherwise by serializing it. A freshly
+     * serialized fragment is cached unless its message was written after the stamp was taken, since the copy read
+     * may then predate that write.
+     *
+     * @param m a message read after stamp() returned stamp.
+     * @param stamp the value stamp() returned before m was read.
+     * @return the UTF-8 JSON of the message; the array must not be modified.
+     */
+    public byte[] fragment(Message m, long stamp){
+        int id = m.getMessage_id();
+        long version = versions.getMessageVersion(id);
+        Fragment f = fragments.get(id);
+        if(f != null && f.version == version){
+            hits.incrementAndGet();
+            return f.json;
+        }
+        misses.incrementAndGet();
+        byte[] json = serialize(m);
+        if(version <= stamp){
+            if(fragments.size() >= maxSize)
+                evictOne();
+            fragments.put(id, new Fragment(version, json));
+        }
+        return json;
+    }
+
+    /**
+     * Assembles a JSON array of messages into a pooled buffer, which the caller must release().
+     *
+     * @param messages messages read after stamp() returned stamp.
+     * @param stamp the value stamp() returned before the messages were read.
+     * @return the buffer holding the array.
+     */
+    public ByteArrayPool.Buffer array(List<Message> messages, long stamp){
+        ByteArrayPool.Buffer out = buffers.acquire();
+        writeArray(out, messages, stamp);
+        return out;
+    }
+
+    /**
+     * Assembles a page of messages, as {"messages":[...],"next":...}, into a pooled buffer, which the caller must
+     * release().
+     *
+     * @param messages messages read after stamp() returned stamp.
+     * @param next the page's cursor, or null; cursors are URL-safe base64 and need no escaping.
+     * @param stamp the value stamp() returned before the messages were read.
+     * @return the buffer holding the page.
+     */
+    public ByteArrayPool.Buffer page(List<Message> messages, String next, long stamp){
+        ByteArrayPool.Buffer out = buffers.acquire();
+        out.writeAscii("{\"messages\":");
+        writeArray(out, messages, stamp);
+        out.writeAscii(next == null ? ",\"next\":null}" : ",\"next\":\"" + next + "\"}");
+        return out;
+    }
+
+    private void writeArray(ByteArrayPool.Buffer out, List<Message> messages, long stamp){
+        out.write('[');
+        for(int i = 0; i < messages.size(); i++){
+            if(i > 0)
+                out.write(',');
+            out.write(fragment(messages.get(i), stamp));
+        }
+        out.write(']');
+    }
+
+    /**
+     * Returns a buffer from array() or page() to the pool.
+     */
+    public void release(ByteArrayPool.Buffer buffer){
+        buffers.release(buffer);
+    }
+
+    private byte[] serialize(Message m){
+        ByteArrayPool.Buffer out = buffers.acquire();
+        try(JsonGenerator gen = jsonFactory.createGenerator(out)){
+            SocialMediaController.writeMessage(gen, m.getMessage_id(), m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        byte[] json = out.toByteArray();
+        buffers.release(out);
+        return json;
+    }
+
+    private void evictOne(){
+        Iterator<Integer> it = fragments.keySet().iterator();
+        if(it.hasNext()){
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void messageCreated(Message m){
+    }
+
+    @Override
+    public void messageUpdated(Message m){
+        fragments.remove(m.getMessage_id());
+    }
+
+    @Override
+    public void messageDeleted(Message m){
+        fragments.remove(m.getMessage_id());
+    }
+
+    /**
+     * @return the number of fragments held.
+     */
+    public int size(){
+        return fragments.size();
+    }
+
+    public long getHitCount(){
+        return hits.get();
+    }
+
+    public long getMissCount(){
+        return misses.get();
+    }
+
+    /**
+     * Writes the cache's size and hit and miss counts.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("message_json_cache_size", "gauge", "Serialized messages held in the JSON fragment cache.")
+                .sample("message_json_cache_size", size());
+        w.header("message_json_cache_requests_total", "counter", "JSON fragment cache lookups by result.")
+                .sample("message_json_cache_requests_total", getHitCount(), "result", "hit")
+                .sample("message_json_cache_requests_total", getMissCount(), "result", "miss");
+    }
+
+    private static class Fragment {
+        final long version;
+        final byte[] json;
+
+        Fragment(long version, byte[] json){
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package Controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import Util.LatencyHistogram;
+import Util.PrometheusTextWriter;
+import io.javalin.http.Handler;
+import io.javalin.http.HttpResponseException;
+
+/**
+ * Request counts and handler latencies per route and status class.
+ *
+ * Each route is wrapped once, when it is registered, by timed(); the wrapper already holds that route's counters,
+ * so recording a request is a clock read, a thread-local read and a few atomic increments on a LatencyHistogram:
+ * no map lookups, no locks and no allocation. The only allocation is the histogram created the first time a route
+ * answers with a new status class.
+ *
+ * Latency covers the handler itself, from the moment Javalin calls it until it returns. A handler that leaves its
+ * work to a future takes the route with defer() and records the request itself from a completion callback it
+ * registers anyway, timed from the hand-off until the work is done; timed() then records nothing, so no second
+ * future or callback is created per request. Time spent in Jetty and writing a buffered response body is not
+ * included.
+ */
+public class RequestMetrics {
+    /**
+     * Longest latency tracked precisely; slower requests are counted at this value.
+     */
+    static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final double NANOS_TO_SECONDS = 1e-9;
+    private static final double[] BUCKET_BOUNDS_SECONDS =
+            {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * The route of the request being timed on this thread, until its handler takes it with defer(). A one-element
+     * array per thread, so setting it allocates nothing.
+     */
+    private static final ThreadLocal<Route[]> CURRENT = ThreadLocal.withInitial(() -> new Route[1]);
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Wraps a handler so that every request it serves is counted and timed under the given route.
+     * A handler that throws, or whose future completes exceptionally, is counted under the status of its
+     * HttpResponseException, or as a 500.
+     *
+     * @param method the HTTP method, e.g. GET.
+     * @param path the route's path pattern, e.g. /messages/{message_id}.
+     * @param handler the handler to time.
+     * @return the timed handler.
+     */
+    public Handler timed(String method, String path, Handler handler){
+        Route route = routes.computeIfAbsent(method + " " + path, k -> new Route(method, path));
+        return ctx -> {
+            long start = System.nanoTime();
+            Route[] current = CURRENT.get();
+            current[0] = route;
+            try{
+                handler.handle(ctx);
+            }catch(Exception | Error e){
+                if(defer() != null)
+                    route.record(statusOf(e), System.nanoTime() - start);
+                throw e;
+            }
+            if(defer() != null)
+                route.record(ctx.statusCode(), System.nanoTime() - start);
+        };
+    }
+
+    /**
+     * Takes over recording the current request from timed(), for a handler that answers it from a future. It must
+     * be called on the thread running the handler, and the handler must call record() on the returned route when
+     * the future completes, before the response is sent.
+     *
+     * @return the request's route, or null if it is not timed or was already taken.
+     */
+    static Route defer(){
+        Route[] current = CURRENT.get();
+        Route route = current[0];
+        current[0] = null;
+        return route;
+    }
+
+    /**
+     * @return the status a request that failed with e is counted under: that of an HttpResponseException, or 500.
+     */
+    static int statusOf(Throwable e){
+        return e instanceof HttpResponseException ? ((HttpResponseException) e).getStatus() : 500;
+    }
+
+    /**
+     * @param method the HTTP method.
+     * @param path the route's path pattern.
+     * @return the counters of a route registered with timed(), or null if there is none.
+     */
+    public Route getRoute(String method, String path){
+        return routes.get(method + " " + path);
+    }
+
+    /**
+     * Writes every route's latency histogram and quantiles.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("http_server_requests_seconds", "histogram",
+                "Time spent in request handlers, by method, route and status class.");
+        for(Route r : routes.values())
+            for(int c = 1; c < Route.STATUS_CLASSES; c++){
+                LatencyHistogram h = r.byStatusClass.get(c);
+                if(h != null)
+                    w.histogram("http_server_requests_seconds", h, NANOS_TO_SECONDS, BUCKET_BOUNDS_SECONDS,
+                            "method", r.method, "route", r.path, "status", c + "xx");
+            }
+        w.header("http_server_requests_latency_seconds", "summary",
+                "Request handler latency quantiles since startup, by method, route and status class.");
+        for(Route r : routes.values())
+            for(int c = 1; c < Route.STATUS_CLASSES; c++){
+                LatencyHistogram h = r.byStatusClass.get(c);
+                if(h != null)
+                    w.summary("http_server_requests_latency_seconds", h, NANOS_TO_SECONDS, QUANTILES,
+                            "method", r.method, "route", r.path, "status", c + "xx");
+            }
+    }
+
+    /**
+     * The counters of one route: a latency histogram per status class (1xx to 5xx).
+     */
+    public static class Route {
+        static final int STATUS_CLASSES = 6;
+
+        final String method;
+        final String path;
+        final AtomicReferenceArray<LatencyHistogram> byStatusClass = new AtomicReferenceArray<>(STATUS_CLASSES);
+
+        Route(String method, String path){
+            this.method = method;
+            this.path = path;
+        }
+
+        /**
+         * Counts a request answered with the given status after the given time.
+         */
+        void record(int status, long nanos){
+            int c = status / 100;
+            if(c < 1 || c >= STATUS_CLASSES)
+                c = 5;
+            LatencyHistogram h = byStatusClass.get(c);
+            if(h == null){
+                byStatusClass.compareAndSet(c, null, new LatencyHistogram(HIGHEST_TRACKABLE_NANOS));
+                h = byStatusClass.get(c);
+            }
+            h.record(nanos);
+        }
+
+        /**
+         * @param statusClass 1 to 5, for 1xx to 5xx.
+         * @return the number of requests answered with that class of status.
+         */
+        public long getCount(int statusClass){
+            LatencyHistogram h = byStatusClass.get(statusClass);
+            return h == null ? 0 : h.getCount();
+        }
+
+        /**
+         * @param statusClass 1 to 5, for 1xx to 5xx.
+         * @return the latency histogram for that class of status, or null if there have been no such requests.
+         */
+        public LatencyHistogram getLatency(int statusClass){
+            return byStatusClass.get(statusClass);
+        }
+    }
+}
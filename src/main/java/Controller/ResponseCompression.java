@@ -0,0 +1,292 @@
+package Controller;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Util.ByteArrayPool;
+import Util.ContentCodec;
+import Util.PrometheusTextWriter;
+import io.javalin.http.Context;
+
+/**
+ * Accept-Encoding negotiation for response bodies, used instead of Javalin's own compression.
+ *
+ * Codecs are tried in the order they were added; the one the client weighs highest (by q value) wins, and ties go
+ * to the earlier codec. Only bodies of at least minBytes are encoded, since compressing a tiny body costs more CPU
+ * than it saves on the wire. A buffered body's size is known up front; a streamed body is held back until minBytes
+ * have been written, and is only encoded if it gets that far.
+ *
+ * An encoded response's strong ETag gets the coding appended (e.g. "abc-gzip"), as the two representations differ
+ * byte for byte; baseETag() strips it again when comparing If-None-Match.
+ */
+public class ResponseCompression {
+    private final List<ContentCodec> codecs = new CopyOnWriteArrayList<>();
+    private final int minBytes;
+    private final AtomicLong encodedResponses = new AtomicLong();
+    private final AtomicLong unencodedResponses = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * @param minBytes bodies smaller than this are sent as they are.
+     */
+    public ResponseCompression(int minBytes){
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Adds a codec that clients may ask for; it is preferred below the codecs added before it.
+     *
+     * @param codec the codec to add.
+     * @return this, for chaining.
+     */
+    public ResponseCompression addCodec(ContentCodec codec){
+        codecs.add(codec);
+        return this;
+    }
+
+    /**
+     * Picks the codec to encode a response with.
+     *
+     * @param acceptEncoding the request's Accept-Encoding header, or null.
+     * @return the codec the client weighs highest, or null to send the body unencoded.
+     */
+    ContentCodec negotiate(String acceptEncoding){
+        if(acceptEncoding == null || codecs.isEmpty())
+            return null;
+        ContentCodec best = null;
+        double bestQ = 0;
+        for(ContentCodec codec : codecs){
+            double q = weight(acceptEncoding, codec.getEncoding());
+            if(q > bestQ){
+                best = codec;
+                bestQ = q;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the q value Accept-Encoding gives a coding, by name or through *, or 0 if it is not acceptable.
+     */
+    private static double weight(String acceptEncoding, String encoding){
+        double wildcard = 0;
+        for(String item : acceptEncoding.split(",")){
+            String[] parts = item.split(";");
+            String token = parts[0].trim();
+            double q = 1;
+            for(int i = 1; i < parts.length; i++){
+                String param = parts[i].trim();
+                if(param.startsWith("q=")){
+                    try{
+                        q = Double.parseDouble(param.substring(2));
+                    }catch(NumberFormatException e){
+                        q = 0;
+                    }
+                }
+            }
+            if(token.equalsIgnoreCase(encoding))
+                return q;
+            if(token.equals("*"))
+                wildcard = q;
+        }
+        return wildcard;
+    }
+
+    /**
+     * Sends a buffered body, encoded if the client accepts a codec and the body is at least minBytes long.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param body the complete body
+     * @throws IOException if the client goes away
+     */
+    public void send(Context ctx, ByteArrayPool.Buffer body) throws IOException{
+        send(ctx, body.size(), body::writeTo);
+    }
+
+    /**
+     * Sends a body held in an array, as send(Context, ByteArrayPool.Buffer) does.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param body the complete body
+     * @throws IOException if the client goes away
+     */
+    public void send(Context ctx, byte[] body) throws IOException{
+        send(ctx, body.length, out -> out.write(body));
+    }
+
+    private void send(Context ctx, int size, BodyWriter body) throws IOException{
+        ContentCodec codec = vary(ctx);
+        if(codec == null || size < minBytes){
+            unencodedResponses.incrementAndGet();
+            ctx.res().setContentLength(size);
+            body.writeTo(ctx.res().getOutputStream());
+            return;
+        }
+        try(OutputStream out = encode(ctx, codec)){
+            body.writeTo(out);
+            bytesIn.addAndGet(size);
+        }
+    }
+
+    /**
+     * Copies a buffered body to a stream.
+     */
+    @FunctionalInterface
+    private interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Opens the response body for a streamed listing. The first minBytes are held back; if the body ends before
+     * that it is sent unencoded, otherwise the rest is encoded with the negotiated codec. The stream must be closed.
+     *
+     * @param ctx the Javalin context object for the request
+     * @return the stream to write the body to
+     * @throws IOException if the client goes away
+     */
+    public OutputStream outputStream(Context ctx) throws IOException{
+        ContentCodec codec = vary(ctx);
+        if(codec == null){
+            unencodedResponses.incrementAndGet();
+            // the servlet stream itself: Javalin's ctx.outputStream() ignores flush(), so nothing would reach the
+            // client until the listing had been read to the end
+            return ctx.res().getOutputStream();
+        }
+        return new ThresholdOutputStream(ctx, codec);
+    }
+
+    /**
+     * Marks the response as varying by Accept-Encoding, whether or not it ends up encoded, and negotiates a codec.
+     */
+    private ContentCodec vary(Context ctx){
+        if(codecs.isEmpty())
+            return null;
+        ctx.res().addHeader("Vary", "Accept-Encoding");
+        return negotiate(ctx.header("Accept-Encoding"));
+    }
+
+    /**
+     * Sets the headers of an encoded response and opens the codec over the response body.
+     */
+    private OutputStream encode(Context ctx, ContentCodec codec) throws IOException{
+        encodedResponses.incrementAndGet();
+        ctx.header("Content-Encoding", codec.getEncoding());
+        String eTag = ctx.res().getHeader("ETag");
+        if(eTag != null && eTag.startsWith("\"") && eTag.endsWith("\""))
+            ctx.header("ETag", eTag.substring(0, eTag.length() - 1) + "-" + codec.getEncoding() + "\"");
+        return codec.open(new FilterOutputStream(ctx.res().getOutputStream()){
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException{
+                out.write(b, off, len);
+                bytesOut.addAndGet(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException{
+                out.write(b);
+                bytesOut.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @param tag an entity tag from If-None-Match, without any W/ prefix.
+     * @return the tag with the suffix that encode() adds for a codec removed, if it has one.
+     */
+    public String baseETag(String tag){
+        for(ContentCodec codec : codecs){
+            String suffix = "-" + codec.getEncoding() + "\"";
+            if(tag.endsWith(suffix))
+                return tag.substring(0, tag.length() - suffix.length()) + "\"";
+        }
+        return tag;
+    }
+
+    /**
+     * Writes the number of responses sent encoded and unencoded, and the bytes before and after encoding.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("http_response_compression_total", "counter", "Negotiable responses by whether they were encoded.")
+                .sample("http_response_compression_total", encodedResponses.get(), "result", "encoded")
+                .sample("http_response_compression_total", unencodedResponses.get(), "result", "unencoded");
+        w.header("http_response_compression_bytes_total", "counter", "Bytes of encoded responses, before and after encoding.")
+                .sample("http_response_compression_bytes_total", bytesIn.get(), "stage", "in")
+                .sample("http_response_compression_bytes_total", bytesOut.get(), "stage", "out");
+    }
+
+    /**
+     * Holds a streamed body back until it reaches minBytes, then switches to the codec.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private final Context ctx;
+        private final ContentCodec codec;
+        private byte[] pending = new byte[Math.max(minBytes, 1)];
+        private int pendingLength;
+        private OutputStream out;
+
+        ThresholdOutputStream(Context ctx, ContentCodec codec){
+            this.ctx = ctx;
+            this.codec = codec;
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            if(out == null && pendingLength < minBytes){
+                pending[pendingLength++] = (byte) b;
+                return;
+            }
+            start();
+            out.write(b);
+            bytesIn.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException{
+            if(out == null && pendingLength + len < minBytes){
+                System.arraycopy(b, off, pending, pendingLength, len);
+                pendingLength += len;
+                return;
+            }
+            start();
+            out.write(b, off, len);
+            bytesIn.addAndGet(len);
+        }
+
+        private void start() throws IOException{
+            if(out != null)
+                return;
+            out = encode(ctx, codec);
+            out.write(pending, 0, pendingLength);
+            bytesIn.addAndGet(pendingLength);
+            pending = null;
+        }
+
+        /**
+         * Does nothing while the body is still held back, since the decision to encode must come first.
+         */
+        @Override
+        public void flush() throws IOException{
+            if(out != null)
+                out.flush();
+        }
+
+        @Override
+        public void close() throws IOException{
+            if(out == null){
+                unencodedResponses.incrementAndGet();
+                out = ctx.res().getOutputStream();
+                ctx.res().setContentLength(pendingLength);
+                out.write(pending, 0, pendingLength);
+                pending = null;
+            }
+            out.close();
+        }
+    }
+}
@@ -1,9 +1,39 @@
 package Controller;
 
+import Service.MessageSearchIndex;
+import Service.SessionStore;
 import Service.SocialMediaService;
+import Service.TimelineStore;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
 import Model.*;
+import DAO.MessageRowWriter;
+import Util.AimdLimiter;
+import Util.ByteArrayPool;
+import Util.ConnectionPool;
+import Util.GzipCodec;
+import Util.JdbcExecutor;
+import Util.PrometheusTextWriter;
+import Util.RoutingDataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -11,9 +41,123 @@ import Model.*;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.
  */
 public class SocialMediaController {
+    private static final Logger log = LoggerFactory.getLogger(SocialMediaController.class);
+
+    /**
+     * Page size used when a client pages with a cursor but does not send a limit.
+     */
+    static final int DEFAULT_PAGE_SIZE = 50;
+    /**
+     * Largest page a client may request, so one request cannot pull the whole table.
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+    /**
+     * Largest number of messages accepted by one POST /messages/batch request.
+     */
+    static final int MAX_BATCH_SIZE = 10000;
+    /**
+     * Response header carrying the session token issued by a successful login. The login body stays the account.
+     */
+    static final String SESSION_TOKEN_HEADER = "X-Session-Token";
+    /**
+     * Response header on writes carrying a database position at or after the write. A client that sends it back in
+     * READ_AFTER_HEADER is only served by read replicas that have applied the write, or by the primary.
+     */
+    static final String WRITE_POSITION_HEADER = "X-Write-Position";
+    static final String READ_AFTER_HEADER = "X-Read-After";
+    /**
+     * Request attribute holding the System.nanoTime() at which the request's database phase ended; see databaseDone().
+     */
+    private static final String DATABASE_DONE_ATTRIBUTE = "socialmedia.databaseDone";
+    /**
+     * Number of search results returned when the client does not send a limit, and the most it may ask for.
+     */
+    static final int DEFAULT_SEARCH_LIMIT = 20;
+    static final int MAX_SEARCH_LIMIT = 100;
+    /**
+     * Number of feed messages returned when the client does not send a limit.
+     */
+    static final int DEFAULT_FEED_LIMIT = 50;
+    /**
+     * Returned by sessionAccountId() for requests that carry no bearer token.
+     */
+    private static final int NO_SESSION = 0;
+    /**
+     * Returned by sessionAccountId() for requests whose bearer token is not a live session.
+     */
+    private static final int INVALID_SESSION = -1;
+
     SocialMediaService socialMediaService;
+    /**
+     * Counts and times the requests served by each route; exported at GET /metrics.
+     */
+    final RequestMetrics requestMetrics = new RequestMetrics();
+    /**
+     * Serialized JSON of recently served messages, reused by every read endpoint. Its size is set with the
+     * socialmedia.jsonCache.maxSize system property.
+     */
+    final MessageJsonCache jsonCache;
+    /**
+     * Buffers for assembling response bodies, shared by jsonCache and the binary formats.
+     */
+    private final ByteArrayPool buffers = new ByteArrayPool(64, 8192, 1 << 20);
+    /**
+     * Accept-Encoding negotiation for the listing, search, feed and metrics responses. gzip is offered unless
+     * socialmedia.compression.enabled is false; bodies under socialmedia.compression.minBytes (1024 by default) are
+     * sent as they are, and socialmedia.compression.level sets the zlib level (6 by default).
+     */
+    final ResponseCompression compression;
+    /**
+     * Fans message writes out to GET /messages/stream. Set with socialmedia.stream.replaySize (events kept for
+     * Last-Event-ID, 1024 by default), .queueSize (events a client may fall behind by, 256), .maxSubscribers (100)
+     * and .overflow (DISCONNECT or DROP).
+     */
+    final MessageEventHub eventHub;
+    /**
+     * How long an idle event stream waits before sending a heartbeat comment; socialmedia.stream.heartbeatMillis.
+     */
+    private final long heartbeatMillis = Long.getLong("socialmedia.stream.heartbeatMillis", 15000);
+    /**
+     * Runs the database work of handlers off the HTTP threads. It has socialmedia.jdbcExecutor.threads threads (the
+     * connection pool's maximum size by default) and queues up to socialmedia.jdbcExecutor.queueSize (1000) tasks.
+     * With socialmedia.jdbcExecutor.enabled set to false, database work runs on the request thread as before.
+     */
+    final JdbcExecutor jdbcExecutor;
+    /**
+     * Adaptive limits on concurrent database reads and writes; see onJdbcExecutor(). Each is set with
+     * socialmedia.limit.read.* or socialmedia.limit.write.*: initial, min and max limits, the targetMillis latency
+     * above which a request is slow, and how many slowSamples among the last window requests (3 of 20) lower the
+     * limit. POST /login may go over the read limit by socialmedia.limit.loginHeadroom (0.5 of it by default).
+     */
+    final AimdLimiter readLimiter = limiter("read", 40, 4, 400, 100);
+    final AimdLimiter writeLimiter = limiter("write", 20, 2, 200, 250);
     public SocialMediaController(){
-        socialMediaService = new SocialMediaService();
+        this(new SocialMediaService());
+    }
+
+    /**
+     * @param socialMediaService the service to answer requests with, e.g. one over a DAO with its own replicas.
+     */
+    public SocialMediaController(SocialMediaService socialMediaService){
+        this.socialMediaService = socialMediaService;
+        jsonCache = new MessageJsonCache(WireFormat.JSON.getFactory(), socialMediaService.getResourceVersions(),
+                Integer.getInteger("socialmedia.jsonCache.maxSize", 10000), buffers);
+        socialMediaService.addMessageChangeListener(jsonCache);
+        eventHub = new MessageEventHub(WireFormat.JSON.getFactory(),
+                Integer.getInteger("socialmedia.stream.replaySize", 1024),
+                Integer.getInteger("socialmedia.stream.queueSize", 256),
+                Integer.getInteger("socialmedia.stream.maxSubscribers", 100),
+                MessageEventHub.OverflowPolicy.valueOf(System.getProperty("socialmedia.stream.overflow", "DISCONNECT").toUpperCase()));
+        socialMediaService.addMessageChangeListener(eventHub);
+        jdbcExecutor = Boolean.parseBoolean(System.getProperty("socialmedia.jdbcExecutor.enabled", "true"))
+                ? new JdbcExecutor(Integer.getInteger("socialmedia.jdbcExecutor.threads", ConnectionPool.getInstance().getMaxSize()),
+                        Integer.getInteger("socialmedia.jdbcExecutor.queueSize", 1000))
+                : null;
+        compression = new ResponseCompression(Integer.getInteger("socialmedia.compression.minBytes", 1024));
+        if(Boolean.parseBoolean(System.getProperty("socialmedia.compression.enabled", "true"))){
+            compression.addCodec(new GzipCodec(Integer.getInteger("socialmedia.compression.level", 6),
+                    Runtime.getRuntime().availableProcessors() * 2));
+        }
     }
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
@@ -21,29 +165,344 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.get("example-endpoint", this::exampleHandler);
-        app.post("/register", this::registerAnAccount); 
-        app.post("/login", this::validUser);
-        app.post("/messages", this::createMessage);
-        app.get("/messages", this::getAllMessages); 
-        app.get("/messages/{message_id}", this::getMessageById);
-        app.delete("/messages/{message_id}", this::deleteMessageById);
-        app.patch("/messages/{message_id}", this::updateMessageTextById);
-        app.get("/accounts/{account_id}/messages", this::getAllMessagesByUserId);
+        return startAPI(Boolean.getBoolean("socialmedia.virtualThreads"));
+    }
+
+    /**
+     * Builds the Javalin app, optionally running request handlers on virtual threads.
+     *
+     * With virtual threads every request gets its own cheap thread, so a handler blocked on a JDBC call no longer
+     * holds one of Jetty's limited platform threads, and concurrency is bounded by the connection pool rather than by
+     * the HTTP thread pool. This needs a JDK with virtual threads (21+, see the loom profile in pom.xml); on older
+     * JDKs Jetty falls back to its regular thread pool.
+     *
+     * @param virtualThreads true to run handlers on virtual threads instead of Jetty's platform thread pool.
+     * @return a Javalin app object which defines the behavior of the Javalin controller.
+     */
+    public Javalin startAPI(boolean virtualThreads) {
+        Javalin app = Javalin.create(config -> {
+            // responses are compressed by ResponseCompression, which pools its Deflaters and honours the threshold
+            config.compression.none();
+            if(virtualThreads){
+                config.jetty.server(SocialMediaController::virtualThreadServer);
+            }
+        });
+        // open event streams hold request threads until they end, so end them before Jetty waits for its threads
+        app.events(events -> {
+            events.serverStopping(eventHub::closeAll);
+            events.serverStopped(socialMediaService::close);
+        });
+        route(app, HandlerType.GET, "example-endpoint", this::exampleHandler);
+        route(app, HandlerType.POST, "/register", blocking(Budget.WRITE, this::registerAnAccount));
+        route(app, HandlerType.POST, "/login", blocking(Budget.LOGIN, this::validUser));
+        route(app, HandlerType.POST, "/logout", this::logout);
+        route(app, HandlerType.POST, "/messages", blocking(Budget.WRITE, this::createMessage));
+        route(app, HandlerType.POST, "/messages/batch", blocking(Budget.WRITE, this::createMessages));
+        route(app, HandlerType.GET, "/messages", this::getAllMessages);
+        route(app, HandlerType.GET, "/messages/search", blocking(Budget.READ, this::searchMessages));
+        // not timed: a stream lasts as long as the client stays connected, which would swamp the latency histogram
+        app.get("/messages/stream", this::streamEvents);
+        route(app, HandlerType.GET, "/messages/{message_id}", this::getMessageById);
+        route(app, HandlerType.DELETE, "/messages/{message_id}", blocking(Budget.WRITE, this::deleteMessageById));
+        route(app, HandlerType.PATCH, "/messages/{message_id}", blocking(Budget.WRITE, this::updateMessageTextById));
+        route(app, HandlerType.GET, "/accounts/{account_id}/messages", this::getAllMessagesByUserId);
+        route(app, HandlerType.PUT, "/accounts/{account_id}/following/{followee_id}", blocking(Budget.WRITE, this::follow));
+        route(app, HandlerType.DELETE, "/accounts/{account_id}/following/{followee_id}", blocking(Budget.WRITE, this::unfollow));
+        route(app, HandlerType.GET, "/accounts/{account_id}/feed", blocking(Budget.READ, this::getFeed));
+        app.get("/metrics", this::metrics);
         
         return app;
     }
     
+    /**
+     * Registers a handler, timed under its route by requestMetrics.
+     */
+    private void route(Javalin app, HandlerType method, String path, Handler handler){
+        app.addHandler(method, path, requestMetrics.timed(method.name(), path, handler));
+    }
+
+    private static AimdLimiter limiter(String budget, int initial, int min, int max, long targetMillis){
+        String prefix = "socialmedia.limit." + budget + ".";
+        return new AimdLimiter(budget, Integer.getInteger(prefix + "initial", initial), Integer.getInteger(prefix + "min", min),
+                Integer.getInteger(prefix + "max", max), Long.getLong(prefix + "targetMillis", targetMillis), 0.9,
+                Double.parseDouble(System.getProperty("socialmedia.limit.loginHeadroom", "0.5")),
+                Integer.getInteger(prefix + "slowSamples", 3), Integer.getInteger(prefix + "window", 20));
+    }
+
+    /**
+     * Wraps a handler whose work is all database work, so that it runs on jdbcExecutor under the given budget.
+     */
+    private Handler blocking(Budget budget, Handler handler){
+        return ctx -> onJdbcExecutor(ctx, budget, () -> handler.handle(ctx));
+    }
+
+    /**
+     * The concurrency budget a request's database work is admitted under.
+     */
+    private enum Budget {
+        READ,
+        WRITE,
+        /**
+         * Reads on behalf of POST /login, which may use the read limiter's priority headroom: a client that cannot
+         * log in cannot do anything else either.
+         */
+        LOGIN
+    }
+
+    /**
+     * Hands the rest of a request to jdbcExecutor and answers it asynchronously, leaving the HTTP thread free for
+     * requests that need no query. Handlers call this once they have answered whatever they can from memory, such
+     * as a 304 or a cached message.
+     *
+     * The work is first admitted by the budget's limiter. A request over the limit, or one that finds the
+     * executor's queue full, is answered at once with a 503 and Retry-After, and the time each admitted request
+     * takes adjusts the limit. That time ends when the handler starts writing its body (see databaseDone()), so a
+     * client that is slow to download cannot lower the limit for everyone else.
+     *
+     * The work runs in a RoutingDataSource request scope, so its routable reads may go to a read replica. A write
+     * reads only from the primary and answers with WRITE_POSITION_HEADER; a read carrying that position in
+     * READ_AFTER_HEADER is kept off replicas that have not applied it. A malformed position is a 400.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param budget the budget the work counts against
+     * @param task the rest of the handler, which may block on the database
+     * @throws Exception whatever task throws, when there is no executor and it runs on the request thread
+     */
+    private void onJdbcExecutor(Context ctx, Budget budget, JdbcExecutor.Task task) throws Exception{
+        long readAfter = budget == Budget.WRITE ? Long.MAX_VALUE : readAfter(ctx);
+        if(readAfter < 0){
+            ctx.status(400);
+            return;
+        }
+        task = routed(ctx, budget, readAfter, task);
+        AimdLimiter limiter = budget == Budget.WRITE ? writeLimiter : readLimiter;
+        if(!limiter.tryAcquire(budget == Budget.LOGIN)){
+            ctx.header("Retry-After", "1").status(503);
+            return;
+        }
+        long start = System.nanoTime();
+        if(jdbcExecutor == null){
+            try{
+                task.run();
+            }finally{
+                limiter.release(databaseNanos(ctx, start));
+            }
+            return;
+        }
+        CompletableFuture<Void> future = jdbcExecutor.submit(task);
+        if(future == null){
+            limiter.drop();
+            ctx.header("Retry-After", "1").status(503);
+            return;
+        }
+        // the one completion callback per request: it also records the route's latency, before the response is sent
+        RequestMetrics.Route route = RequestMetrics.defer();
+        CompletableFuture<Void> done = future.whenComplete((result, e) -> {
+            limiter.release(databaseNanos(ctx, start));
+            if(route != null)
+                route.record(e == null ? ctx.statusCode() : RequestMetrics.statusOf(e), System.nanoTime() - start);
+        });
+        ctx.future(() -> done);
+    }
+
+    /**
+     * Marks the end of a request's database phase, before its body is written to the client. Only the first call
+     * counts. A streamed listing calls this before its query, as it reads and writes in step; it is admitted like
+     * any other read but only its wait for a thread counts toward the limit.
+     *
+     * @param ctx the Javalin context object for the request
+     */
+    private static void databaseDone(Context ctx){
+        if(ctx.attribute(DATABASE_DONE_ATTRIBUTE) == null)
+            ctx.attribute(DATABASE_DONE_ATTRIBUTE, System.nanoTime());
+    }
+
+    /**
+     * @return the time from start to databaseDone(), or to now if the handler never wrote a body.
+     */
+    private static long databaseNanos(Context ctx, long start){
+        Long done = ctx.attribute(DATABASE_DONE_ATTRIBUTE);
+        return (done == null ? System.nanoTime() : done) - start;
+    }
+
+    /**
+     * @return the position in the request's READ_AFTER_HEADER, 0 if it has none, or -1 if it is not a position.
+     */
+    private static long readAfter(Context ctx){
+        String header = ctx.header(READ_AFTER_HEADER);
+        if(header == null)
+            return 0;
+        try{
+            return Math.max(Long.parseLong(header.trim()), -1);
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    private JdbcExecutor.Task routed(Context ctx, Budget budget, long readAfter, JdbcExecutor.Task task){
+        return () -> {
+            RoutingDataSource.beginRequest(readAfter);
+            try{
+                task.run();
+            }finally{
+                RoutingDataSource.endRequest();
+            }
+            if(budget == Budget.WRITE)
+                ctx.header(WRITE_POSITION_HEADER, Long.toString(socialMediaService.getWritePosition()));
+        };
+    }
+
+    /**
+     * Called after a response's messages were read on jdbcExecutor. If they may have come from a replica that is
+     * behind, the ETag set for the current version is taken off the response and the stamp is replaced by one
+     * that keeps them out of jsonCache.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param stamp the value of jsonCache.stamp() before the messages were read
+     * @return the stamp to pass on to jsonCache
+     */
+    private long unlessStale(Context ctx, long stamp){
+        if(!RoutingDataSource.isStaleRead())
+            return stamp;
+        ctx.res().setHeader("ETag", null);
+        return -1;
+    }
+
+    /**
+     * Handles GET /metrics: request counts and latency histograms per route and status class, plus the state of
+     * the connection pool, caches and session store, in the Prometheus text format.
+     *
+     * @param ctx the Javalin context object for the scrape request
+     */
+    private void metrics(Context ctx){
+        PrometheusTextWriter w = new PrometheusTextWriter();
+        requestMetrics.writeTo(w);
+        jsonCache.writeTo(w);
+        compression.writeTo(w);
+        eventHub.writeTo(w);
+        if(jdbcExecutor != null)
+            jdbcExecutor.writeTo(w);
+        AimdLimiter.writeTo(w, readLimiter, writeLimiter);
+        socialMediaService.writeMetrics(w);
+        ctx.contentType(PrometheusTextWriter.CONTENT_TYPE);
+        try{
+            compression.send(ctx, w.toString().getBytes(StandardCharsets.UTF_8));
+        }catch(IOException e){
+            // the scraper went away; the response is already committed, so there is nothing to send
+        }
+    }
+
+    /**
+     * Creates a Jetty server whose thread pool hands blocking work (such as our handlers) to virtual threads.
+     * Only the selector and acceptor threads stay on the platform thread pool.
+     *
+     * @return a server for Javalin to add its connector and handlers to
+     */
+    private static Server virtualThreadServer(){
+        if(!VirtualThreads.areSupported()){
+            log.warn("virtual threads are not supported by this JVM ({}), using platform threads",
+                    System.getProperty("java.version"));
+        }
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("javalin-vt");
+        threadPool.setUseVirtualThreads(true);
+        return new Server(threadPool);
+    }
+
     /**
      * Handles the request to get all messages for a specific user.
-     * 
+     * The response carries an ETag that changes whenever one of the user's messages is written; a request whose
+     * If-None-Match holds it gets a 304 without a query, on the request thread; anything else is read on
+     * jdbcExecutor.
+     *
      * @param ctx The context of the Javalin HTTP request.
      */
-    private void getAllMessagesByUserId(Context ctx){
+    private void getAllMessagesByUserId(Context ctx) throws Exception{
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        WireFormat format = responseFormat(ctx);
+        if(notModified(ctx, format, socialMediaService.getResourceVersions().accountETag(account_id)))
+            return;
+        onJdbcExecutor(ctx, Budget.READ, () -> getAllMessagesByUserId(ctx, account_id, format));
+    }
+
+    private void getAllMessagesByUserId(Context ctx, int account_id, WireFormat format){
+        if(isStreamed(ctx)){
+            streamMessages(ctx, format, writer -> socialMediaService.streamAllMessagesByUserId(account_id, writer));
+            return;
+        }
+        if(isPaged(ctx)){
+            PageRequest page = PageRequest.from(ctx);
+            if(page == null){
+                ctx.status(400);
+                return;
+            }
+            long stamp = jsonCache.stamp();
+            sendPage(ctx, format, socialMediaService.getMessagesPageByUserId(account_id, page.cursor, page.backward, page.limit), stamp);
+            return;
+        }
+        long stamp = jsonCache.stamp();
+        List<Message> messages = socialMediaService.getAllMessagesByUserId(account_id);
+        sendMessages(ctx, format, messages, unlessStale(ctx, stamp));
+    }
+
+    /**
+     * Handles PUT /accounts/{account_id}/following/{followee_id}: account_id starts following followee_id.
+     * Following twice is not an error. Responds with 200, or 400 if either account does not exist or they are the
+     * same account. With a session token, only the session's own account may follow (403 otherwise).
+     *
+     * @param ctx the Javalin context object for the request
+     */
+    private void follow(Context ctx){
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        if(!mayActAs(ctx, account_id))
+            return;
+        ctx.status(socialMediaService.follow(account_id, followee_id) ? 200 : 400);
+    }
+
+    /**
+     * Handles DELETE /accounts/{account_id}/following/{followee_id}: account_id stops following followee_id.
+     * Responds with 200, or 404 if it was not following. With a session token, only the session's own account may
+     * unfollow (403 otherwise).
+     *
+     * @param ctx the Javalin context object for the request
+     */
+    private void unfollow(Context ctx){
         int account_id = Integer.parseInt(ctx.pathParam("account_id"));
-        ctx.json(socialMediaService.getAllMessagesByUserId(account_id));
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        if(!mayActAs(ctx, account_id))
+            return;
+        ctx.status(socialMediaService.unfollow(account_id, followee_id) ? 200 : 404);
+    }
 
+    /**
+     * Handles GET /accounts/{account_id}/feed?limit=...: a JSON array of the newest messages posted by the account
+     * and the accounts it follows, newest first. A limit outside 1 to the timeline size gets a 400, and a 404 is
+     * returned when feeds are disabled.
+     *
+     * @param ctx the Javalin context object for the request
+     */
+    private void getFeed(Context ctx){
+        TimelineStore timelineStore = socialMediaService.getTimelineStore();
+        if(timelineStore == null){
+            ctx.status(404);
+            return;
+        }
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        String limitParam = ctx.queryParam("limit");
+        int limit;
+        try{
+            limit = limitParam == null ? DEFAULT_FEED_LIMIT : Integer.parseInt(limitParam);
+        }catch(NumberFormatException e){
+            ctx.status(400);
+            return;
+        }
+        if(limit < 1 || limit > timelineStore.getCapacity()){
+            ctx.status(400);
+            return;
+        }
+        long stamp = jsonCache.stamp();
+        sendMessages(ctx, responseFormat(ctx), socialMediaService.getFeed(account_id, limit), stamp);
     }
 
     /**
@@ -52,17 +511,20 @@ public class SocialMediaController {
      * path parameters and the message details from the request body. The message is then updated through the service layer.
      * If the update is successful, the updated message is returned as a JSON response. If the update fails, 
      * a 400 Bad Request status is returned.
+     * A request with a session token may only update the session account's own messages (see mayModify).
      *
      * @param ctx the Javalin context object, used for extracting path parameters and request body, 
      *            and for sending the response back to the client
      */
     void updateMessageTextById(Context ctx){
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
-        Message message = ctx.bodyAsClass(Message.class);
+        if(!mayModify(ctx, message_id))
+            return;
+        Message message = readBody(ctx, Message.class);
         Message updatedMessage = socialMediaService.updateMessageTextById(message, message_id);
 
         if(updatedMessage != null){
-            ctx.json(updatedMessage);
+            send(ctx, responseFormat(ctx), updatedMessage);
         }
         else{
             ctx.status(400);
@@ -77,14 +539,17 @@ public class SocialMediaController {
      * Extracts the message ID from the request's path parameter and delegates the deletion task to the service layer.
      * If the message is successfully deleted, the deleted message is returned as a JSON response to the client.
      * If no message is found with the given ID, no response is sent.
+     * A request with a session token may only delete the session account's own messages (see mayModify).
      *
      * @param ctx the Javalin context object, used for extracting the message ID from the request and sending the response
      */
     private void deleteMessageById(Context ctx){
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
+        if(!mayModify(ctx, message_id))
+            return;
         Message m = socialMediaService.deleteMessageById(message_id);
         if(m != null){
-            ctx.json(m);
+            send(ctx, responseFormat(ctx), m);
         }
     }   
 
@@ -92,24 +557,420 @@ public class SocialMediaController {
      * Retrieves a message by its ID from the service layer and sends it in JSON format to the client.
      * Extracts the message ID from the request's path parameter, and uses it to fetch the corresponding message.
      * If the message is found, it is returned as a JSON response; otherwise, no response is sent.
+     * A request whose If-None-Match holds the message's current ETag gets a 304 without a lookup, and a message
+     * whose serialized JSON is cached at its current version is sent without a lookup either; both are answered on
+     * the request thread, and only a lookup goes to jdbcExecutor.
      *
      * @param ctx the Javalin context object, used for extracting the message ID from the request and sending the response
      */
-    private void getMessageById(Context ctx){
+    private void getMessageById(Context ctx) throws Exception{
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
-        Message m = socialMediaService.getMessageById(message_id); 
-        if(m != null)
-            ctx.json(m); 
+        WireFormat format = responseFormat(ctx);
+        if(notModified(ctx, format, socialMediaService.getResourceVersions().messageETag(message_id)))
+            return;
+        byte[] json = format == WireFormat.JSON ? jsonCache.get(message_id) : null;
+        if(json != null){
+            ctx.contentType("application/json").result(json);
+            return;
+        }
+        onJdbcExecutor(ctx, Budget.READ, () -> {
+            long stamp = jsonCache.stamp();
+            Message m = socialMediaService.getMessageById(message_id);
+            if(m == null)
+                return;
+            stamp = unlessStale(ctx, stamp);
+            if(format == WireFormat.JSON)
+                ctx.contentType("application/json").result(jsonCache.fragment(m, stamp));
+            else
+                send(ctx, format, m);
+        });
     }
     /** 
      * Handles an HTTP GET request to retrieve all messages.
      * This method delegates the task of fetching messages to the service layer.
      * Once retrieved, it sends these messages back to the client in JSON format.
+     * The response carries an ETag that changes with every message write; a request whose If-None-Match holds it
+     * gets a 304 without a query, on the request thread; anything else is read on jdbcExecutor.
      *
      * @param ctx the Javalin context object, which facilitates handling the request and response
      */
-    private void getAllMessages(Context ctx ){
-        ctx.json(socialMediaService.getAllMessages()); 
+    private void getAllMessages(Context ctx) throws Exception{
+        WireFormat format = responseFormat(ctx);
+        if(notModified(ctx, format, socialMediaService.getResourceVersions().allMessagesETag()))
+            return;
+        onJdbcExecutor(ctx, Budget.READ, () -> getAllMessages(ctx, format));
+    }
+
+    private void getAllMessages(Context ctx, WireFormat format){
+        if(isStreamed(ctx)){
+            streamMessages(ctx, format, socialMediaService::streamAllMessages);
+            return;
+        }
+        if(isPaged(ctx)){
+            PageRequest page = PageRequest.from(ctx);
+            if(page == null){
+                ctx.status(400);
+                return;
+            }
+            long stamp = jsonCache.stamp();
+            sendPage(ctx, format, socialMediaService.getMessagesPage(page.cursor, page.backward, page.limit), stamp);
+            return;
+        }
+        long stamp = jsonCache.stamp();
+        List<Message> messages = socialMediaService.getAllMessages();
+        sendMessages(ctx, format, messages, unlessStale(ctx, stamp));
+    }
+
+    /**
+     * Handles GET /messages/search?q=...&limit=...&sort=relevance|recent.
+     * Responds with a JSON array of the messages containing every word of q, ranked by relevance (the default) or
+     * newest first. A missing q, a limit outside 1 to MAX_SEARCH_LIMIT or an unknown sort gets a 400.
+     *
+     * @param ctx the Javalin context object for the search request
+     */
+    private void searchMessages(Context ctx){
+        String q = ctx.queryParam("q");
+        String limitParam = ctx.queryParam("limit");
+        String sort = ctx.queryParam("sort");
+        int limit;
+        MessageSearchIndex.Order order;
+        try{
+            limit = limitParam == null ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limitParam);
+            order = sort == null ? MessageSearchIndex.Order.relevance : MessageSearchIndex.Order.valueOf(sort);
+        }catch(IllegalArgumentException e){
+            ctx.status(400);
+            return;
+        }
+        if(q == null || q.isBlank() || limit < 1 || limit > MAX_SEARCH_LIMIT){
+            ctx.status(400);
+            return;
+        }
+        long stamp = jsonCache.stamp();
+        List<Message> results = socialMediaService.searchMessages(q, limit, order);
+        if(results == null){
+            ctx.status(404);
+            return;
+        }
+        sendMessages(ctx, responseFormat(ctx), results, stamp);
+    }
+
+    /**
+     * Sets the response's ETag and answers 304 Not Modified if the request's If-None-Match lists that tag (weak
+     * or strong, and with or without the suffix of a content coding). The tag comes from in-memory version counters, so a 304 costs no query and no serialization.
+     *
+     * @param ctx the Javalin context object for a GET request
+     * @param format the format the response will be in, which is part of the ETag
+     * @param eTag the current ETag of the requested resource, in JSON
+     * @return true if the response is a 304 and the handler should stop
+     */
+    private boolean notModified(Context ctx, WireFormat format, String eTag){
+        eTag = format.eTag(eTag);
+        ctx.header("ETag", eTag);
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if(ifNoneMatch == null)
+            return false;
+        for(String tag : ifNoneMatch.split(",")){
+            tag = tag.trim();
+            if(tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if(compression.baseETag(tag).equals(eTag)){
+                ctx.status(304);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A listing request is paged when it carries any of the limit, after or before query parameters.
+     * Without them the listing endpoints keep returning a plain JSON array of every message.
+     *
+     * @param ctx the Javalin context object for the listing request
+     * @return true if the client asked for a page
+     */
+    private boolean isPaged(Context ctx){
+        return ctx.queryParam("limit") != null || ctx.queryParam("after") != null || ctx.queryParam("before") != null;
+    }
+
+    /**
+     * A listing request is streamed when it carries stream=true. The response is the same JSON array as the
+     * unstreamed listing, but it is written row by row as the query runs instead of being built in memory first.
+     *
+     * @param ctx the Javalin context object for the listing request
+     * @return true if the client asked for a streamed listing
+     */
+    private boolean isStreamed(Context ctx){
+        return "true".equalsIgnoreCase(ctx.queryParam("stream"));
+    }
+
+    /**
+     * Writes a listing to the response as a JSON array, one element per row produced by the query.
+     * The response is flushed after the first row so the client receives bytes before the query has finished;
+     * after that the generator's buffer decides when to flush. Heap use stays flat regardless of the row count.
+     * If the query fails or the client goes away part way through, the array is left open and the response is
+     * aborted (or, if nothing was sent yet, answered with a 500), so a cut-off listing never looks complete.
+     *
+     * @param ctx the Javalin context object for the listing request
+     * @param format the format to write the array in
+     * @param query runs the streaming query, feeding each row to the writer it is given
+     */
+    private void streamMessages(Context ctx, WireFormat format, StreamingQuery query){
+        databaseDone(ctx);
+        ctx.contentType(format.getMediaType());
+        try{
+            // not try-with-resources: closing the generator would end the array even when the listing failed
+            JsonGenerator gen = format.getFactory().createGenerator(compression.outputStream(ctx));
+            gen.writeStartArray();
+            int[] rows = {0};
+            query.run((message_id, posted_by, message_text, time_posted_epoch) -> {
+                writeMessage(gen, message_id, posted_by, message_text, time_posted_epoch);
+                if(++rows[0] == 1)
+                    gen.flush();
+            });
+            gen.writeEndArray();
+            gen.close();
+        }catch(IOException e){
+            abort(ctx, e);
+        }
+    }
+
+    /**
+     * Ends a response whose body could not be finished. Before anything is sent it becomes a 500; after that the
+     * connection is cut, so the client sees an incomplete response rather than a short one.
+     */
+    private static void abort(Context ctx, IOException e){
+        if(!ctx.res().isCommitted()){
+            ctx.res().reset();
+            ctx.status(500);
+            return;
+        }
+        Request request = Request.getBaseRequest(ctx.req());
+        if(request == null)
+            throw new UncheckedIOException(e);
+        request.getHttpChannel().abort(e);
+    }
+
+    /**
+     * Handles GET /messages/stream?posted_by=...: a text/event-stream of "created", "updated" and "deleted" events,
+     * each carrying the message as JSON, for every message or only those posted by one account. A client that
+     * reconnects with Last-Event-ID is first sent the events it missed, or a "reset" event if they are no longer
+     * held. A heartbeat comment is sent when the stream has been idle for heartbeatMillis.
+     *
+     * Responds with 400 for a non-numeric posted_by, and with 503 and Retry-After when the most streams allowed
+     * are already open. A client that falls too far behind is disconnected or skips events, depending on the hub's
+     * overflow policy. Event streams are never compressed, as every event is flushed on its own.
+     *
+     * @param ctx the Javalin context object for the request
+     */
+    private void streamEvents(Context ctx){
+        String postedByParam = ctx.queryParam("posted_by");
+        int postedBy;
+        try{
+            postedBy = postedByParam == null ? 0 : Integer.parseInt(postedByParam);
+        }catch(NumberFormatException e){
+            ctx.status(400);
+            return;
+        }
+        MessageEventHub.Subscriber subscriber = eventHub.subscribe(postedBy, ctx.header("Last-Event-ID"));
+        if(subscriber == null){
+            ctx.header("Retry-After", "5").status(503);
+            return;
+        }
+        ctx.contentType("text/event-stream");
+        ctx.header("Cache-Control", "no-cache");
+        try(OutputStream out = ctx.res().getOutputStream()){
+            out.write(MessageEventHub.HEARTBEAT);
+            out.flush();
+            byte[] frame;
+            while((frame = subscriber.take(heartbeatMillis)) != null){
+                out.write(frame);
+                // send whatever else is already queued in the same flush
+                while((frame = subscriber.poll()) != null)
+                    out.write(frame);
+                out.flush();
+            }
+        }catch(IOException e){
+            // the client disconnected, which is how event streams normally end
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally{
+            eventHub.unsubscribe(subscriber);
+        }
+    }
+
+    /**
+     * Writes one message as a JSON object with the same fields ctx.json() produces for a {@code Message}.
+     */
+    static void writeMessage(JsonGenerator gen, int message_id, int posted_by, String message_text, long time_posted_epoch) throws IOException{
+        gen.writeStartObject();
+        gen.writeNumberField("message_id", message_id);
+        gen.writeNumberField("posted_by", posted_by);
+        gen.writeStringField("message_text", message_text);
+        gen.writeNumberField("time_posted_epoch", time_posted_epoch);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Sends an assembled body, compressed if negotiated, and returns its buffer to the pool.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param format the format the body is in
+     * @param buffer the body
+     */
+    private void sendBody(Context ctx, WireFormat format, ByteArrayPool.Buffer buffer){
+        databaseDone(ctx);
+        ctx.contentType(format.getMediaType());
+        try{
+            compression.send(ctx, buffer);
+        }catch(IOException e){
+            // the client went away; the response is already committed, so there is nothing to send
+        }finally{
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Sends a list of messages as an array: in JSON, assembled from jsonCache; in a binary format, written with
+     * that format's streaming generator.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param format the format to answer in
+     * @param messages the messages, read after stamp was taken
+     * @param stamp the value of jsonCache.stamp() before the messages were read
+     */
+    private void sendMessages(Context ctx, WireFormat format, List<Message> messages, long stamp){
+        if(format == WireFormat.JSON){
+            sendBody(ctx, format, jsonCache.array(messages, stamp));
+            return;
+        }
+        ByteArrayPool.Buffer out = buffers.acquire();
+        try(JsonGenerator gen = format.getFactory().createGenerator(out)){
+            writeMessages(gen, messages);
+        }catch(IOException e){
+            buffers.release(out);
+            throw new UncheckedIOException(e);
+        }
+        sendBody(ctx, format, out);
+    }
+
+    /**
+     * Sends a page of messages, as {@code {"messages": [...], "next": ...}} in the given format.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param format the format to answer in
+     * @param page the page, read after stamp was taken
+     * @param stamp the value of jsonCache.stamp() before the page was read
+     */
+    private void sendPage(Context ctx, WireFormat format, MessagePage page, long stamp){
+        if(format == WireFormat.JSON){
+            sendBody(ctx, format, jsonCache.page(page.getMessages(), page.getNext(), stamp));
+            return;
+        }
+        ByteArrayPool.Buffer out = buffers.acquire();
+        try(JsonGenerator gen = format.getFactory().createGenerator(out)){
+            gen.writeStartObject();
+            gen.writeFieldName("messages");
+            writeMessages(gen, page.getMessages());
+            gen.writeStringField("next", page.getNext());
+            gen.writeEndObject();
+        }catch(IOException e){
+            buffers.release(out);
+            throw new UncheckedIOException(e);
+        }
+        sendBody(ctx, format, out);
+    }
+
+    private static void writeMessages(JsonGenerator gen, List<Message> messages) throws IOException{
+        gen.writeStartArray();
+        for(Message m : messages)
+            writeMessage(gen, m.getMessage_id(), m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
+        gen.writeEndArray();
+    }
+
+    /**
+     * Sends any other response object, such as an account or a batch result, in the given format. JSON goes
+     * through Javalin's mapper as before.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param format the format to answer in
+     * @param value the object to send
+     */
+    private static void send(Context ctx, WireFormat format, Object value){
+        if(format == WireFormat.JSON)
+            ctx.json(value);
+        else
+            ctx.contentType(format.getMediaType()).result(format.write(value));
+    }
+
+    /**
+     * Picks the response format from the Accept header, and marks the response as varying by it.
+     *
+     * @param ctx the Javalin context object for the request
+     * @return the format to answer in
+     */
+    private static WireFormat responseFormat(Context ctx){
+        ctx.res().addHeader("Vary", "Accept");
+        return WireFormat.forAccept(ctx.header("Accept"));
+    }
+
+    /**
+     * Reads the request body in the format named by its Content-Type. JSON goes through Javalin's mapper as before.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param type the class to read
+     * @return the object read
+     */
+    private static <T> T readBody(Context ctx, Class<T> type){
+        WireFormat format = WireFormat.forContentType(ctx.contentType());
+        if(format == WireFormat.JSON)
+            return ctx.bodyAsClass(type);
+        return format.read(ctx.bodyAsBytes(), type);
+    }
+
+    /**
+     * A streaming listing query, as provided by the service layer.
+     */
+    @FunctionalInterface
+    private interface StreamingQuery {
+        void run(MessageRowWriter writer) throws IOException;
+    }
+
+    /**
+     * The paging parameters of a listing request: limit, and at most one of the after/before cursors.
+     */
+    static class PageRequest {
+        final MessageCursor cursor;
+        final boolean backward;
+        final int limit;
+
+        PageRequest(MessageCursor cursor, boolean backward, int limit){
+            this.cursor = cursor;
+            this.backward = backward;
+            this.limit = limit;
+        }
+
+        /**
+         * @param ctx the Javalin context object for the listing request
+         * @return the parsed paging parameters, or null if they are malformed (bad limit, bad cursor, or both
+         *         after and before given)
+         */
+        static PageRequest from(Context ctx){
+            String after = ctx.queryParam("after");
+            String before = ctx.queryParam("before");
+            String limitParam = ctx.queryParam("limit");
+            if(after != null && before != null)
+                return null;
+            try{
+                int limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+                if(limit < 1 || limit > MAX_PAGE_SIZE)
+                    return null;
+                if(before != null)
+                    return new PageRequest(MessageCursor.decode(before), true, limit);
+                return new PageRequest(after == null ? null : MessageCursor.decode(after), false, limit);
+            }catch(IllegalArgumentException e){
+                return null;
+            }
+        }
     }
 
     /**
@@ -118,20 +979,64 @@ public class SocialMediaController {
      * Extracts a {@code Message} object from the request body and attempts to create a new message
      * using the service layer. If the message creation is successful, sends a 200 status code with
      * the message details in JSON format. If the creation fails, sends a 400 status code.
+     * With a session token, a message without posted_by is posted as the session's account, and a message posted
+     * as any other account gets a 403; an invalid token gets a 401.
      *
      * @param ctx The Javalin context object for handling web requests and responses.
      */
     private void createMessage(Context ctx){
-        Message m = ctx.bodyAsClass(Message.class); 
+        int account_id = sessionAccountId(ctx);
+        if(account_id == INVALID_SESSION)
+            return;
+        Message m = readBody(ctx, Message.class);
+        if(account_id != NO_SESSION){
+            if(m.getPosted_by() == 0){
+                m.setPosted_by(account_id);
+            }
+            else if(m.getPosted_by() != account_id){
+                ctx.status(403);
+                return;
+            }
+        }
         Message r = socialMediaService.createMessage(m); 
         if(r != null){
-            ctx.json(r).status(200); 
+            send(ctx, responseFormat(ctx), r);
+            ctx.status(200);
         }
         else{
             ctx.status(400); 
         }
     }
 
+    /**
+     * Handles the HTTP request to create many messages at once.
+     *
+     * Extracts a JSON array of {@code Message} objects from the request body and creates them in one transaction
+     * through the service layer. Responds with the created messages and a list of per-item errors for the messages
+     * that failed validation. If the body is not an array of messages, is empty, or holds more than MAX_BATCH_SIZE
+     * messages, sends a 400 status code. With a session token, messages are posted as the session's account and
+     * the account table is not consulted; an invalid token gets a 401.
+     *
+     * @param ctx The Javalin context object for handling web requests and responses.
+     */
+    private void createMessages(Context ctx){
+        int account_id = sessionAccountId(ctx);
+        if(account_id == INVALID_SESSION)
+            return;
+        Message[] messages;
+        try{
+            messages = readBody(ctx, Message[].class);
+        }catch(RuntimeException e){
+            ctx.status(400);
+            return;
+        }
+        if(messages == null || messages.length == 0 || messages.length > MAX_BATCH_SIZE){
+            ctx.status(400);
+            return;
+        }
+        send(ctx, responseFormat(ctx), socialMediaService.createMessages(Arrays.asList(messages), account_id == NO_SESSION ? null : account_id));
+    }
+
     /**
      * This is an example handler for an example endpoint.
      * @param context The Javalin Context object manages information about both the HTTP request and response.
@@ -151,10 +1056,11 @@ public class SocialMediaController {
      * @param ctx The Javalin context object for handling web requests and responses.
      */
     private void registerAnAccount(Context ctx){
-        Account registeringUser = ctx.bodyAsClass(Account.class); 
+        Account registeringUser = readBody(ctx, Account.class);
         Account user = socialMediaService.registerAnAccount(registeringUser); 
         if(user != null){
-            ctx.json(user).status(200); 
+            send(ctx, responseFormat(ctx), user);
+            ctx.status(200);
         }
         else{
             ctx.status(400); 
@@ -168,21 +1074,115 @@ public class SocialMediaController {
      * The method then uses the service layer to validate the user. If authentication is successful,
      * responds with a 200 status code and the authenticated user's details in JSON format. If authentication
      * fails, responds with a 401 (Unauthorized) status code.
+     * A successful login also starts a session, whose token is returned in the X-Session-Token header. Sending it
+     * back as {@code Authorization: Bearer <token>} identifies the account without re-sending the password.
      *
      * @param ctx The Javalin context object for web request and response handling.
      */
     private void validUser(Context ctx){
-        Account attemptedUser = ctx.bodyAsClass(Account.class);
-        System.out.println(attemptedUser.getUsername() + " " + attemptedUser.getPassword()); 
+        Account attemptedUser = readBody(ctx, Account.class);
         Account user = socialMediaService.validUser(attemptedUser);
         if(user != null){
-            ctx.json(user).status(200); 
+            ctx.header(SESSION_TOKEN_HEADER, socialMediaService.startSession(user));
+            send(ctx, responseFormat(ctx), user);
+            ctx.status(200);
         }
         else{
             ctx.status(401); 
         }
 
     }
+
+    /**
+     * Handles the HTTP request to end a session.
+     * Revokes the session named by the request's bearer token and responds with 200, or with 401 if the request
+     * has no live session.
+     *
+     * @param ctx The Javalin context object for web request and response handling.
+     */
+    private void logout(Context ctx){
+        String token = bearerToken(ctx);
+        if(token != null && socialMediaService.endSession(token)){
+            ctx.status(200);
+        }
+        else{
+            ctx.status(401);
+        }
+    }
+
+    /**
+     * Resolves the account a request acts as from its {@code Authorization: Bearer} header, using the in-memory
+     * session store rather than the account table. Requests without the header keep the old unauthenticated
+     * behaviour.
+     *
+     * @param ctx the Javalin context object for the request
+     * @return the session's account ID; NO_SESSION if there is no bearer token; or INVALID_SESSION, after setting a
+     *         401 status, if the token is not a live session
+     */
+    private int sessionAccountId(Context ctx){
+        String token = bearerToken(ctx);
+        if(token == null)
+            return NO_SESSION;
+        SessionStore.Session session = socialMediaService.getSession(token);
+        if(session == null){
+            ctx.status(401);
+            return INVALID_SESSION;
+        }
+        return session.getAccount_id();
+    }
+
+    /**
+     * Checks that a request may change a message: either it has no session token, or the message was posted by the
+     * session's account. Sets a 401 for an invalid token and a 403 for someone else's message.
+     * The author is read through the message cache; a missing message is left to the handler.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param message_id the message to be changed
+     * @return true if the handler should go ahead
+     */
+    private boolean mayModify(Context ctx, int message_id){
+        int account_id = sessionAccountId(ctx);
+        if(account_id == INVALID_SESSION)
+            return false;
+        if(account_id == NO_SESSION)
+            return true;
+        Message m = socialMediaService.getMessageById(message_id);
+        if(m != null && m.getPosted_by() != account_id){
+            ctx.status(403);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a request may act as an account: either it has no session token, or it is that account's session.
+     * Sets a 401 for an invalid token and a 403 for another account.
+     *
+     * @param ctx the Javalin context object for the request
+     * @param account_id the account the request acts as
+     * @return true if the handler should go ahead
+     */
+    private boolean mayActAs(Context ctx, int account_id){
+        int session_account_id = sessionAccountId(ctx);
+        if(session_account_id == INVALID_SESSION)
+            return false;
+        if(session_account_id != NO_SESSION && session_account_id != account_id){
+            ctx.status(403);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the token from an {@code Authorization: Bearer} header, or null if there is none
+     */
+    private static String bearerToken(Context ctx){
+        String header = ctx.header("Authorization");
+        if(header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7))
+            return null;
+        String token = header.substring(7).trim();
+        return token.isEmpty() ? null : token;
+    }
     
 
 
@@ -0,0 +1,161 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The encodings request and response bodies may use: JSON, or the binary CBOR and Smile encodings of the same
+ * documents. Each has a Jackson factory for streaming generators and an ObjectMapper for whole objects.
+ *
+ * A response's format is picked from the Accept header and a request body's from its Content-Type. Anything
+ * unrecognised, including no header at all, means JSON, so existing clients are unaffected.
+ */
+public enum WireFormat {
+    JSON("application/json", new JsonFactory()),
+    CBOR("application/cbor", new CBORFactory()),
+    SMILE("application/x-jackson-smile", new SmileFactory());
+
+    private final String mediaType;
+    private final JsonFactory factory;
+    private final ObjectMapper mapper;
+
+    WireFormat(String mediaType, JsonFactory factory){
+        this.mediaType = mediaType;
+        this.factory = factory;
+        this.mapper = new ObjectMapper(factory);
+    }
+
+    /**
+     * @return the media type used in Accept and Content-Type, e.g. application/cbor.
+     */
+    public String getMediaType(){
+        return mediaType;
+    }
+
+    /**
+     * @return the factory for streaming generators and parsers in this format.
+     */
+    public JsonFactory getFactory(){
+        return factory;
+    }
+
+    /**
+     * @return a mapper that reads and writes this format.
+     */
+    public ObjectMapper getMapper(){
+        return mapper;
+    }
+
+    /**
+     * Serializes an object with this format's mapper.
+     *
+     * @param value the object to write.
+     * @return its encoding.
+     */
+    public byte[] write(Object value){
+        try{
+            return mapper.writeValueAsBytes(value);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deserializes a request body with this format's mapper.
+     *
+     * @param body the request body.
+     * @param type the class to read.
+     * @return the object read.
+     * @throws UncheckedIOException if the body is not a valid encoding of the class.
+     */
+    public <T> T read(byte[] body, Class<T> type){
+        try{
+            return mapper.readValue(body, type);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Distinguishes this format's representation of a resource from the others in its strong ETag.
+     *
+     * @param eTag the resource's ETag.
+     * @return the ETag unchanged for JSON, or with the format appended, e.g. "abc-cbor".
+     */
+    public String eTag(String eTag){
+        if(this == JSON)
+            return eTag;
+        return eTag.substring(0, eTag.length() - 1) + "-" + name().toLowerCase() + "\"";
+    }
+
+    /**
+     * @param contentType a request's Content-Type header, or null.
+     * @return the format of its body; JSON unless it names CBOR or Smile.
+     */
+    public static WireFormat forContentType(String contentType){
+        if(contentType == null)
+            return JSON;
+        String type = contentType.split(";", 2)[0].trim();
+        for(WireFormat f : values())
+            if(f.mediaType.equalsIgnoreCase(type))
+                return f;
+        return JSON;
+    }
+
+    /**
+     * Picks the format a client prefers, by q value. Wildcards match every format, and ties go to JSON, then CBOR,
+     * then Smile.
+     *
+     * @param accept a request's Accept header, or null.
+     * @return the format to answer in; JSON if the header names none of them.
+     */
+    public static WireFormat forAccept(String accept){
+        if(accept == null)
+            return JSON;
+        WireFormat best = JSON;
+        double bestQ = 0;
+        for(WireFormat f : values()){
+            double q = f.weight(accept);
+            if(q > bestQ){
+                best = f;
+                bestQ = q;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the q value of the most specific Accept entry matching this format, or 0 if none does.
+     */
+    private double weight(String accept){
+        String subtypeWildcard = mediaType.substring(0, mediaType.indexOf('/')) + "/*";
+        double q = 0;
+        int specificity = -1;
+        for(String item : accept.split(",")){
+            String[] parts = item.split(";");
+            String range = parts[0].trim();
+            int s = range.equalsIgnoreCase(mediaType) ? 2 : range.equalsIgnoreCase(subtypeWildcard) ? 1 : range.equals("*/*") ? 0 : -1;
+            if(s <= specificity)
+                continue;
+            double itemQ = 1;
+            for(int i = 1; i < parts.length; i++){
+                String param = parts[i].trim();
+                if(param.startsWith("q=")){
+                    try{
+                        itemQ = Double.parseDouble(param.substring(2));
+                    }catch(NumberFormatException e){
+                        itemQ = 0;
+                    }
+                }
+            }
+            specificity = s;
+            q = itemQ;
+        }
+        return q;
+    }
+}
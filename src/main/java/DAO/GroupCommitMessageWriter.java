@@ -0,0 +1,250 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import Model.Message;
+
+/**
+ * Coalesces concurrent message inserts into group commits.
+ *
+ * Callers submit messages to a queue and wait on a future. A single flusher thread takes the first queued message,
+ * keeps collecting until either maxBatchSize messages are waiting or maxWaitMicros have passed since that first
+ * message arrived, and then inserts them all in one batched transaction through
+ * {@link SocialMediaDAO#createMessages(List)}. Each future is completed with its own message and generated ID.
+ *
+ * If a batch fails as a whole (for example one message refers to an account that does not exist, or no connection
+ * could be had), its messages are retried one at a time so that a single bad message only fails its own caller. A
+ * retry that throws completes its future exceptionally; the flusher itself keeps running.
+ */
+public class GroupCommitMessageWriter {
+    /**
+     * Upper bound on messages waiting for a flush; submissions beyond it are inserted directly.
+     */
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private final SocialMediaDAO socialMediaDAO;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder fallbackCount = new LongAdder();
+    private final AtomicLong maxObservedBatchSize = new AtomicLong();
+    private final AtomicLong maxObservedQueueDepth = new AtomicLong();
+    /**
+     * Batch size distribution: bucket i counts batches of size in (2^(i-1), 2^i].
+     */
+    private final LongAdder[] batchSizeBuckets;
+
+    /**
+     * Creates a writer and starts its flusher thread.
+     *
+     * @param socialMediaDAO the DAO used to insert batches.
+     * @param maxBatchSize the most messages committed together.
+     * @param maxWaitMicros the longest the first message of a batch waits for others to join it.
+     */
+    public GroupCommitMessageWriter(SocialMediaDAO socialMediaDAO, int maxBatchSize, long maxWaitMicros){
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        this.socialMediaDAO = socialMediaDAO;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.batchSizeBuckets = new LongAdder[33 - Integer.numberOfLeadingZeros(maxBatchSize - 1)];
+        for(int i = 0; i < batchSizeBuckets.length; i++)
+            batchSizeBuckets[i] = new LongAdder();
+        flusher = new Thread(this::run, "group-commit-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues a message for the next group commit.
+     *
+     * @param m a validated message without an ID.
+     * @return a future completed with the inserted message, with null if the database rejected it, or
+     *         exceptionally if the insert threw.
+     */
+    public CompletableFuture<Message> submit(Message m){
+        PendingMessage pending = new PendingMessage(m);
+        if(!running || !queue.offer(pending)){
+            insertDirectly(pending);
+            return pending.result;
+        }
+        maxObservedQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        // close() may have begun after running was read, and the flusher may already have drained the queue and
+        // stopped; if the message is still queued, take it back and insert it here
+        if(!running && queue.remove(pending))
+            insertDirectly(pending);
+        return pending.result;
+    }
+
+    /**
+     * Stops the flusher after it has written everything already queued. Messages submitted afterwards are inserted
+     * directly on the caller's thread.
+     */
+    public void close(){
+        running = false;
+        flusher.interrupt();
+        try{
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getMaxBatchSize(){
+        return maxBatchSize;
+    }
+
+    public long getMaxWaitMicros(){
+        return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos);
+    }
+
+    /**
+     * @return the number of messages currently waiting for a flush.
+     */
+    public int getQueueDepth(){
+        return queue.size();
+    }
+
+    public long getMaxQueueDepth(){
+        return maxObservedQueueDepth.get();
+    }
+
+    public long getBatchCount(){
+        return batchCount.sum();
+    }
+
+    public long getMessageCount(){
+        return messageCount.sum();
+    }
+
+    public long getMaxObservedBatchSize(){
+        return maxObservedBatchSize.get();
+    }
+
+    /**
+     * @return the messages inserted outside a group commit because the queue was full or the writer was closed.
+     */
+    public long getFallbackCount(){
+        return fallbackCount.sum();
+    }
+
+    /**
+     * @return counts of flushed batches by size; element i counts batches of size up to 2^i (and more than 2^(i-1)).
+     */
+    public long[] getBatchSizeHistogram(){
+        long[] counts = new long[batchSizeBuckets.length];
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = batchSizeBuckets[i].sum();
+        return counts;
+    }
+
+    @Override
+    public String toString(){
+        long batches = getBatchCount();
+        return "GroupCommitMessageWriter{batches=" + batches + ", messages=" + getMessageCount()
+                + ", avgBatch=" + (batches == 0 ? 0 : getMessageCount() / (double) batches)
+                + ", maxBatch=" + getMaxObservedBatchSize() + ", queueDepth=" + getQueueDepth() + "}";
+    }
+
+    private void run(){
+        List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        while(running || !queue.isEmpty()){
+            try{
+                PendingMessage first = running ? queue.take() : queue.poll();
+                if(first == null)
+                    break;
+                batch.add(first);
+                long deadline = first.enqueuedAt + maxWaitNanos;
+                while(batch.size() < maxBatchSize){
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0)
+                        break;
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(next == null)
+                        break;
+                    batch.add(next);
+                }
+            }catch(InterruptedException e){
+                // close() was called; finish the current batch and drain the queue
+            }
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            try{
+                if(!batch.isEmpty())
+                    flush(batch);
+            }catch(Throwable e){
+                // flush() completes every future it can; fail any it could not rather than leave callers waiting
+                for(PendingMessage p : batch)
+                    p.result.completeExceptionally(e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingMessage> batch){
+        List<Message> messages = new ArrayList<>(batch.size());
+        for(PendingMessage p : batch)
+            messages.add(p.message);
+
+        List<Message> created;
+        try{
+            created = socialMediaDAO.createMessages(messages);
+        }catch(RuntimeException e){
+            // e.g. the pool had no connection to give; retry one at a time as for a batch the database rejected
+            created = null;
+        }
+        batchCount.increment();
+        messageCount.add(batch.size());
+        maxObservedBatchSize.accumulateAndGet(batch.size(), Math::max);
+        batchSizeBuckets[32 - Integer.numberOfLeadingZeros(batch.size() - 1)].increment();
+
+        if(created != null && created.size() == batch.size()){
+            for(int i = 0; i < batch.size(); i++)
+                batch.get(i).result.complete(created.get(i));
+        }
+        else{
+            for(PendingMessage p : batch)
+                insertWithoutBatch(p);
+        }
+    }
+
+    /**
+     * Inserts a message that bypasses the queue, because it is full or the writer is closed.
+     */
+    private void insertDirectly(PendingMessage p){
+        fallbackCount.increment();
+        insertWithoutBatch(p);
+    }
+
+    private void insertWithoutBatch(PendingMessage p){
+        try{
+            p.result.complete(socialMediaDAO.createMessage(p.message));
+        }catch(RuntimeException e){
+            p.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * A queued message and the future its caller is waiting on.
+     */
+    private static class PendingMessage {
+        final Message message;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingMessage(Message message){
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * Receives message rows one at a time as they are read from a ResultSet, without a {@code Message} object or a list
+ * being built for them. Used to stream large listings straight to a response.
+ */
+@FunctionalInterface
+public interface MessageRowWriter {
+    /**
+     * Called once per row, in query order.
+     *
+     * @param message_id the row's message_id.
+     * @param posted_by the row's posted_by.
+     * @param message_text the row's message_text.
+     * @param time_posted_epoch the row's time_posted_epoch.
+     * @throws IOException if the row could not be written, which stops the stream.
+     */
+    void write(int message_id, int posted_by, String message_text, long time_posted_epoch) throws IOException;
+}
@@ -0,0 +1,236 @@
+package DAO;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Account;
+import Model.Message;
+import Model.MessageCursor;
+import Util.LatencyHistogram;
+
+/**
+ * Timing of DAO calls, per DAO method and per phase, with a rate-limited slow-query log.
+ *
+ * Each call is split into three phases: acquire (waiting for a pooled connection), execute (until the statement has
+ * run) and map (reading the rows into objects and returning the connection). Every phase and the total feed a
+ * LatencyHistogram for the method. A call whose total exceeds the threshold is logged with its SQL and the shapes of
+ * its parameters (types and sizes, never values); at most a few such lines are written per second, and the number
+ * left out is reported on the next one.
+ */
+public class QueryStats {
+    private static final Logger log = LoggerFactory.getLogger(QueryStats.class);
+
+    /**
+     * Stands in for a parameter that must not appear in the log in any form, such as a password.
+     */
+    public static final Object REDACTED = new Object(){
+        @Override
+        public String toString(){
+            return "<redacted>";
+        }
+    };
+
+    /**
+     * The phases of a call, in order, plus the total.
+     */
+    public enum Phase { acquire, execute, map, total }
+
+    static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+    private final long slowThresholdNanos;
+    private final int slowLogsPerSecond;
+    private final AtomicLong slowLogWindow = new AtomicLong();
+    private final AtomicLong slowLogsInWindow = new AtomicLong();
+    private final AtomicLong suppressedSlowLogs = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+
+    /**
+     * @param slowThresholdMillis calls slower than this are logged.
+     * @param slowLogsPerSecond the most slow-query lines written per second.
+     */
+    public QueryStats(long slowThresholdMillis, int slowLogsPerSecond){
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.slowLogsPerSecond = slowLogsPerSecond;
+    }
+
+    /**
+     * Starts timing a call. The caller marks the end of each phase on the returned timer and then calls finish().
+     *
+     * @param method the DAO method, e.g. getMessageById.
+     * @param sql the statement it runs, for the slow-query log.
+     * @return the timer for this call.
+     */
+    public Timer start(String method, String sql){
+        MethodStats stats = methods.get(method);
+        if(stats == null)
+            stats = methods.computeIfAbsent(method, MethodStats::new);
+        return new Timer(stats, sql);
+    }
+
+    /**
+     * @return the per-phase statistics of every method called so far, by method name.
+     */
+    public Map<String, MethodStats> getMethods(){
+        return methods;
+    }
+
+    /**
+     * @return the number of calls that went over the slow threshold, logged or not.
+     */
+    public long getSlowCount(){
+        return slowCount.get();
+    }
+
+    public long getSlowThresholdMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    private void slow(Timer t, long total, Object[] params){
+        slowCount.incrementAndGet();
+        long window = System.nanoTime() / TimeUnit.SECONDS.toNanos(1);
+        long current = slowLogWindow.get();
+        if(current != window && slowLogWindow.compareAndSet(current, window))
+            slowLogsInWindow.set(0);
+        if(slowLogsInWindow.incrementAndGet() > slowLogsPerSecond){
+            suppressedSlowLogs.incrementAndGet();
+            return;
+        }
+        long suppressed = suppressedSlowLogs.getAndSet(0);
+        log.warn("slow query {} took {} ms (acquire {} ms, execute {} ms, map {} ms): {} params {}{}",
+                t.stats.name, millis(total), millis(t.acquireNanos), millis(t.executeNanos), millis(t.mapNanos),
+                t.sql, shapes(params), suppressed == 0 ? "" : " (" + suppressed + " earlier slow queries not logged)");
+    }
+
+    private static String millis(long nanos){
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Describes parameters by type and size only, so the log never holds user data.
+     */
+    static String shapes(Object[] params){
+        StringJoiner j = new StringJoiner(", ", "[", "]");
+        for(Object p : params)
+            j.add(shape(p));
+        return j.toString();
+    }
+
+    static String shape(Object p){
+        if(p == null)
+            return "null";
+        if(p == REDACTED)
+            return p.toString();
+        if(p instanceof Integer)
+            return "int";
+        if(p instanceof Long)
+            return "long";
+        if(p instanceof Boolean)
+            return "boolean";
+        if(p instanceof String)
+            return "string(" + ((String) p).length() + ")";
+        if(p instanceof Collection)
+            return "list(" + ((Collection<?>) p).size() + ")";
+        if(p.getClass().isArray())
+            return "array(" + Array.getLength(p) + ")";
+        if(p instanceof Message)
+            return "message(text " + (((Message) p).getMessage_text() == null ? 0 : ((Message) p).getMessage_text().length()) + ")";
+        if(p instanceof MessageCursor)
+            return "cursor";
+        if(p instanceof Account)
+            return "account";
+        return p.getClass().getSimpleName();
+    }
+
+    /**
+     * The histograms of one DAO method, one per phase.
+     */
+    public static class MethodStats {
+        final String name;
+        private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+        MethodStats(String name){
+            this.name = name;
+            for(int i = 0; i < phases.length; i++)
+                phases[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        }
+
+        /**
+         * @param phase a phase, or total.
+         * @return the nanosecond latencies recorded for it.
+         */
+        public LatencyHistogram get(Phase phase){
+            return phases[phase.ordinal()];
+        }
+    }
+
+    /**
+     * Times one DAO call. Not thread-safe; a timer belongs to the thread making the call.
+     */
+    public class Timer {
+        final MethodStats stats;
+        final String sql;
+        private final long start = System.nanoTime();
+        private long mark = start;
+        long acquireNanos = -1;
+        long executeNanos = -1;
+        long mapNanos = -1;
+
+        Timer(MethodStats stats, String sql){
+            this.stats = stats;
+            this.sql = sql;
+        }
+
+        /**
+         * Ends the acquire phase.
+         *
+         * @param conn the connection that was acquired.
+         * @return the same connection, so this can wrap the acquisition in a try-with-resources.
+         */
+        public <C> C acquired(C conn){
+            long now = System.nanoTime();
+            acquireNanos = now - mark;
+            mark = now;
+            return conn;
+        }
+
+        /**
+         * Ends the execute phase; everything from here to finish() counts as mapping.
+         */
+        public void executed(){
+            long now = System.nanoTime();
+            executeNanos = now - mark;
+            mark = now;
+        }
+
+        /**
+         * Records the call, whether it succeeded or not, and logs it if it was slow. Phases that were never reached
+         * (because the call failed) are not recorded.
+         *
+         * @param params the call's parameters, described by shape if the call is logged; pass REDACTED for secrets.
+         */
+        public void finish(Object... params){
+            long now = System.nanoTime();
+            long total = now - start;
+            if(executeNanos >= 0)
+                mapNanos = now - mark;
+            if(acquireNanos >= 0)
+                stats.get(Phase.acquire).record(acquireNanos);
+            if(executeNanos >= 0)
+                stats.get(Phase.execute).record(executeNanos);
+            if(mapNanos >= 0)
+                stats.get(Phase.map).record(mapNanos);
+            stats.get(Phase.total).record(total);
+            if(total > slowThresholdNanos)
+                slow(this, total, params);
+        }
+    }
+}
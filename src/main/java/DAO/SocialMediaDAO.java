@@ -1,24 +1,154 @@
 package DAO;
-import Util.ConnectionUtil; 
+import Util.ReplicationFeed;
+import Util.RoutingDataSource;
+import java.io.IOException;
 import java.sql.*;
 
 import Model.*; 
 import java.util.List; 
 import java.util.ArrayList; 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 public class SocialMediaDAO {
+    /**
+     * Number of rows sent to the database per executeBatch() call when inserting a batch of messages.
+     */
+    private static final int INSERT_BATCH_SIZE = 1000;
+    /**
+     * Number of rows fetched per round trip when streaming a listing.
+     */
+    private static final int STREAM_FETCH_SIZE = 256;
+
+    /*
+     * Message listings are read in timeline order so that they can walk an index instead of scanning and sorting:
+     * all messages oldest first through message_time_idx, and a user's messages newest first through
+     * message_posted_by_time_idx. H2 does not pick the composite index over the foreign key index on its own, so
+     * the per-user queries name it and repeat posted_by in the ORDER BY so the index order is recognized.
+     * These are public so the tests can check their plans with EXPLAIN.
+     */
+    public static final String SELECT_ALL_MESSAGES =
+            "select * from message order by time_posted_epoch, message_id";
+    public static final String SELECT_MESSAGES_BY_USER =
+            "select * from message use index (message_posted_by_time_idx) where posted_by = ? "
+            + "order by posted_by, time_posted_epoch desc, message_id";
+    public static final String SELECT_MESSAGES_PAGE =
+            "select * from message order by time_posted_epoch, message_id limit ?";
+    public static final String SELECT_MESSAGES_PAGE_AFTER =
+            "select * from message where time_posted_epoch >= ? and (time_posted_epoch > ? or message_id > ?) "
+            + "order by time_posted_epoch, message_id limit ?";
+    public static final String SELECT_MESSAGES_PAGE_BEFORE =
+            "select * from message where time_posted_epoch <= ? and (time_posted_epoch < ? or message_id < ?) "
+            + "order by time_posted_epoch desc, message_id desc limit ?";
+    public static final String SELECT_MESSAGES_PAGE_BY_USER =
+            "select * from message use index (message_posted_by_time_idx) where posted_by = ? "
+            + "order by posted_by, time_posted_epoch desc, message_id limit ?";
+    public static final String SELECT_MESSAGES_PAGE_BY_USER_AFTER =
+            "select * from message use index (message_posted_by_time_idx) where posted_by = ? "
+            + "and time_posted_epoch <= ? and (time_posted_epoch < ? or message_id > ?) "
+            + "order by posted_by, time_posted_epoch desc, message_id limit ?";
+    public static final String SELECT_MESSAGES_PAGE_BY_USER_BEFORE =
+            "select * from message use index (message_posted_by_time_idx) where posted_by = ? "
+            + "and time_posted_epoch >= ? and (time_posted_epoch > ? or message_id < ?) "
+            + "order by time_posted_epoch, message_id desc limit ?";
+    private static final String UPDATE_MESSAGE_TEXT =
+            "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
+    private static final String DELETE_MESSAGE = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
+    private static final String SELECT_MESSAGE_BY_ID = "select * from message where message_id = ? ";
+    private static final String SELECT_ACCOUNT_BY_LOGIN = "select * from account where username=? and password=?";
+    private static final String INSERT_ACCOUNT = "INSERT INTO account(username, password) values (?, ?)";
+    private static final String INSERT_MESSAGE = "INSERT INTO message(posted_by, message_text, time_posted_epoch) values (?, ?, ?)";
+    private static final String SELECT_MESSAGES_IN_RANGE =
+            "select * from message where message_id between ? and ? order by message_id";
+    private static final String SELECT_MAX_MESSAGE_ID = "select max(message_id) from message";
+    private static final String MERGE_FOLLOW = "MERGE INTO follow (follower_id, followee_id) KEY (follower_id, followee_id) VALUES (?, ?)";
+    private static final String DELETE_FOLLOW = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+    private static final String SELECT_FOLLOWER_IDS = "select follower_id from follow where followee_id = ?";
+    private static final String SELECT_FOLLOWEE_IDS = "select followee_id from follow where follower_id = ?";
+    private static final String COUNT_FOLLOWERS = "select count(*) from follow where followee_id = ?";
+    private static final String SELECT_FEED_MESSAGES =
+            "select * from message where posted_by in (select followee_id from follow where follower_id = ?) or posted_by = ? "
+            + "order by time_posted_epoch desc, message_id desc limit ?";
+    private static final String SELECT_MESSAGES_BY_IDS = "select * from message where message_id = any(?)";
+    private static final String SELECT_EXISTING_ACCOUNT_IDS = "select account_id from account where account_id = any(?)";
+
+    /*
+     * The replicated tables, with their primary key columns first; see ReplicationFeed.
+     */
+    static final ReplicationFeed.Table ACCOUNT_TABLE =
+            new ReplicationFeed.Table("account", 1, "account_id", "username", "password");
+    static final ReplicationFeed.Table MESSAGE_TABLE =
+            new ReplicationFeed.Table("message", 1, "message_id", "posted_by", "message_text", "time_posted_epoch");
+    static final ReplicationFeed.Table FOLLOW_TABLE =
+            new ReplicationFeed.Table("follow", 2, "follower_id", "followee_id");
+    private static final List<ReplicationFeed.Table> REPLICATED_TABLES = Arrays.asList(ACCOUNT_TABLE, MESSAGE_TABLE, FOLLOW_TABLE);
+
+    /**
+     * Where connections come from. getAllMessages, getAllMessagesByUserId, getMessageById and validUser read
+     * through getReadConnection(), so inside a request scope they may be served by a read replica; everything else,
+     * including every write, uses the primary, and every write is reported with changed().
+     */
+    private final RoutingDataSource dataSource;
+
+    /**
+     * A DAO over the application's shared data source, with replicas as configured by system properties; see
+     * RoutingDataSource.getInstance().
+     */
+    public SocialMediaDAO(){
+        this(RoutingDataSource.getInstance(REPLICATED_TABLES));
+    }
+
+    /**
+     * @param dataSource where connections come from and writes are reported to.
+     */
+    public SocialMediaDAO(RoutingDataSource dataSource){
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return the data source that routes this DAO's reads.
+     */
+    public RoutingDataSource getDataSource(){
+        return dataSource;
+    }
+
+    /**
+     * @return the replicated tables, in the order a replica copies them.
+     */
+    public static List<ReplicationFeed.Table> getReplicatedTables(){
+        return REPLICATED_TABLES;
+    }
+
+    /**
+     * Times every call below, split into connection acquire, execute and mapping. Calls slower than
+     * socialmedia.db.slowQueryMs (100 by default) are logged, at most socialmedia.db.slowQueryLogsPerSecond (5) a second.
+     */
+    private final QueryStats queryStats = new QueryStats(Long.getLong("socialmedia.db.slowQueryMs", 100L),
+            Integer.getInteger("socialmedia.db.slowQueryLogsPerSecond", 5));
+
+    /**
+     * @return the per-method, per-phase timings of this DAO's calls.
+     */
+    public QueryStats getQueryStats(){
+        return queryStats;
+    }
     
     /**
-     * Fetches all messages for a given user ID from the database.
+     * Fetches all messages for a given user ID from the database, newest first.
      * 
      * @param account_id The ID of the user whose messages are to be retrieved.
      * @return A list of Message objects representing the user's messages.
      */
     public List<Message> getAllMessagesByUserId(int account_id){
         List<Message> messageToReturn = new ArrayList<>(); 
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("select * from message where posted_by = ?");
+        QueryStats.Timer timer = queryStats.start("getAllMessagesByUserId", SELECT_MESSAGES_BY_USER);
+        try(Connection conn = timer.acquired(dataSource.getReadConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGES_BY_USER);
             ps.setInt(1, account_id);
             ResultSet rs = ps.executeQuery(); 
+            timer.executed();
 
 
             while(rs.next()){
@@ -28,58 +158,68 @@ public class SocialMediaDAO {
 
         }catch(SQLException e){
             e.printStackTrace();
+        }finally{
+            timer.finish(account_id);
         }
         return messageToReturn; 
     }
     /**
-     * Updates the message text of a specific message in the database by its ID.
-     * Establishes a database connection and executes a SQL UPDATE statement to modify the message text.
-     * The update is considered successful if exactly one record is affected.
+     * Updates the message text of a specific message in the database by its ID and returns the updated row.
+     * The UPDATE runs inside an H2 data change delta table ({@code SELECT * FROM FINAL TABLE (UPDATE ...)}), so the
+     * row is written and read back in a single statement and round trip, and the result reflects exactly this write.
      *
      * @param message The Message object containing the updated information. Only the message text is updated.
      * @param message_id The ID of the message to be updated.
-     * @return true if the update was successful and affected one row, false otherwise.
+     * @return The updated {@code Message}, or {@code null} if no message had that ID.
      */
-    public boolean updateMessageTextById(Message message, int message_id){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("UPDATE message SET message_text = ? WHERE message_id = ?");
+    public Message updateMessageTextById(Message message, int message_id){
+        QueryStats.Timer timer = queryStats.start("updateMessageTextById", UPDATE_MESSAGE_TEXT);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(UPDATE_MESSAGE_TEXT);
             ps.setString(1, message.getMessage_text());
             ps.setInt(2, message_id);
-            int result = ps.executeUpdate(); 
-            
-            if(result == 1){
-                return true; 
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            if(rs.next()){
+                dataSource.changed(MESSAGE_TABLE, message_id);
+                return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
             }
         }catch(SQLException e){
             e.printStackTrace(); 
+        }finally{
+            timer.finish(message.getMessage_text(), message_id);
         }
 
-        return false; 
+        return null; 
     }
     /**
-     * Deletes a message from the database by its ID.
-     * Establishes a database connection and executes a SQL DELETE statement to remove the message
-     * with the specified ID. This method does not verify if the message exists before deletion and 
-     * does not return the deleted message data. It's designed to be used in conjunction with 
-     * another method that performs the existence check.
-     * 
-     * In case of an SQLException, the stack trace is printed. This method returns a boolean indicating 
-     * whether the deletion was successful (true) or not (false).
+     * Deletes a message from the database by its ID and returns the row that was removed.
+     * The DELETE runs inside an H2 data change delta table ({@code SELECT * FROM OLD TABLE (DELETE ...)}), so
+     * removing the row and reading it back is a single statement and a single round trip, and the returned row is
+     * exactly the one this statement deleted.
+     *
+     * In case of an SQLException, the stack trace is printed and null is returned.
      *
      * @param message_id The ID of the message to be deleted.
-     * @return boolean indicating success (true) or failure (false) of the deletion.
+     * @return The deleted {@code Message}, or {@code null} if no message had that ID.
      */
-    public boolean deleteMessageById(int message_id){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("DELETE FROM message where message_id = ?");
+    public Message deleteMessageById(int message_id){
+        QueryStats.Timer timer = queryStats.start("deleteMessageById", DELETE_MESSAGE);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(DELETE_MESSAGE);
             ps.setInt(1, message_id);
-            int affected = ps.executeUpdate();
-            if(affected > 0)
-                return true; 
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            if(rs.next()){
+                dataSource.changed(MESSAGE_TABLE, message_id);
+                return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            }
         }catch(SQLException e){
             e.printStackTrace();
+        }finally{
+            timer.finish(message_id);
         }
-        return false; 
+        return null; 
     }
 
     /**
@@ -92,10 +232,12 @@ public class SocialMediaDAO {
      * @return The {@code Message} object if found, otherwise null.
      */
     public Message getMessageById(int message_id){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("select * from message where message_id = ? "); 
+        QueryStats.Timer timer = queryStats.start("getMessageById", SELECT_MESSAGE_BY_ID);
+        try(Connection conn = timer.acquired(dataSource.getReadConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGE_BY_ID); 
             ps.setInt(1, message_id);
             ResultSet rs = ps.executeQuery(); 
+            timer.executed();
 
             while(rs.next()){
                 Message m = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
@@ -105,13 +247,16 @@ public class SocialMediaDAO {
         catch(SQLException e){
             e.printStackTrace();
         }
+        finally{
+            timer.finish(message_id);
+        }
 
         return null; 
     }
 
 
     /**
-     * Fetches all messages from the database.
+     * Fetches all messages from the database, oldest first.
      * Executes a SQL query to retrieve all messages, converting each result into a {@code Message} object.
      * Adds these objects to a list, which is returned.
      * In case of a SQL exception, the error message is printed to the console.
@@ -120,20 +265,200 @@ public class SocialMediaDAO {
      */
     public List<Message> getAllMessages(){
         List<Message> messages = new ArrayList<>(); 
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("select * from message;");
+        QueryStats.Timer timer = queryStats.start("getAllMessages", SELECT_ALL_MESSAGES);
+        try(Connection conn = timer.acquired(dataSource.getReadConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_ALL_MESSAGES);
             ResultSet rs = ps.executeQuery(); 
+            timer.executed();
             while(rs.next()){
                 Message m = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
                 messages.add(m);
             }
         }catch(SQLException e ){
             System.out.println(e.getMessage());
+        }finally{
+            timer.finish();
         }
 
         return messages; 
     }
     
+    /**
+     * Streams every message to the given writer, one row at a time, as the query produces them.
+     * The statement is forward-only and read-only with a bounded fetch size, and H2's lazy query execution is
+     * switched on for the duration so the result is never materialized in memory, no matter how many rows match.
+     *
+     * @param writer Receives each row as it is read.
+     * @throws IOException If the writer or the query fails; the query is abandoned at that point.
+     */
+    public void streamAllMessages(MessageRowWriter writer) throws IOException{
+        streamMessages("streamAllMessages", SELECT_ALL_MESSAGES, null, writer);
+    }
+
+    /**
+     * Streams every message posted by a given user to the given writer, one row at a time.
+     *
+     * @param account_id The ID of the user whose messages are to be streamed.
+     * @param writer Receives each row as it is read.
+     * @throws IOException If the writer or the query fails; the query is abandoned at that point.
+     */
+    public void streamAllMessagesByUserId(int account_id, MessageRowWriter writer) throws IOException{
+        streamMessages("streamAllMessagesByUserId", SELECT_MESSAGES_BY_USER, account_id, writer);
+    }
+
+    /**
+     * Streams the messages whose IDs fall in a range to the given writer, in ID order, one row at a time.
+     * Several ranges can be read in parallel, e.g. to build an index over the whole table.
+     *
+     * @param fromId The first message ID of the range.
+     * @param toId The last message ID of the range.
+     * @param writer Receives each row as it is read.
+     * @throws IOException If the writer or the query fails; the query is abandoned at that point.
+     */
+    public void streamMessagesInRange(int fromId, int toId, MessageRowWriter writer) throws IOException{
+        QueryStats.Timer timer = queryStats.start("streamMessagesInRange", SELECT_MESSAGES_IN_RANGE);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGES_IN_RANGE, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            ps.setInt(1, fromId);
+            ps.setInt(2, toId);
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                writer.write(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            }
+        }catch(SQLException e){
+            throw new IOException("range scan failed: " + e.getMessage(), e);
+        }finally{
+            timer.finish(fromId, toId);
+        }
+    }
+
+    /**
+     * @return The highest message ID in use, 0 if there are no messages, or -1 if it could not be read.
+     */
+    public int getMaxMessageId(){
+        QueryStats.Timer timer = queryStats.start("getMaxMessageId", SELECT_MAX_MESSAGE_ID);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            ResultSet rs = conn.createStatement().executeQuery(SELECT_MAX_MESSAGE_ID);
+            timer.executed();
+            if(rs.next()){
+                return rs.getInt(1);
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+            return -1;
+        }finally{
+            timer.finish();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a streaming listing. Its map phase includes the time the writer takes to send each row on.
+     * A database failure part way through is thrown as an IOException, like a failing writer, so the caller can
+     * tell a cut-off listing from a complete one.
+     */
+    private void streamMessages(String method, String sql, Integer account_id, MessageRowWriter writer) throws IOException{
+        QueryStats.Timer timer = queryStats.start(method, sql);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            Statement settings = conn.createStatement();
+            settings.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            try{
+                PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(STREAM_FETCH_SIZE);
+                if(account_id != null)
+                    ps.setInt(1, account_id);
+                ResultSet rs = ps.executeQuery();
+                timer.executed();
+                while(rs.next()){
+                    writer.write(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                }
+            }finally{
+                settings.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+        }catch(SQLException e){
+            throw new IOException("streamed listing failed: " + e.getMessage(), e);
+        }finally{
+            timer.finish(account_id);
+        }
+    }
+
+    /**
+     * Fetches one page of all messages, ordered by time posted and then by message ID (oldest first).
+     * Uses keyset pagination: rows are located through the (time_posted_epoch, message_id) position of the cursor
+     * rather than an OFFSET, so the cost of a page depends on its size and not on how deep it is.
+     *
+     * @param cursor The position to page from, or {@code null} to start at the beginning.
+     * @param backward If true, returns the rows just before the cursor instead of just after it. Ignored without a cursor.
+     * @param limit The maximum number of rows to return.
+     * @return The messages on the page, always in listing order.
+     * @throws IllegalStateException If the query fails, so a failure is not mistaken for the end of the listing.
+     */
+    public List<Message> getMessagesPage(MessageCursor cursor, boolean backward, int limit){
+        String sql;
+        if(cursor == null)
+            sql = SELECT_MESSAGES_PAGE;
+        else
+            sql = backward ? SELECT_MESSAGES_PAGE_BEFORE : SELECT_MESSAGES_PAGE_AFTER;
+        return queryPage("getMessagesPage", sql, null, cursor, backward, limit);
+    }
+
+    /**
+     * Fetches one page of the messages posted by a given user, newest first (ties broken by message ID).
+     * Uses the same keyset pagination as {@link #getMessagesPage(MessageCursor, boolean, int)}.
+     *
+     * @param account_id The ID of the user whose messages are to be retrieved.
+     * @param cursor The position to page from, or {@code null} to start at the newest.
+     * @param backward If true, returns the rows just before the cursor instead of just after it. Ignored without a cursor.
+     * @param limit The maximum number of rows to return.
+     * @return The messages on the page, always in listing order.
+     * @throws IllegalStateException If the query fails.
+     */
+    public List<Message> getMessagesPageByUserId(int account_id, MessageCursor cursor, boolean backward, int limit){
+        String sql;
+        if(cursor == null)
+            sql = SELECT_MESSAGES_PAGE_BY_USER;
+        else
+            sql = backward ? SELECT_MESSAGES_PAGE_BY_USER_BEFORE : SELECT_MESSAGES_PAGE_BY_USER_AFTER;
+        return queryPage("getMessagesPageByUserId", sql, account_id, cursor, backward, limit);
+    }
+
+    /**
+     * Runs one of the page queries above. Parameters are bound in the order they appear in every page query:
+     * optional posted_by, then the cursor (time, time, id) if present, then the limit.
+     * Backward pages are read in reverse and flipped so the caller always gets listing order.
+     */
+    private List<Message> queryPage(String method, String sql, Integer account_id, MessageCursor cursor, boolean backward, int limit){
+        List<Message> messages = new ArrayList<>(Math.min(limit, 1024));
+        QueryStats.Timer timer = queryStats.start(method, sql);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(sql);
+            int i = 1;
+            if(account_id != null)
+                ps.setInt(i++, account_id);
+            if(cursor != null){
+                ps.setLong(i++, cursor.getTime_posted_epoch());
+                ps.setLong(i++, cursor.getTime_posted_epoch());
+                ps.setInt(i++, cursor.getMessage_id());
+            }
+            ps.setInt(i, limit);
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+            }
+        }catch(SQLException e){
+            // a short or empty page would read as the end of the listing, so the failure has to reach the caller
+            throw new IllegalStateException(method + " failed: " + e.getMessage(), e);
+        }finally{
+            timer.finish(account_id, cursor, limit);
+        }
+        if(backward && cursor != null)
+            Collections.reverse(messages);
+        return messages;
+    }
+
     /**
      * Authenticates a user by matching the username and password in the database.
      *
@@ -146,11 +471,13 @@ public class SocialMediaDAO {
      *         {@code null} if authentication fails.
      */
     public Account validUser(Account user){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("select * from account where username=? and password=?");
+        QueryStats.Timer timer = queryStats.start("validUser", SELECT_ACCOUNT_BY_LOGIN);
+        try(Connection conn = timer.acquired(dataSource.getReadConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_ACCOUNT_BY_LOGIN);
             ps.setString(1, user.getUsername());
             ps.setString(2, user.getPassword());
             ResultSet rs = ps.executeQuery(); 
+            timer.executed();
             while(rs.next()){
                 int id = rs.getInt("account_id");
                 String username = rs.getString("username");
@@ -159,6 +486,8 @@ public class SocialMediaDAO {
             }
         }catch(SQLException e){
             e.printStackTrace();
+        }finally{
+            timer.finish(user.getUsername(), QueryStats.REDACTED);
         }
 
         return null; 
@@ -171,22 +500,26 @@ public class SocialMediaDAO {
      * @return The registered {@code Account} with its ID, or {@code null} if registration fails.
      */
     public Account registerAnAccount(Account user){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO account(username, password) values (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        QueryStats.Timer timer = queryStats.start("registerAnAccount", INSERT_ACCOUNT);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(INSERT_ACCOUNT, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, user.getUsername());
             ps.setString(2, user.getPassword()); 
 
             ps.executeUpdate();
+            timer.executed();
             ResultSet rs = ps.getGeneratedKeys(); 
 
             while(rs.next()){
                 int id = rs.getInt(1); 
-
+                dataSource.changed(ACCOUNT_TABLE, id);
                 return new Account(id, user.getUsername(), user.getPassword()); 
             }
 
         }catch(SQLException e){
             e.printStackTrace(); 
+        }finally{
+            timer.finish(user.getUsername(), QueryStats.REDACTED);
         }
 
         return null; 
@@ -202,24 +535,269 @@ public class SocialMediaDAO {
      * @throws SQLException If an SQL error occurs during the messages creation. 
      */
     public Message createMessage(Message m){
-        try(Connection conn = ConnectionUtil.getConnection()){
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO message(posted_by, message_text, time_posted_epoch) values (?, ?, ?)", Statement.RETURN_GENERATED_KEYS); 
+        QueryStats.Timer timer = queryStats.start("createMessage", INSERT_MESSAGE);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS); 
             ps.setInt(1, m.getPosted_by()); 
             ps.setString(2, m.getMessage_text());
             ps.setLong(3, m.getTime_posted_epoch());
 
             ps.executeUpdate(); 
+            timer.executed();
             ResultSet rs = ps.getGeneratedKeys(); 
             while(rs.next()){
                 int id = rs.getInt(1); 
-                System.out.println(id + m.toString()); 
+                dataSource.changed(MESSAGE_TABLE, id);
                 return new Message(id, m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
             }
 
         }catch(SQLException e){
             e.printStackTrace();
+        }finally{
+            timer.finish(m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
         }
 
         return null; 
     }
+
+    /**
+     * Inserts a batch of messages in a single transaction using JDBC batching, and returns them with their
+     * generated IDs. Rows are sent in chunks of INSERT_BATCH_SIZE; if any row fails, the whole batch is rolled back.
+     *
+     * @param messages The messages to insert, which should already be validated.
+     * @return The inserted messages with their generated IDs, in the same order, or {@code null} if the batch failed.
+     */
+    public List<Message> createMessages(List<Message> messages){
+        List<Message> created = new ArrayList<>(messages.size());
+        QueryStats.Timer timer = queryStats.start("createMessages", INSERT_MESSAGE);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            conn.setAutoCommit(false);
+            try{
+                PreparedStatement ps = conn.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS);
+                int pending = 0;
+                for(Message m : messages){
+                    ps.setInt(1, m.getPosted_by());
+                    ps.setString(2, m.getMessage_text());
+                    ps.setLong(3, m.getTime_posted_epoch());
+                    ps.addBatch();
+                    if(++pending == INSERT_BATCH_SIZE || created.size() + pending == messages.size()){
+                        ps.executeBatch();
+                        ResultSet rs = ps.getGeneratedKeys();
+                        while(rs.next()){
+                            Message m2 = messages.get(created.size());
+                            created.add(new Message(rs.getInt(1), m2.getPosted_by(), m2.getMessage_text(), m2.getTime_posted_epoch()));
+                        }
+                        pending = 0;
+                    }
+                }
+                conn.commit();
+                timer.executed();
+                for(Message m : created)
+                    dataSource.changed(MESSAGE_TABLE, m.getMessage_id());
+            }catch(SQLException e){
+                conn.rollback();
+                throw e;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+            return null;
+        }finally{
+            timer.finish(messages);
+        }
+        return created;
+    }
+
+    /**
+     * Checks which of the given account IDs exist.
+     *
+     * @param account_ids The account IDs to look for.
+     * @return The subset of the given IDs that belong to an existing account.
+     */
+    public Set<Integer> getExistingAccountIds(Set<Integer> account_ids){
+        Set<Integer> existing = new HashSet<>();
+        if(account_ids.isEmpty())
+            return existing;
+        QueryStats.Timer timer = queryStats.start("getExistingAccountIds", SELECT_EXISTING_ACCOUNT_IDS);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_EXISTING_ACCOUNT_IDS);
+            ps.setObject(1, account_ids.toArray(new Integer[0]));
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                existing.add(rs.getInt(1));
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            timer.finish(account_ids);
+        }
+        return existing;
+    }
+
+    /**
+     * Records that one account follows another. Following an account twice is not an error.
+     *
+     * @param follower_id The account that follows.
+     * @param followee_id The account being followed.
+     * @return true if the follow exists afterwards, false if either account does not exist or the insert failed.
+     */
+    public boolean follow(int follower_id, int followee_id){
+        QueryStats.Timer timer = queryStats.start("follow", MERGE_FOLLOW);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(MERGE_FOLLOW);
+            ps.setInt(1, follower_id);
+            ps.setInt(2, followee_id);
+            ps.executeUpdate();
+            timer.executed();
+            dataSource.changed(FOLLOW_TABLE, follower_id, followee_id);
+            return true;
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            timer.finish(follower_id, followee_id);
+        }
+        return false;
+    }
+
+    /**
+     * Removes a follow.
+     *
+     * @param follower_id The account that follows.
+     * @param followee_id The account being followed.
+     * @return true if there was such a follow.
+     */
+    public boolean unfollow(int follower_id, int followee_id){
+        QueryStats.Timer timer = queryStats.start("unfollow", DELETE_FOLLOW);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(DELETE_FOLLOW);
+            ps.setInt(1, follower_id);
+            ps.setInt(2, followee_id);
+            int rows = ps.executeUpdate();
+            timer.executed();
+            if(rows > 0)
+                dataSource.changed(FOLLOW_TABLE, follower_id, followee_id);
+            return rows > 0;
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            timer.finish(follower_id, followee_id);
+        }
+        return false;
+    }
+
+    /**
+     * @param followee_id An account.
+     * @return The IDs of the accounts following it, or null if they could not be read.
+     */
+    public int[] getFollowerIds(int followee_id){
+        return queryIds("getFollowerIds", SELECT_FOLLOWER_IDS, followee_id);
+    }
+
+    /**
+     * @param follower_id An account.
+     * @return The IDs of the accounts it follows.
+     */
+    public int[] getFolloweeIds(int follower_id){
+        int[] ids = queryIds("getFolloweeIds", SELECT_FOLLOWEE_IDS, follower_id);
+        return ids == null ? new int[0] : ids;
+    }
+
+    private int[] queryIds(String method, String sql, int account_id){
+        List<Integer> ids = new ArrayList<>();
+        QueryStats.Timer timer = queryStats.start(method, sql);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setInt(1, account_id);
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                ids.add(rs.getInt(1));
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+            return null;
+        }finally{
+            timer.finish(account_id);
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param followee_id An account.
+     * @return How many accounts follow it, or -1 if that could not be read.
+     */
+    public int getFollowerCount(int followee_id){
+        QueryStats.Timer timer = queryStats.start("getFollowerCount", COUNT_FOLLOWERS);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(COUNT_FOLLOWERS);
+            ps.setInt(1, followee_id);
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            if(rs.next()){
+                return rs.getInt(1);
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+            return -1;
+        }finally{
+            timer.finish(followee_id);
+        }
+        return 0;
+    }
+
+    /**
+     * Fetches the newest messages posted by an account or by anyone it follows, newest first.
+     * Used to fill a home timeline that is not in memory.
+     *
+     * @param account_id The account whose feed is being built.
+     * @param limit The most messages to return.
+     * @return The messages, newest first.
+     */
+    public List<Message> getRecentFeedMessages(int account_id, int limit){
+        List<Message> messages = new ArrayList<>();
+        QueryStats.Timer timer = queryStats.start("getRecentFeedMessages", SELECT_FEED_MESSAGES);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_FEED_MESSAGES);
+            ps.setInt(1, account_id);
+            ps.setInt(2, account_id);
+            ps.setInt(3, limit);
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            timer.finish(account_id, limit);
+        }
+        return messages;
+    }
+
+    /**
+     * Fetches several messages by ID in one query.
+     *
+     * @param message_ids The IDs to look up.
+     * @return The messages that exist, in no particular order.
+     */
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids){
+        List<Message> messages = new ArrayList<>(message_ids.size());
+        if(message_ids.isEmpty())
+            return messages;
+        QueryStats.Timer timer = queryStats.start("getMessagesByIds", SELECT_MESSAGES_BY_IDS);
+        try(Connection conn = timer.acquired(dataSource.getConnection())){
+            PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGES_BY_IDS);
+            ps.setObject(1, message_ids.toArray(new Integer[0]));
+            ResultSet rs = ps.executeQuery();
+            timer.executed();
+            while(rs.next()){
+                messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            timer.finish(message_ids);
+        }
+        return messages;
+    }
 }
@@ -2,15 +2,21 @@ import Controller.SocialMediaController;
 import io.javalin.Javalin;
 import Util.ConnectionUtil; 
 
+import java.util.Arrays;
+
 /**
  * This class is provided with a main method to allow you to manually run and test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
  */
 public class Main {
+    /**
+     * Pass --virtual-threads to run request handlers on virtual threads (needs JDK 21+).
+     */
     public static void main(String[] args) {
+        boolean virtualThreads = Arrays.asList(args).contains("--virtual-threads");
         ConnectionUtil.resetTestDatabase();
         SocialMediaController controller = new SocialMediaController();
-        Javalin app = controller.startAPI();
+        Javalin app = controller.startAPI(virtualThreads || Boolean.getBoolean("socialmedia.virtualThreads"));
         app.start(8080);
     }
 }
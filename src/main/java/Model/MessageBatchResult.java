@@ -0,0 +1,92 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a class that models the outcome of a batch message creation: the messages that were created, with their
+ * generated IDs, and an error for each message in the batch that was rejected.
+ */
+public class MessageBatchResult {
+    /**
+     * The created messages, in the order they were submitted.
+     */
+    public List<Message> created = new ArrayList<>();
+    /**
+     * One entry per rejected message.
+     */
+    public List<ItemError> errors = new ArrayList<>();
+
+    public MessageBatchResult() {
+    }
+
+    public List<Message> getCreated() {
+        return created;
+    }
+
+    public void setCreated(List<Message> created) {
+        this.created = created;
+    }
+
+    public List<ItemError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<ItemError> errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "created=" + created +
+                ", errors=" + errors +
+                '}';
+    }
+
+    /**
+     * Why one message of a batch was not created.
+     */
+    public static class ItemError {
+        /**
+         * The position of the rejected message in the submitted array, starting at 0.
+         */
+        public int index;
+        /**
+         * A short description of the problem.
+         */
+        public String error;
+
+        public ItemError() {
+        }
+
+        public ItemError(int index, String error) {
+            this.index = index;
+            this.error = error;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void setError(String error) {
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "ItemError{" +
+                    "index=" + index +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package Model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * This is a class that models a position in a message listing, used for keyset (cursor) pagination.
+ *
+ * Listings are ordered by (time_posted_epoch, message_id), so a cursor is just those two values from the row at the
+ * edge of a page. Clients only ever see the encoded form, which they should treat as opaque.
+ */
+public class MessageCursor {
+    /**
+     * The time_posted_epoch of the row this cursor points at.
+     */
+    private final long time_posted_epoch;
+    /**
+     * The message_id of the row this cursor points at, used to break ties between messages posted at the same time.
+     */
+    private final int message_id;
+
+    public MessageCursor(long time_posted_epoch, int message_id) {
+        this.time_posted_epoch = time_posted_epoch;
+        this.message_id = message_id;
+    }
+
+    /**
+     * @param m the message at the edge of a page.
+     * @return a cursor pointing at that message.
+     */
+    public static MessageCursor of(Message m) {
+        return new MessageCursor(m.getTime_posted_epoch(), m.getMessage_id());
+    }
+
+    public long getTime_posted_epoch() {
+        return time_posted_epoch;
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    /**
+     * @return the opaque, URL-safe form of this cursor.
+     */
+    public String encode() {
+        String raw = time_posted_epoch + ":" + message_id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a cursor previously produced by encode().
+     *
+     * @param token the opaque cursor sent by a client.
+     * @return the decoded cursor.
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static MessageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            return new MessageCursor(Long.parseLong(raw.substring(0, sep)), Integer.parseInt(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid cursor: " + token, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageCursor that = (MessageCursor) o;
+        return time_posted_epoch == that.time_posted_epoch && message_id == that.message_id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(time_posted_epoch) * 31 + message_id;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCursor{" +
+                "time_posted_epoch=" + time_posted_epoch +
+                ", message_id=" + message_id +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package Model;
+
+import java.util.List;
+
+/**
+ * This is a class that models one page of a message listing.
+ */
+public class MessagePage {
+    /**
+     * The messages on this page, in listing order.
+     */
+    public List<Message> messages;
+    /**
+     * An opaque cursor for the following page, or null if this is the last one. It should be sent back in the same
+     * query parameter (after or before) that was used to request this page.
+     */
+    public String next;
+
+    public MessagePage() {
+    }
+
+    public MessagePage(List<Message> messages, String next) {
+        this.messages = messages;
+        this.next = next;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Message> messages) {
+        this.messages = messages;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePage{" +
+                "messages=" + messages +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,222 @@
+package Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import Model.Message;
+
+/**
+ * A bounded, in-process cache of messages by message_id.
+ *
+ * Eviction follows the W-TinyLFU idea: new entries land in a small LRU admission window, and when the window
+ * overflows its oldest entry has to beat the least recently used entry of the main region on estimated access
+ * frequency to get in. Frequencies come from a small count-min sketch that is halved periodically so that old
+ * popularity fades. A one-off scan over many messages therefore churns only the window and cannot flush the popular
+ * posts out of the main region.
+ *
+ * Writers must call invalidate() or put() for every change they make so cached rows are never stale.
+ */
+public class MessageCache {
+    private final int maximumSize;
+    private final int windowSize;
+    private final LinkedHashMap<Integer, Message> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Message> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    /**
+     * Bumped on every invalidation, so a read-through that started before a write can tell it may hold an old row.
+     */
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize the most messages held at once.
+     */
+    public MessageCache(int maximumSize){
+        if(maximumSize < 1)
+            throw new IllegalArgumentException("maximumSize must be positive");
+        this.maximumSize = maximumSize;
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * Looks up a message, counting a hit or a miss.
+     *
+     * @param message_id the ID of the message.
+     * @return the cached message, or null if it is not cached.
+     */
+    public synchronized Message get(int message_id){
+        sketch.increment(message_id);
+        Message m = main.get(message_id);
+        if(m == null)
+            m = window.get(message_id);
+        if(m == null)
+            misses.increment();
+        else
+            hits.increment();
+        return m;
+    }
+
+    /**
+     * @return a stamp to pass to putIfUnchanged() after loading a message that missed the cache.
+     */
+    public synchronized long generation(){
+        return generation;
+    }
+
+    /**
+     * Caches a message loaded after a miss, unless some message was invalidated since the load began, in which case
+     * the loaded row may already be out of date and is dropped.
+     *
+     * @param m the message that was loaded.
+     * @param stamp the value of generation() taken before loading.
+     */
+    public synchronized void putIfUnchanged(Message m, long stamp){
+        if(stamp == generation)
+            put(m);
+    }
+
+    /**
+     * Caches or refreshes a message. Used by writers that know they hold the latest row.
+     *
+     * @param m the message to cache.
+     */
+    public synchronized void put(Message m){
+        int id = m.getMessage_id();
+        if(main.containsKey(id)){
+            main.put(id, m);
+            return;
+        }
+        window.put(id, m);
+        if(window.size() > windowSize)
+            admit();
+    }
+
+    /**
+     * Drops a message from the cache.
+     *
+     * @param message_id the ID of the message that was changed or deleted.
+     */
+    public synchronized void invalidate(int message_id){
+        generation++;
+        if(window.remove(message_id) == null)
+            main.remove(message_id);
+    }
+
+    /**
+     * Drops every cached message.
+     */
+    public synchronized void clear(){
+        generation++;
+        window.clear();
+        main.clear();
+    }
+
+    public synchronized int size(){
+        return window.size() + main.size();
+    }
+
+    public int getMaximumSize(){
+        return maximumSize;
+    }
+
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    public long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString(){
+        return "MessageCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * Moves the oldest window entry into the main region if there is room, or if it is used more often than the
+     * main region's eviction victim. Whichever entry loses is evicted.
+     */
+    private void admit(){
+        Iterator<Map.Entry<Integer, Message>> candidates = window.entrySet().iterator();
+        Map.Entry<Integer, Message> candidate = candidates.next();
+        candidates.remove();
+        if(main.size() < maximumSize - windowSize){
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Iterator<Map.Entry<Integer, Message>> victims = main.entrySet().iterator();
+        Map.Entry<Integer, Message> victim = victims.next();
+        if(sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())){
+            victims.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions.increment();
+    }
+
+    /**
+     * A count-min sketch of recent access frequencies, with four hashed rows of small saturating counters
+     * (eight counters per cached entry in each row, so unrelated keys rarely share all four).
+     * After sampleSize increments every counter is halved, so the estimate tracks recent popularity.
+     */
+    static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize){
+            int width = Integer.highestOneBit(Math.max(16, maximumSize) * 2 - 1) * 8;
+            counters = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * Math.max(16, maximumSize);
+        }
+
+        void increment(int key){
+            boolean added = false;
+            for(int row = 0; row < SEEDS.length; row++){
+                int i = index(key, row);
+                if(counters[row][i] < MAX_COUNT){
+                    counters[row][i]++;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize)
+                reset();
+        }
+
+        int frequency(int key){
+            int min = MAX_COUNT;
+            for(int row = 0; row < SEEDS.length; row++)
+                min = Math.min(min, counters[row][index(key, row)]);
+            return min;
+        }
+
+        private int index(int key, int row){
+            int h = key * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void reset(){
+            for(byte[] row : counters)
+                for(int i = 0; i < row.length; i++)
+                    row[i] = (byte) (row[i] >>> 1);
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package Service;
+
+import Model.Message;
+
+/**
+ * Receives every message write made through SocialMediaService, after it has been committed.
+ * Listeners are called on the writing request's thread, so they should be quick and must not throw.
+ */
+public interface MessageChangeListener {
+    /**
+     * @param m the new message, with its ID.
+     */
+    void messageCreated(Message m);
+
+    /**
+     * @param m the message as it is after the update.
+     */
+    void messageUpdated(Message m);
+
+    /**
+     * @param m the message as it was before it was deleted.
+     */
+    void messageDeleted(Message m);
+}
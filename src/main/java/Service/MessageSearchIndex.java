@@ -0,0 +1,562 @@
+package Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+
+/**
+ * An in-memory inverted index over message_text, so searching posts does not scan the message table.
+ *
+ * Text is split into lowercase runs of letters and digits. Each term maps to a posting list of (message_id, term
+ * frequency, generation) entries sorted by message_id and packed as varints, with message_ids delta-encoded, so a
+ * typical posting takes three bytes. New messages get increasing IDs and are appended to the end of their lists.
+ *
+ * Updates and deletes do not search the lists for the old postings: they bump the message's generation instead,
+ * which turns its existing postings stale, and an updated message is then indexed again under the new generation.
+ * Stale postings are skipped by searches and dropped whenever their list is rewritten; once they make up half of
+ * all postings, every list is compacted.
+ *
+ * A search returns the messages containing every query term, ranked either by BM25 relevance or by recency.
+ * Reads share a read lock and writes take the write lock.
+ */
+public class MessageSearchIndex implements MessageChangeListener {
+    /**
+     * How search results are ordered.
+     */
+    public enum Order { relevance, recent }
+
+    /**
+     * Terms longer than this are cut, so a long run of characters cannot bloat the dictionary.
+     */
+    static final int MAX_TERM_LENGTH = 64;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PostingList> terms = new HashMap<>();
+    /**
+     * Per message_id: number of tokens (0 when the message is not indexed), number of distinct terms, current
+     * generation and time posted.
+     */
+    private int[] docLength = new int[1024];
+    private int[] docTerms = new int[1024];
+    private int[] docGeneration = new int[1024];
+    private long[] docTime = new long[1024];
+    private int liveDocs;
+    private long totalLength;
+    private long totalPostings;
+    private long stalePostings;
+
+    /**
+     * Splits text into lowercase terms: maximal runs of letters and digits.
+     *
+     * @param text the text to split.
+     * @return the terms, in order, with repeats.
+     */
+    public static List<String> tokenize(String text){
+        List<String> tokens = new ArrayList<>();
+        if(text == null)
+            return tokens;
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++){
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(wordChar && start < 0){
+                start = i;
+            }
+            else if(!wordChar && start >= 0){
+                tokens.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Replaces the index contents with every message in the database, read by several threads in parallel, each
+     * scanning its own range of message IDs. Writes made while this runs may be lost, so it should be called
+     * before the index starts receiving changes. If any range cannot be read the index is left as it was, rather
+     * than silently missing messages.
+     *
+     * @param dao the DAO to scan.
+     * @param parallelism the number of ranges scanned at once.
+     * @throws IOException if the table could not be read in full.
+     */
+    public void rebuild(SocialMediaDAO dao, int parallelism) throws IOException{
+        int maxId = dao.getMaxMessageId();
+        if(maxId < 0)
+            throw new IOException("could not read the highest message ID");
+        List<Partial> partials = new ArrayList<>();
+        if(maxId > 0){
+            int ranges = Math.max(1, Math.min(parallelism, maxId / 1000 + 1));
+            int rangeSize = (maxId + ranges - 1) / ranges;
+            ExecutorService executor = Executors.newFixedThreadPool(ranges, r -> {
+                Thread t = new Thread(r, "search-index-rebuild");
+                t.setDaemon(true);
+                return t;
+            });
+            try{
+                List<Future<Partial>> futures = new ArrayList<>();
+                for(int from = 1; from <= maxId; from += rangeSize){
+                    int fromId = from;
+                    int toId = Math.min(maxId, from + rangeSize - 1);
+                    futures.add(executor.submit(() -> scan(dao, fromId, toId)));
+                }
+                for(Future<Partial> f : futures)
+                    partials.add(f.get());
+            }catch(ExecutionException e){
+                throw new IOException("search index rebuild failed", e.getCause());
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("search index rebuild interrupted", e);
+            }finally{
+                executor.shutdownNow();
+            }
+        }
+
+        lock.writeLock().lock();
+        try{
+            clear();
+            // ranges were scanned in ID order, so appending them in order keeps every list sorted
+            for(Partial p : partials){
+                for(int i = 0; i < p.docs.size; i += 3){
+                    int id = p.docs.values[i];
+                    ensureCapacity(id);
+                    docLength[id] = p.docs.values[i + 1];
+                    docTerms[id] = p.docs.values[i + 2];
+                    docTime[id] = p.times.get(i / 3);
+                    liveDocs++;
+                    totalLength += docLength[id];
+                }
+                for(Map.Entry<String, IntBuffer> e : p.postings.entrySet()){
+                    PostingList list = terms.computeIfAbsent(e.getKey(), k -> new PostingList());
+                    IntBuffer postings = e.getValue();
+                    for(int i = 0; i < postings.size; i += 2)
+                        list.append(postings.values[i], postings.values[i + 1], 0);
+                    totalPostings += postings.size / 2;
+                }
+            }
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Partial scan(SocialMediaDAO dao, int fromId, int toId) throws IOException{
+        Partial p = new Partial();
+        dao.streamMessagesInRange(fromId, toId, (message_id, posted_by, message_text, time_posted_epoch) -> {
+            Map<String, Integer> tf = termFrequencies(tokenize(message_text));
+            if(tf.isEmpty())
+                return;
+            int length = 0;
+            for(Map.Entry<String, Integer> e : tf.entrySet()){
+                p.postings.computeIfAbsent(e.getKey(), k -> new IntBuffer()).add(message_id, e.getValue());
+                length += e.getValue();
+            }
+            p.docs.add(message_id, length);
+            p.docs.add(tf.size());
+            p.times.add(time_posted_epoch);
+        });
+        return p;
+    }
+
+    @Override
+    public void messageCreated(Message m){
+        lock.writeLock().lock();
+        try{
+            index(m);
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void messageUpdated(Message m){
+        lock.writeLock().lock();
+        try{
+            remove(m.getMessage_id());
+            index(m);
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void messageDeleted(Message m){
+        lock.writeLock().lock();
+        try{
+            remove(m.getMessage_id());
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the messages that contain every term of a query.
+     *
+     * @param query the search text; it is tokenized like message text.
+     * @param limit the most IDs to return.
+     * @param order how to rank the matches.
+     * @return the matching message IDs, best first.
+     */
+    public int[] search(String query, int limit, Order order){
+        Set<String> queryTerms = new LinkedHashSet<>(tokenize(query));
+        if(queryTerms.isEmpty() || limit < 1)
+            return new int[0];
+        lock.readLock().lock();
+        try{
+            List<PostingList> lists = new ArrayList<>(queryTerms.size());
+            for(String term : queryTerms){
+                PostingList list = terms.get(term);
+                if(list == null)
+                    return new int[0];
+                lists.add(list);
+            }
+            lists.sort((a, b) -> Integer.compare(a.count, b.count));
+
+            double avgLength = liveDocs == 0 ? 1 : totalLength / (double) liveDocs;
+            IntBuffer candidates = new IntBuffer();
+            double[] scores = null;
+            for(PostingList list : lists){
+                double idf = Math.log(1 + (liveDocs - list.count + 0.5) / (list.count + 0.5));
+                IntBuffer next = new IntBuffer();
+                double[] nextScores = new double[candidates.size == 0 && scores == null ? list.count : candidates.size];
+                PostingList.Reader r = list.reader();
+                int c = 0;
+                while(r.next()){
+                    if(!isLive(r.id, r.generation))
+                        continue;
+                    if(scores != null){
+                        while(c < candidates.size && candidates.values[c] < r.id)
+                            c++;
+                        if(c == candidates.size)
+                            break;
+                        if(candidates.values[c] != r.id)
+                            continue;
+                    }
+                    double score = scores == null ? 0 : scores[c];
+                    score += idf * r.tf * (K1 + 1) / (r.tf + K1 * (1 - B + B * docLength[r.id] / avgLength));
+                    nextScores[next.size] = score;
+                    next.add(r.id);
+                }
+                candidates = next;
+                scores = nextScores;
+                if(candidates.size == 0)
+                    return new int[0];
+            }
+            return top(candidates, scores, limit, order);
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages in the index.
+     */
+    public int size(){
+        lock.readLock().lock();
+        try{
+            return liveDocs;
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct terms in the index.
+     */
+    public int getTermCount(){
+        lock.readLock().lock();
+        try{
+            return terms.size();
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the bytes used by the encoded posting lists.
+     */
+    public long getPostingBytes(){
+        lock.readLock().lock();
+        try{
+            long bytes = 0;
+            for(PostingList list : terms.values())
+                bytes += list.size;
+            return bytes;
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] top(IntBuffer candidates, double[] scores, int limit, Order order){
+        // a min-heap of the best limit candidates, by index into candidates
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, candidates.size) + 1,
+                (a, b) -> compare(candidates, scores, order, a, b));
+        for(int i = 0; i < candidates.size; i++){
+            heap.add(i);
+            if(heap.size() > limit)
+                heap.poll();
+        }
+        int[] ids = new int[heap.size()];
+        for(int i = ids.length - 1; i >= 0; i--)
+            ids[i] = candidates.values[heap.poll()];
+        return ids;
+    }
+
+    /**
+     * Orders candidate a before b when a ranks lower, so the heap head is the weakest result kept.
+     * Ties go to the older message; recency ties break on ID.
+     */
+    private int compare(IntBuffer candidates, double[] scores, Order order, int a, int b){
+        int idA = candidates.values[a];
+        int idB = candidates.values[b];
+        int cmp = order == Order.relevance ? Double.compare(scores[a], scores[b]) : Long.compare(docTime[idA], docTime[idB]);
+        if(cmp == 0 && order == Order.relevance)
+            cmp = Long.compare(docTime[idA], docTime[idB]);
+        return cmp != 0 ? cmp : Integer.compare(idA, idB);
+    }
+
+    private boolean isLive(int id, int generation){
+        return id < docLength.length && docLength[id] > 0 && docGeneration[id] == generation;
+    }
+
+    private void index(Message m){
+        int id = m.getMessage_id();
+        Map<String, Integer> tf = termFrequencies(tokenize(m.getMessage_text()));
+        if(tf.isEmpty())
+            return;
+        ensureCapacity(id);
+        int generation = docGeneration[id];
+        int length = 0;
+        for(Map.Entry<String, Integer> e : tf.entrySet()){
+            PostingList list = terms.computeIfAbsent(e.getKey(), k -> new PostingList());
+            if(list.count == 0 || id > list.lastId){
+                list.append(id, e.getValue(), generation);
+            }
+            else{
+                int before = list.count;
+                list.rewrite(this::isLive, id, e.getValue(), generation);
+                stalePostings -= Math.max(0, before + 1 - list.count);
+                totalPostings -= before + 1 - list.count;
+            }
+            totalPostings++;
+            length += e.getValue();
+        }
+        docLength[id] = length;
+        docTerms[id] = tf.size();
+        docTime[id] = m.getTime_posted_epoch();
+        liveDocs++;
+        totalLength += length;
+    }
+
+    private void remove(int id){
+        if(id >= docLength.length || docLength[id] == 0)
+            return;
+        liveDocs--;
+        totalLength -= docLength[id];
+        stalePostings += docTerms[id];
+        docLength[id] = 0;
+        docTerms[id] = 0;
+        docGeneration[id]++;
+        if(stalePostings > totalPostings / 2 && stalePostings > 1024)
+            compact();
+    }
+
+    /**
+     * Rewrites every posting list without its stale postings, dropping lists left empty.
+     */
+    private void compact(){
+        Iterator<PostingList> it = terms.values().iterator();
+        totalPostings = 0;
+        while(it.hasNext()){
+            PostingList list = it.next();
+            list.rewrite(this::isLive, 0, 0, 0);
+            if(list.count == 0)
+                it.remove();
+            else
+                totalPostings += list.count;
+        }
+        stalePostings = 0;
+    }
+
+    private void clear(){
+        terms.clear();
+        Arrays.fill(docLength, 0);
+        Arrays.fill(docTerms, 0);
+        Arrays.fill(docGeneration, 0);
+        Arrays.fill(docTime, 0);
+        liveDocs = 0;
+        totalLength = 0;
+        totalPostings = 0;
+        stalePostings = 0;
+    }
+
+    private void ensureCapacity(int id){
+        if(id < docLength.length)
+            return;
+        int capacity = Math.max(id + 1, docLength.length * 2);
+        docLength = Arrays.copyOf(docLength, capacity);
+        docTerms = Arrays.copyOf(docTerms, capacity);
+        docGeneration = Arrays.copyOf(docGeneration, capacity);
+        docTime = Arrays.copyOf(docTime, capacity);
+    }
+
+    private static Map<String, Integer> termFrequencies(List<String> tokens){
+        Map<String, Integer> tf = new HashMap<>();
+        for(String t : tokens)
+            tf.merge(t, 1, Integer::sum);
+        return tf;
+    }
+
+    /**
+     * The postings of one term: (message_id delta, term frequency, generation) triples as unsigned varints,
+     * in increasing message_id order.
+     */
+    static final class PostingList {
+        byte[] data = new byte[8];
+        int size;
+        int count;
+        int lastId;
+
+        void append(int id, int tf, int generation){
+            ensure(15);
+            writeVarint(id - lastId);
+            writeVarint(tf);
+            writeVarint(generation);
+            lastId = id;
+            count++;
+        }
+
+        /**
+         * Re-encodes the list keeping only postings that pass the liveness check, and inserts the given posting
+         * (replacing any other posting with the same ID) if id is positive.
+         */
+        void rewrite(LivenessCheck live, int id, int tf, int generation){
+            Reader r = reader();
+            byte[] old = data;
+            data = new byte[Math.max(8, size + 15)];
+            size = 0;
+            count = 0;
+            lastId = 0;
+            boolean inserted = id <= 0;
+            while(r.next(old)){
+                if(!inserted && r.id >= id){
+                    append(id, tf, generation);
+                    inserted = true;
+                }
+                if(r.id != id && live.isLive(r.id, r.generation))
+                    append(r.id, r.tf, r.generation);
+            }
+            if(!inserted)
+                append(id, tf, generation);
+        }
+
+        Reader reader(){
+            return new Reader(this);
+        }
+
+        private void ensure(int extra){
+            if(size + extra > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+        }
+
+        private void writeVarint(int value){
+            while((value & ~0x7F) != 0){
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        /**
+         * Decodes a posting list front to back.
+         */
+        static final class Reader {
+            private final PostingList list;
+            private final int end;
+            private int pos;
+            int id;
+            int tf;
+            int generation;
+
+            Reader(PostingList list){
+                this.list = list;
+                this.end = list.size;
+            }
+
+            boolean next(){
+                return next(list.data);
+            }
+
+            boolean next(byte[] data){
+                if(pos >= end)
+                    return false;
+                id += readVarint(data);
+                tf = readVarint(data);
+                generation = readVarint(data);
+                return true;
+            }
+
+            private int readVarint(byte[] data){
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do{
+                    b = data[pos++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                }while(b < 0);
+                return value;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface LivenessCheck {
+        boolean isLive(int id, int generation);
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    static final class IntBuffer {
+        int[] values = new int[8];
+        int size;
+
+        void add(int v){
+            if(size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        void add(int a, int b){
+            add(a);
+            add(b);
+        }
+    }
+
+    /**
+     * What one rebuild thread collected from its range: (id, length, distinct terms) per message, the messages'
+     * times, and (id, tf) postings per term.
+     */
+    private static final class Partial {
+        final IntBuffer docs = new IntBuffer();
+        final List<Long> times = new ArrayList<>();
+        final Map<String, IntBuffer> postings = new HashMap<>();
+    }
+}
@@ -0,0 +1,101 @@
+package Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Model.Message;
+
+/**
+ * Version counters for conditional GETs, bumped whenever a message is created, updated or deleted.
+ *
+ * There is one global counter, plus a fixed table of slots for messages and one for accounts, indexed by ID modulo
+ * the table size. A write stamps the message's slot and its author's slot with the next value of the global
+ * counter. Two IDs that share a slot only cause an extra full response, never a wrong 304, so the tables stay
+ * small and a lookup is one array read.
+ *
+ * An ETag is the version prefixed with a random ID chosen when the service starts, so tags handed out before a
+ * restart never match. Only writes made through SocialMediaService are seen; rows changed directly in the database
+ * do not change any ETag until something else bumps it.
+ */
+public class ResourceVersions implements MessageChangeListener {
+    private final String bootId = Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 16);
+    private final AtomicLong global = new AtomicLong();
+    private final AtomicLongArray messageSlots;
+    private final AtomicLongArray accountSlots;
+    private final int mask;
+
+    /**
+     * @param slots the number of slots in each table; rounded up to a power of two.
+     */
+    public ResourceVersions(int slots){
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.mask = size - 1;
+        this.messageSlots = new AtomicLongArray(size);
+        this.accountSlots = new AtomicLongArray(size);
+    }
+
+    @Override
+    public void messageCreated(Message m){
+        bump(m);
+    }
+
+    @Override
+    public void messageUpdated(Message m){
+        bump(m);
+    }
+
+    @Override
+    public void messageDeleted(Message m){
+        bump(m);
+    }
+
+    private void bump(Message m){
+        long version = global.incrementAndGet();
+        // max rather than set, so that a slower concurrent writer cannot move a slot back to an older version
+        messageSlots.accumulateAndGet(m.getMessage_id() & mask, version, Math::max);
+        accountSlots.accumulateAndGet(m.getPosted_by() & mask, version, Math::max);
+    }
+
+    /**
+     * @return the value of the global counter: the version stamped by the latest write.
+     */
+    public long getVersion(){
+        return global.get();
+    }
+
+    /**
+     * @param message_id a message, whether or not it exists.
+     * @return the version of the latest write to the message's slot, or 0 if there has been none.
+     */
+    public long getMessageVersion(int message_id){
+        return messageSlots.get(message_id & mask);
+    }
+
+    /**
+     * @param message_id a message, whether or not it exists.
+     * @return the ETag of GET /messages/{message_id}.
+     */
+    public String messageETag(int message_id){
+        return eTag(messageSlots.get(message_id & mask));
+    }
+
+    /**
+     * @param account_id an account, whether or not it exists.
+     * @return the ETag of the listing of the account's messages.
+     */
+    public String accountETag(int account_id){
+        return eTag(accountSlots.get(account_id & mask));
+    }
+
+    /**
+     * @return the ETag of the listing of all messages, which changes with every write.
+     */
+    public String allMessagesETag(){
+        return eTag(global.get());
+    }
+
+    private String eTag(long version){
+        return "\"" + bootId + "-" + Long.toHexString(version) + "\"";
+    }
+}
@@ -0,0 +1,248 @@
+package Service;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An in-memory store of login sessions, so that authenticated requests can be tied to an account without querying
+ * the account table.
+ *
+ * Tokens are {@code payload.signature}, where the payload holds the account ID, the expiry time and a random nonce,
+ * and the signature is an HMAC-SHA256 of the payload. A forged or tampered token is rejected by the signature check
+ * alone; a genuine token must also still be present in the store, so sessions can be revoked. Expired sessions are
+ * removed lazily when looked up, and by a background sweep for sessions that are never looked up again.
+ */
+public class SessionStore {
+    /**
+     * Shared by every store; sweeping is cheap and infrequent, so one daemon thread is enough.
+     */
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledFuture<?> sweep;
+
+    private final LongAdder lookupCount = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final AtomicLong maxLookupNanos = new AtomicLong();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param ttlMillis how long a session stays valid after login.
+     * @param sweepIntervalMillis how often expired sessions are purged in the background.
+     */
+    public SessionStore(long ttlMillis, long sweepIntervalMillis){
+        this.ttlMillis = ttlMillis;
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.sweep = scheduleSweep(this, sweepIntervalMillis);
+    }
+
+    /**
+     * The sweep task only holds a weak reference, so a store that is no longer used can still be collected;
+     * the task cancels itself once that happens.
+     */
+    private static ScheduledFuture<?> scheduleSweep(SessionStore store, long intervalMillis){
+        WeakReference<SessionStore> ref = new WeakReference<>(store);
+        ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        self[0] = SWEEPER.scheduleWithFixedDelay(() -> {
+            SessionStore s = ref.get();
+            if(s == null){
+                self[0].cancel(false);
+                return;
+            }
+            s.sweepExpired();
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return self[0];
+    }
+
+    /**
+     * Starts a session for an authenticated account.
+     *
+     * @param account_id the account that logged in.
+     * @param username its username, kept so it can be reported without a lookup.
+     * @return the signed token identifying the new session.
+     */
+    public String create(int account_id, String username){
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String payload = account_id + ":" + expiresAt + ":" + Base64.getUrlEncoder().withoutPadding().encodeToString(nonce);
+        String token = encode(payload.getBytes(StandardCharsets.UTF_8)) + "." + encode(sign(payload));
+        sessions.put(token, new Session(account_id, username, expiresAt));
+        return token;
+    }
+
+    /**
+     * Looks up the session for a token, checking its signature and expiry.
+     *
+     * @param token the token a client sent.
+     * @return the live session, or null if the token is malformed, forged, revoked or expired.
+     */
+    public Session get(String token){
+        long start = System.nanoTime();
+        try{
+            if(!hasValidSignature(token)){
+                rejectedCount.increment();
+                return null;
+            }
+            Session s = sessions.get(token);
+            if(s == null)
+                return null;
+            if(s.expiresAt <= System.currentTimeMillis()){
+                if(sessions.remove(token, s))
+                    expiredCount.increment();
+                return null;
+            }
+            return s;
+        }finally{
+            long elapsed = System.nanoTime() - start;
+            lookupCount.increment();
+            lookupNanos.add(elapsed);
+            maxLookupNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    /**
+     * Ends a session.
+     *
+     * @param token the session's token.
+     * @return true if a session was removed.
+     */
+    public boolean revoke(String token){
+        return token != null && sessions.remove(token) != null;
+    }
+
+    /**
+     * Stops the background sweep.
+     */
+    public void close(){
+        sweep.cancel(false);
+    }
+
+    /**
+     * @return the number of sessions held, including expired ones not yet swept.
+     */
+    public int size(){
+        return sessions.size();
+    }
+
+    public long getLookupCount(){
+        return lookupCount.sum();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, spent in get().
+     */
+    public long getTotalLookupNanos(){
+        return lookupNanos.sum();
+    }
+
+    public long getMaxLookupNanos(){
+        return maxLookupNanos.get();
+    }
+
+    public long getExpiredCount(){
+        return expiredCount.sum();
+    }
+
+    /**
+     * @return the number of lookups refused because the token was malformed or its signature did not match.
+     */
+    public long getRejectedCount(){
+        return rejectedCount.sum();
+    }
+
+    void sweepExpired(){
+        long now = System.currentTimeMillis();
+        Iterator<Session> it = sessions.values().iterator();
+        while(it.hasNext()){
+            if(it.next().expiresAt <= now){
+                it.remove();
+                expiredCount.increment();
+            }
+        }
+    }
+
+    private boolean hasValidSignature(String token){
+        if(token == null)
+            return false;
+        int dot = token.indexOf('.');
+        if(dot <= 0)
+            return false;
+        try{
+            byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, dot));
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+            return MessageDigest.isEqual(signature, sign(new String(payload, StandardCharsets.UTF_8)));
+        }catch(IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    private byte[] sign(String payload){
+        try{
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String encode(byte[] bytes){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * A logged in account. Holds no password.
+     */
+    public static class Session {
+        private final int account_id;
+        private final String username;
+        private final long expiresAt;
+
+        Session(int account_id, String username, long expiresAt){
+            this.account_id = account_id;
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+
+        public int getAccount_id(){
+            return account_id;
+        }
+
+        public String getUsername(){
+            return username;
+        }
+
+        /**
+         * @return when the session expires, in milliseconds since the epoch.
+         */
+        public long getExpiresAt(){
+            return expiresAt;
+        }
+    }
+}
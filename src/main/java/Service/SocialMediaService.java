@@ -1,15 +1,297 @@
 package Service;
 
+import DAO.GroupCommitMessageWriter;
+import DAO.MessageRowWriter;
+import DAO.QueryStats;
 import DAO.SocialMediaDAO;
 import Model.*; 
+import Util.ConnectionPool;
+import Util.RoutingDataSource;
+import Util.PrometheusTextWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 public class SocialMediaService {
     private SocialMediaDAO socialMediaDAO; 
+    private MessageCache messageCache;
+    /**
+     * Set when group commit is enabled; concurrent message creations are then coalesced into batched transactions.
+     */
+    private GroupCommitMessageWriter groupCommitWriter;
+    private SessionStore sessionStore;
+    /**
+     * Inverted index over message_text for search; null when socialmedia.search.enabled is false or the index could
+     * not be built, in which case searchRebuildFailed is set.
+     */
+    private MessageSearchIndex searchIndex;
+    private boolean searchRebuildFailed;
+    /**
+     * Precomputed home timelines behind GET /accounts/{account_id}/feed; null when socialmedia.feed.enabled is false.
+     */
+    private TimelineStore timelineStore;
+    /**
+     * Version counters behind the ETags of message resources and listings.
+     */
+    private ResourceVersions resourceVersions;
+    private final List<MessageChangeListener> messageChangeListeners = new CopyOnWriteArrayList<>();
+    private static final double[] DB_QUERY_BUCKETS_SECONDS =
+            {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1};
     /**
      * No-arg constructor for a SocialMediaService to instantiate a plain SocialMediaDAO
      */
     public SocialMediaService(){
-        socialMediaDAO = new SocialMediaDAO();
+        this(new SocialMediaDAO());
+    }
+
+    /**
+     * Constructor for a SocialMediaService over a given DAO, e.g. a mock DAO in tests.
+     * The message cache size can be changed with the socialmedia.cache.messages.maxSize system property.
+     * Group commit for message creation is off unless socialmedia.groupCommit.enabled is true; its batch size and
+     * wait are set with socialmedia.groupCommit.maxBatchSize and socialmedia.groupCommit.maxWaitMicros.
+     * ETags are versioned in tables of socialmedia.etag.slots slots (65536 by default).
+     * Login sessions last socialmedia.session.ttlSeconds (an hour by default), and expired ones are swept every
+     * socialmedia.session.sweepIntervalMs.
+     * The search index is built here by scanning the message table with socialmedia.search.rebuildThreads threads
+     * (4 by default); set socialmedia.search.enabled to false to go without search. If the scan fails, search is
+     * disabled and reported as failed on /metrics.
+     * Home timelines hold socialmedia.feed.timelineSize message IDs (800 by default) for at most
+     * socialmedia.feed.maxTimelines accounts, and are fanned out to by socialmedia.feed.fanOutThreads threads with a
+     * queue of socialmedia.feed.fanOutQueueSize messages. Authors with socialmedia.feed.celebrityFollowers followers
+     * (10000 by default) are merged into feeds at read time instead. Set socialmedia.feed.enabled to false to go
+     * without feeds.
+     *
+     * @param socialMediaDAO the DAO this service reads and writes through.
+     */
+    public SocialMediaService(SocialMediaDAO socialMediaDAO){
+        this.socialMediaDAO = socialMediaDAO;
+        this.messageCache = new MessageCache(Integer.getInteger("socialmedia.cache.messages.maxSize", 10000));
+        if(Boolean.getBoolean("socialmedia.groupCommit.enabled")){
+            this.groupCommitWriter = new GroupCommitMessageWriter(socialMediaDAO,
+                    Integer.getInteger("socialmedia.groupCommit.maxBatchSize", 64),
+                    Long.getLong("socialmedia.groupCommit.maxWaitMicros", 200L));
+        }
+        this.resourceVersions = new ResourceVersions(Integer.getInteger("socialmedia.etag.slots", 65536));
+        addMessageChangeListener(resourceVersions);
+        this.sessionStore = new SessionStore(TimeUnit.SECONDS.toMillis(Long.getLong("socialmedia.session.ttlSeconds", 3600L)),
+                Long.getLong("socialmedia.session.sweepIntervalMs", 30000L));
+        if(Boolean.parseBoolean(System.getProperty("socialmedia.search.enabled", "true"))){
+            MessageSearchIndex index = new MessageSearchIndex();
+            try{
+                index.rebuild(socialMediaDAO, Integer.getInteger("socialmedia.search.rebuildThreads", 4));
+                this.searchIndex = index;
+                addMessageChangeListener(index);
+            }catch(IOException e){
+                e.printStackTrace();
+                searchRebuildFailed = true;
+            }
+        }
+        if(Boolean.parseBoolean(System.getProperty("socialmedia.feed.enabled", "true"))){
+            this.timelineStore = new TimelineStore(socialMediaDAO, messageCache,
+                    Integer.getInteger("socialmedia.feed.timelineSize", 800),
+                    Integer.getInteger("socialmedia.feed.celebrityFollowers", 10000),
+                    Integer.getInteger("socialmedia.feed.maxTimelines", 100000),
+                    Integer.getInteger("socialmedia.feed.fanOutThreads", 2),
+                    Integer.getInteger("socialmedia.feed.fanOutQueueSize", 10000));
+            addMessageChangeListener(timelineStore);
+        }
+    }
+
+    /**
+     * Registers a listener to be told about every message created, updated or deleted through this service.
+     *
+     * @param listener the listener to add.
+     */
+    public void addMessageChangeListener(MessageChangeListener listener){
+        messageChangeListeners.add(listener);
+    }
+
+    /**
+     * @return the search index, or null if search is disabled.
+     */
+    public MessageSearchIndex getSearchIndex(){
+        return searchIndex;
+    }
+
+    /**
+     * @return the version counters that ETags are built from; they are bumped after every message write.
+     */
+    public ResourceVersions getResourceVersions(){
+        return resourceVersions;
+    }
+
+    /**
+     * @return the home timelines, for reporting their fan-out counts, or null if feeds are disabled.
+     */
+    public TimelineStore getTimelineStore(){
+        return timelineStore;
+    }
+
+    /**
+     * @return the group commit writer, or null if group commit is disabled.
+     */
+    public GroupCommitMessageWriter getGroupCommitWriter(){
+        return groupCommitWriter;
+    }
+
+    /**
+     * Stops the service's background threads: the group commit flusher, once it has written what is already queued,
+     * the timeline fan-out and the session sweep. Messages created afterwards are inserted directly.
+     */
+    public void close(){
+        if(groupCommitWriter != null)
+            groupCommitWriter.close();
+        if(timelineStore != null)
+            timelineStore.close();
+        sessionStore.close();
+    }
+
+    /**
+     * @return the position of the newest database write, which a request can pass to
+     *         RoutingDataSource.beginRequest() to see it; 0 if the DAO has no data source.
+     */
+    public long getWritePosition(){
+        RoutingDataSource dataSource = socialMediaDAO.getDataSource();
+        return dataSource == null ? 0 : dataSource.getWritePosition();
+    }
+
+    /**
+     * @return the cache of messages by ID, for reporting its hit, miss and eviction counts.
+     */
+    public MessageCache getMessageCache(){
+        return messageCache;
+    }
+
+    /**
+     * @return the store of login sessions, for reporting its size and lookup latency.
+     */
+    public SessionStore getSessionStore(){
+        return sessionStore;
+    }
+
+    /**
+     * Writes the DAO call timings and the state of the connection pool, message cache, home timelines, session store and (when
+     * enabled) group commit writer.
+     *
+     * @param w The metrics page being built.
+     */
+    public void writeMetrics(PrometheusTextWriter w){
+        ConnectionPool pool = ConnectionPool.getInstance();
+        w.header("db_pool_connections", "gauge", "Database connections by state.")
+                .sample("db_pool_connections", pool.getActiveCount(), "state", "active")
+                .sample("db_pool_connections", pool.getIdleCount(), "state", "idle");
+        w.header("db_pool_connections_max", "gauge", "Most connections the pool will open.")
+                .sample("db_pool_connections_max", pool.getMaxSize());
+        w.header("db_pool_waiting_threads", "gauge", "Threads waiting for a connection.")
+                .sample("db_pool_waiting_threads", pool.getWaitingCount());
+        w.header("db_pool_acquires_total", "counter", "Connections handed out.")
+                .sample("db_pool_acquires_total", pool.getAcquireCount());
+        w.header("db_pool_acquire_wait_seconds_total", "counter", "Time spent waiting for a connection.")
+                .sample("db_pool_acquire_wait_seconds_total", pool.getTotalWaitTimeNanos() / 1e9);
+        w.header("db_pool_acquire_wait_seconds_max", "gauge", "Longest wait for a connection.")
+                .sample("db_pool_acquire_wait_seconds_max", pool.getMaxWaitTimeNanos() / 1e9);
+        w.header("db_pool_acquire_timeouts_total", "counter", "Requests for a connection that timed out.")
+                .sample("db_pool_acquire_timeouts_total", pool.getTimeoutCount());
+        w.header("db_pool_connections_created_total", "counter", "Physical connections opened.")
+                .sample("db_pool_connections_created_total", pool.getCreatedCount());
+        w.header("db_pool_connections_evicted_total", "counter", "Idle or broken connections closed by the pool.")
+                .sample("db_pool_connections_evicted_total", pool.getEvictedCount());
+
+        RoutingDataSource dataSource = socialMediaDAO.getDataSource();
+        if(dataSource != null)
+            dataSource.writeTo(w);
+
+        QueryStats queryStats = socialMediaDAO.getQueryStats();
+        if(queryStats != null){
+            w.header("db_query_seconds", "histogram", "Time spent in DAO calls, by method and phase (acquire, execute, map, total).");
+            for(Map.Entry<String, QueryStats.MethodStats> e : new TreeMap<>(queryStats.getMethods()).entrySet())
+                for(QueryStats.Phase phase : QueryStats.Phase.values())
+                    w.histogram("db_query_seconds", e.getValue().get(phase), 1e-9, DB_QUERY_BUCKETS_SECONDS,
+                            "method", e.getKey(), "phase", phase.name());
+            w.header("db_slow_queries_total", "counter", "DAO calls slower than the slow query threshold.")
+                    .sample("db_slow_queries_total", queryStats.getSlowCount());
+        }
+
+        w.header("message_cache_size", "gauge", "Messages held in the message cache.")
+                .sample("message_cache_size", messageCache.size());
+        w.header("message_cache_requests_total", "counter", "Message cache lookups by result.")
+                .sample("message_cache_requests_total", messageCache.getHitCount(), "result", "hit")
+                .sample("message_cache_requests_total", messageCache.getMissCount(), "result", "miss");
+        w.header("message_cache_evictions_total", "counter", "Messages evicted from the message cache.")
+                .sample("message_cache_evictions_total", messageCache.getEvictionCount());
+
+        w.header("search_index_rebuild_failed", "gauge", "1 if the search index could not be built and search is disabled.")
+                .sample("search_index_rebuild_failed", searchRebuildFailed ? 1 : 0);
+        if(searchIndex != null){
+            w.header("search_index_messages", "gauge", "Messages in the search index.")
+                    .sample("search_index_messages", searchIndex.size());
+            w.header("search_index_terms", "gauge", "Distinct terms in the search index.")
+                    .sample("search_index_terms", searchIndex.getTermCount());
+            w.header("search_index_posting_bytes", "gauge", "Bytes used by the encoded posting lists.")
+                    .sample("search_index_posting_bytes", searchIndex.getPostingBytes());
+        }
+
+        if(timelineStore != null){
+            w.header("feed_timelines", "gauge", "Home timelines held in memory.")
+                    .sample("feed_timelines", timelineStore.size());
+            w.header("feed_timeline_builds_total", "counter", "Home timelines filled from the database.")
+                    .sample("feed_timeline_builds_total", timelineStore.getTimelineBuildCount());
+            w.header("feed_posts_total", "counter", "New messages by how they reach feeds: pushed to timelines, or pulled at read time for celebrities.")
+                    .sample("feed_posts_total", timelineStore.getPushedPostCount(), "mode", "push")
+                    .sample("feed_posts_total", timelineStore.getPulledPostCount(), "mode", "pull");
+            w.header("feed_timeline_writes_total", "counter", "Message IDs appended to followers' timelines.")
+                    .sample("feed_timeline_writes_total", timelineStore.getTimelineWriteCount());
+            w.header("feed_fanout_queue_depth", "gauge", "New messages waiting to be fanned out.")
+                    .sample("feed_fanout_queue_depth", timelineStore.getQueueDepth());
+            w.header("feed_fanout_overflows_total", "counter", "Times the fan-out queue was full and all timelines were dropped.")
+                    .sample("feed_fanout_overflows_total", timelineStore.getOverflowCount());
+            w.header("feed_fanout_failures_total", "counter", "New messages whose followers could not be read, so all timelines were dropped.")
+                    .sample("feed_fanout_failures_total", timelineStore.getFailureCount());
+        }
+
+        w.header("session_store_size", "gauge", "Sessions held, including expired ones not yet swept.")
+                .sample("session_store_size", sessionStore.size());
+        w.header("session_lookups_total", "counter", "Session token lookups.")
+                .sample("session_lookups_total", sessionStore.getLookupCount());
+        w.header("session_lookup_seconds_total", "counter", "Time spent looking up session tokens.")
+                .sample("session_lookup_seconds_total", sessionStore.getTotalLookupNanos() / 1e9);
+        w.header("session_lookup_seconds_max", "gauge", "Slowest session token lookup.")
+                .sample("session_lookup_seconds_max", sessionStore.getMaxLookupNanos() / 1e9);
+        w.header("session_expired_total", "counter", "Sessions removed because they expired.")
+                .sample("session_expired_total", sessionStore.getExpiredCount());
+        w.header("session_rejected_total", "counter", "Session tokens refused for a bad format or signature.")
+                .sample("session_rejected_total", sessionStore.getRejectedCount());
+
+        if(groupCommitWriter != null){
+            w.header("group_commit_queue_depth", "gauge", "Messages waiting for a group commit.")
+                    .sample("group_commit_queue_depth", groupCommitWriter.getQueueDepth());
+            w.header("group_commit_batches_total", "counter", "Group commits flushed.")
+                    .sample("group_commit_batches_total", groupCommitWriter.getBatchCount());
+            w.header("group_commit_messages_total", "counter", "Messages written by group commits.")
+                    .sample("group_commit_messages_total", groupCommitWriter.getMessageCount());
+            w.header("group_commit_fallbacks_total", "counter", "Messages inserted directly because the queue was full or closed.")
+                    .sample("group_commit_fallbacks_total", groupCommitWriter.getFallbackCount());
+            w.header("group_commit_queue_depth_max", "gauge", "Most messages seen waiting for a group commit.")
+                    .sample("group_commit_queue_depth_max", groupCommitWriter.getMaxQueueDepth());
+            // the writer keeps power-of-two buckets: element i counts batches of more than 2^(i-1) and up to 2^i
+            long[] batchSizes = groupCommitWriter.getBatchSizeHistogram();
+            long batches = 0;
+            w.header("group_commit_batch_size", "histogram", "Messages per group commit.");
+            for(int i = 0; i < batchSizes.length; i++){
+                batches += batchSizes[i];
+                w.sample("group_commit_batch_size_bucket", batches, "le", Long.toString(1L << i));
+            }
+            w.sample("group_commit_batch_size_bucket", batches, "le", "+Inf")
+                    .sample("group_commit_batch_size_sum", groupCommitWriter.getMessageCount())
+                    .sample("group_commit_batch_size_count", batches);
+        }
     }
 
     /**
@@ -21,6 +303,36 @@ public class SocialMediaService {
     public Account validUser(Account user){
         return socialMediaDAO.validUser(user);
     }
+
+    /**
+     * Starts a session for a user who has just logged in.
+     *
+     * @param user The validated {@code Account}, as returned by {@link #validUser(Account)}.
+     * @return The token the client sends back to act as this account.
+     */
+    public String startSession(Account user){
+        return sessionStore.create(user.getAccount_id(), user.getUsername());
+    }
+
+    /**
+     * Resolves a session token to the account it was issued for, without querying the database.
+     *
+     * @param token The token sent by the client.
+     * @return The live session, or {@code null} if the token is invalid, revoked or expired.
+     */
+    public SessionStore.Session getSession(String token){
+        return sessionStore.get(token);
+    }
+
+    /**
+     * Ends a session, e.g. on logout.
+     *
+     * @param token The token of the session to end.
+     * @return true if the session existed.
+     */
+    public boolean endSession(String token){
+        return sessionStore.revoke(token);
+    }
     /**
      * Registers a new account if validation criteria are met.
      *
@@ -41,19 +353,188 @@ public class SocialMediaService {
      *
      * Validates the message text to ensure it is not null, not solely whitespace,
      * and does not exceed 255 characters. If the message passes these checks,
-     * it is passed to the DAO layer for creation. If it fails any check, returns {@code null}.
+     * it is passed to the DAO layer for creation (through the group commit writer, when enabled).
+     * If it fails any check, returns {@code null}.
      *
      * @param m The {@code Message} object containing the message text and other details.
      * @return The newly created {@code Message} object, or {@code null} if validation fails.
      */
     public Message createMessage(Message m){
-        if(m.getMessage_text() == null)
+        if(!isValidMessageText(m.getMessage_text()))
+            return null;
+        Message created = groupCommitWriter != null ? groupCommitWriter.submit(m).join() : socialMediaDAO.createMessage(m);
+        if(created != null)
+            fireCreated(created);
+        return created;
+    }
+
+    /**
+     * Creates a batch of messages in one database transaction.
+     *
+     * Each message is validated with the same rules as {@link #createMessage(Message)}, and its posted_by must refer
+     * to an existing account. Invalid messages are reported by their index and skipped; the valid ones are inserted
+     * together using JDBC batching.
+     *
+     * @param messages The messages to create.
+     * @return The created messages with their IDs, and an error for each rejected message.
+     */
+    public MessageBatchResult createMessages(List<Message> messages){
+        return createMessages(messages, null);
+    }
+
+    /**
+     * Creates a batch of messages on behalf of a logged in account.
+     *
+     * Messages without a posted_by are attributed to the session's account, and messages posted by any other
+     * account are rejected. The account is known to exist, so the account table is not queried.
+     *
+     * @param messages The messages to create.
+     * @param session_account_id The account of the caller's session, or {@code null} to trust each posted_by
+     *                           once it is checked against the account table.
+     * @return The created messages with their IDs, and an error for each rejected message.
+     */
+    public MessageBatchResult createMessages(List<Message> messages, Integer session_account_id){
+        MessageBatchResult result = new MessageBatchResult();
+        Set<Integer> existingAuthors;
+        if(session_account_id != null){
+            for(Message m : messages){
+                if(m != null && m.getPosted_by() == 0)
+                    m.setPosted_by(session_account_id);
+            }
+            existingAuthors = Set.of(session_account_id);
+        }
+        else{
+            Set<Integer> authors = new HashSet<>();
+            for(Message m : messages){
+                if(m != null)
+                    authors.add(m.getPosted_by());
+            }
+            existingAuthors = socialMediaDAO.getExistingAccountIds(authors);
+        }
+
+        List<Message> valid = new ArrayList<>(messages.size());
+        List<Integer> validIndexes = new ArrayList<>(messages.size());
+        for(int i = 0; i < messages.size(); i++){
+            Message m = messages.get(i);
+            if(m == null || !isValidMessageText(m.getMessage_text())){
+                result.errors.add(new MessageBatchResult.ItemError(i, "message_text must be non-blank and at most 255 characters"));
+            }
+            else if(session_account_id != null && m.getPosted_by() != session_account_id){
+                result.errors.add(new MessageBatchResult.ItemError(i, "posted_by does not match the logged in account"));
+            }
+            else if(!existingAuthors.contains(m.getPosted_by())){
+                result.errors.add(new MessageBatchResult.ItemError(i, "posted_by does not refer to an existing account"));
+            }
+            else{
+                valid.add(m);
+                validIndexes.add(i);
+            }
+        }
+        if(valid.isEmpty())
+            return result;
+
+        List<Message> created = socialMediaDAO.createMessages(valid);
+        if(created == null){
+            for(int i : validIndexes)
+                result.errors.add(new MessageBatchResult.ItemError(i, "insert failed"));
+            result.errors.sort(Comparator.comparingInt(MessageBatchResult.ItemError::getIndex));
+            return result;
+        }
+        result.created = created;
+        for(Message m : created)
+            fireCreated(m);
+        return result;
+    }
+
+    /**
+     * Tells the listeners about a message write. A failing listener is reported and skipped so it cannot fail the
+     * write or keep the others from hearing of it.
+     */
+    private void fire(Consumer<MessageChangeListener> event){
+        for(MessageChangeListener l : messageChangeListeners){
+            try{
+                event.accept(l);
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void fireCreated(Message m){
+        fire(l -> l.messageCreated(m));
+    }
+
+    /**
+     * Searches message text for messages containing every word of a query.
+     *
+     * @param query The words to look for; case and punctuation are ignored.
+     * @param limit The most messages to return.
+     * @param order Whether to rank by relevance or by recency.
+     * @return The matching messages, best first, or {@code null} if search is disabled.
+     */
+    public List<Message> searchMessages(String query, int limit, MessageSearchIndex.Order order){
+        if(searchIndex == null)
             return null;
-        if(m.getMessage_text().length() > 255)
-            return null; 
-        if(m.getMessage_text().replaceAll(" ", "") == "")
+        int[] ids = searchIndex.search(query, limit, order);
+        List<Message> messages = new ArrayList<>(ids.length);
+        for(int id : ids){
+            Message m = getMessageById(id);
+            if(m != null)
+                messages.add(m);
+        }
+        return messages;
+    }
+
+    /**
+     * Makes one account follow another.
+     *
+     * @param follower_id The account that follows.
+     * @param followee_id The account to follow.
+     * @return true if the follow exists afterwards; false for a self-follow or an account that does not exist.
+     */
+    public boolean follow(int follower_id, int followee_id){
+        if(follower_id == followee_id || !socialMediaDAO.follow(follower_id, followee_id))
+            return false;
+        if(timelineStore != null)
+            timelineStore.followChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+     * Makes one account stop following another.
+     *
+     * @param follower_id The account that follows.
+     * @param followee_id The account to unfollow.
+     * @return true if there was such a follow.
+     */
+    public boolean unfollow(int follower_id, int followee_id){
+        if(!socialMediaDAO.unfollow(follower_id, followee_id))
+            return false;
+        if(timelineStore != null)
+            timelineStore.followChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+     * Reads an account's home feed from its precomputed timeline.
+     *
+     * @param account_id The account whose feed is read.
+     * @param limit The most messages to return, at most {@link TimelineStore#getCapacity()}.
+     * @return The account's own messages and those of the accounts it follows, newest first, or null if feeds are
+     *         disabled.
+     */
+    public List<Message> getFeed(int account_id, int limit){
+        if(timelineStore == null)
             return null;
-        return socialMediaDAO.createMessage(m); 
+        return timelineStore.feed(account_id, limit);
+    }
+
+    /**
+     * The message_text rule shared by every path that creates or edits a message: present, not blank, and at most
+     * 255 characters.
+     */
+    private boolean isValidMessageText(String text){
+        return text != null && text.length() <= 255 && !text.trim().isEmpty();
     }
 
     /**
@@ -67,64 +548,124 @@ public class SocialMediaService {
     }
     
     /**
-     * Retrieves a message by its ID from the DAO layer.
-     * Delegates the task of fetching the specific message to the {@code socialMediaDAO}.
+     * Streams all messages from the DAO layer to the given writer, row by row.
+     *
+     * @param writer Receives each message row as it is read from the database.
+     * @throws IOException If the writer fails.
+     */
+    public void streamAllMessages(MessageRowWriter writer) throws IOException{
+        socialMediaDAO.streamAllMessages(writer);
+    }
+
+    /**
+     * Streams all messages for a specific user from the DAO layer to the given writer, row by row.
+     *
+     * @param account_id The ID of the user for whom messages are being streamed.
+     * @param writer Receives each message row as it is read from the database.
+     * @throws IOException If the writer fails.
+     */
+    public void streamAllMessagesByUserId(int account_id, MessageRowWriter writer) throws IOException{
+        socialMediaDAO.streamAllMessagesByUserId(account_id, writer);
+    }
+
+    /**
+     * Retrieves one page of all messages, oldest first.
+     * One extra row is requested from the DAO so we know whether a next page exists without a separate count.
+     *
+     * @param cursor Where to continue from, or {@code null} for the first page.
+     * @param backward If true, the page ends just before the cursor instead of starting just after it.
+     * @param limit The page size.
+     * @return The page, with a {@code next} cursor if more messages remain in that direction.
+     */
+    public MessagePage getMessagesPage(MessageCursor cursor, boolean backward, int limit){
+        return toPage(socialMediaDAO.getMessagesPage(cursor, backward, limit + 1), backward, limit);
+    }
+
+    /**
+     * Retrieves one page of the messages posted by a specific user, newest first.
+     *
+     * @param account_id The ID of the user for whom messages are being retrieved.
+     * @param cursor Where to continue from, or {@code null} for the first page.
+     * @param backward If true, the page ends just before the cursor instead of starting just after it.
+     * @param limit The page size.
+     * @return The page, with a {@code next} cursor if more messages remain in that direction.
+     */
+    public MessagePage getMessagesPageByUserId(int account_id, MessageCursor cursor, boolean backward, int limit){
+        return toPage(socialMediaDAO.getMessagesPageByUserId(account_id, cursor, backward, limit + 1), backward, limit);
+    }
+
+    /**
+     * Trims the extra look-ahead row off a page and turns the last row kept, in the direction of travel,
+     * into the next cursor.
+     */
+    private MessagePage toPage(List<Message> rows, boolean backward, int limit){
+        if(rows.size() <= limit){
+            return new MessagePage(rows, null);
+        }
+        if(backward){
+            List<Message> page = rows.subList(rows.size() - limit, rows.size());
+            return new MessagePage(page, MessageCursor.of(page.get(0)).encode());
+        }
+        List<Message> page = rows.subList(0, limit);
+        return new MessagePage(page, MessageCursor.of(page.get(limit - 1)).encode());
+    }
+    
+    /**
+     * Retrieves a message by its ID, from the message cache if possible and otherwise from the DAO layer.
+     * A message loaded from the DAO is cached, unless a write happened while it was being loaded or it was read from
+     * a replica that may be behind.
      *
      * @param message_id The ID of the message to be retrieved.
      * @return Message object corresponding to the given ID, or null if no message is found.
      */
     public Message getMessageById(int message_id){
-        return socialMediaDAO.getMessageById(message_id); 
+        Message m = messageCache.get(message_id);
+        if(m != null)
+            return m;
+        long stamp = messageCache.generation();
+        m = socialMediaDAO.getMessageById(message_id); 
+        if(m != null && !RoutingDataSource.isStaleRead())
+            messageCache.putIfUnchanged(m, stamp);
+        return m;
     }
 
     /**
      * Deletes a message from the database by its ID and returns the deleted message.
-     * First, it fetches the message using its ID to verify if it exists in the database.
-     * If the message exists, it proceeds to delete it. If the deletion is successful, the method
-     * returns the deleted message. If the message does not exist or the deletion fails, it returns null.
+     * The DAO deletes the row and returns it in one statement, so there is no separate existence check that another
+     * writer could race with. The message is then dropped from the message cache.
      *
      * @param message_id The ID of the message to be deleted.
      * @return The deleted Message object if the deletion is successful, otherwise null.
      */
     public Message deleteMessageById(int message_id){
-        Message m = socialMediaDAO.getMessageById(message_id);
-        if(m == null){
-            return null; 
-        }
-
-        boolean passed = socialMediaDAO.deleteMessageById(message_id); 
-        if(passed){
-            return m; 
-        }
-        else{
-            return null;
-        }
+        Message m = socialMediaDAO.deleteMessageById(message_id);
+        messageCache.invalidate(message_id);
+        if(m != null)
+            fire(l -> l.messageDeleted(m));
+        return m;
     }
 
     /**
      * Updates a message by its ID in the database.
      * Validates the input message before updating. The message text should not exceed 255 characters
      * and should not be empty after trimming whitespace. If the validation fails, the method returns null.
-     * If the validation passes, it calls the DAO layer to update the message in the database.
-     * If the update is successful, it fetches and returns the updated message using the message ID.
-     * If the update fails, it returns null.
+     * If the validation passes, the DAO updates the message and returns the updated row in the same statement.
+     * The cached copy is dropped after the write, so a read that raced with it cannot leave an old row cached.
+     * If no message has that ID, it returns null.
      *
      * @param message The Message object containing the updated information.
      * @param message_id The ID of the message to be updated.
      * @return The updated Message object if the update is successful and validation passes, otherwise null.
      */
     public Message updateMessageTextById(Message message, int message_id){
-        if(message.getMessage_text().length() > 255 || message.getMessage_text().trim().equals(""))
+        if(!isValidMessageText(message.getMessage_text()))
             return null;
 
-        boolean result = socialMediaDAO.updateMessageTextById(message, message_id);  
-        if(result){
-            return socialMediaDAO.getMessageById(message_id);
-        }
-        else{
-            return null;
-        }
-
+        Message updated = socialMediaDAO.updateMessageTextById(message, message_id);
+        messageCache.invalidate(message_id);
+        if(updated != null)
+            fire(l -> l.messageUpdated(updated));
+        return updated;
     }
     /**
      * Retrieves all messages for a specific user from the DAO.
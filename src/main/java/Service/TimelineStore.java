@@ -0,0 +1,410 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+
+/**
+ * Precomputed home timelines: for each account, the IDs of the newest messages posted by the account itself and by
+ * the accounts it follows.
+ *
+ * A timeline is a fixed-size ring buffer of (message ID, time posted) pairs. It is filled from the database the
+ * first time its feed is read and then kept current by fan-out on write: when a message is created, a small pool
+ * of background threads appends its ID to the in-memory timeline of every follower of its author. Only accounts
+ * whose timeline is in memory receive writes; everyone else is filled from the database on their next read.
+ *
+ * Authors with at least celebrityFollowers followers are not fanned out, so one post cannot turn into millions of
+ * timeline writes. Their newest messages are instead fetched when a follower reads the feed (fan-out on read) and
+ * merged with the timeline by time posted.
+ *
+ * Following or unfollowing drops the follower's timeline, so it is rebuilt with the new set of followees. If the
+ * fan-out queue overflows, or a fan-out fails, every timeline is dropped, since some of them would otherwise be
+ * missing a message.
+ */
+public class TimelineStore implements MessageChangeListener {
+    private final SocialMediaDAO dao;
+    private final MessageCache messageCache;
+    private final int capacity;
+    private final int celebrityFollowers;
+    private final int maxTimelines;
+    private final Map<Integer, Timeline> timelines = new ConcurrentHashMap<>();
+    /**
+     * Follower counts by author, loaded on first use and dropped when the author gains or loses a follower.
+     */
+    private final Map<Integer, Integer> followerCounts = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor fanOutExecutor;
+
+    private final AtomicLong pushedPosts = new AtomicLong();
+    private final AtomicLong pulledPosts = new AtomicLong();
+    private final AtomicLong timelineWrites = new AtomicLong();
+    private final AtomicLong timelineBuilds = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param dao the DAO follows and messages are read through.
+     * @param messageCache the cache feed messages are looked up in before the database.
+     * @param capacity the number of message IDs each timeline holds.
+     * @param celebrityFollowers authors with this many followers or more are merged at read time instead of fanned out.
+     * @param maxTimelines the most timelines kept in memory; beyond that, arbitrary ones are dropped.
+     * @param fanOutThreads the number of threads writing to timelines.
+     * @param fanOutQueueSize the number of new messages that may wait to be fanned out.
+     */
+    public TimelineStore(SocialMediaDAO dao, MessageCache messageCache, int capacity, int celebrityFollowers,
+            int maxTimelines, int fanOutThreads, int fanOutQueueSize){
+        this.dao = dao;
+        this.messageCache = messageCache;
+        this.capacity = capacity;
+        this.celebrityFollowers = celebrityFollowers;
+        this.maxTimelines = maxTimelines;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.fanOutExecutor = new ThreadPoolExecutor(fanOutThreads, fanOutThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(fanOutQueueSize), r -> {
+                    Thread t = new Thread(r, "timeline-fanout-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        fanOutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the number of message IDs each timeline holds, which is also the longest feed that can be served.
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * Queues a new message to be appended to its author's followers' timelines, unless the author is a celebrity.
+     */
+    @Override
+    public void messageCreated(Message m){
+        try{
+            fanOutExecutor.execute(() -> fanOut(m));
+        }catch(RejectedExecutionException e){
+            overflows.incrementAndGet();
+            timelines.clear();
+        }
+    }
+
+    /**
+     * Feeds are read through the message cache, so an edit needs no timeline change.
+     */
+    @Override
+    public void messageUpdated(Message m){
+    }
+
+    /**
+     * A deleted message's ID stays in the timelines until it is pushed out; feeds skip IDs that no longer exist.
+     */
+    @Override
+    public void messageDeleted(Message m){
+    }
+
+    /**
+     * Appends a new message to the timelines it belongs in. If the author's followers cannot be read, every timeline
+     * is dropped as on a queue overflow, since the followers' timelines would otherwise miss the message for good.
+     */
+    private void fanOut(Message m){
+        try{
+            int author = m.getPosted_by();
+            Timeline own = timelines.get(author);
+            if(own != null)
+                own.add(m.getMessage_id(), m.getTime_posted_epoch());
+            int followerCount = followerCount(author);
+            if(followerCount < 0){
+                fanOutFailed();
+                return;
+            }
+            if(followerCount >= celebrityFollowers){
+                pulledPosts.incrementAndGet();
+                return;
+            }
+            int[] followers = dao.getFollowerIds(author);
+            if(followers == null){
+                fanOutFailed();
+                return;
+            }
+            pushedPosts.incrementAndGet();
+            for(int follower : followers){
+                Timeline t = timelines.get(follower);
+                if(t != null){
+                    t.add(m.getMessage_id(), m.getTime_posted_epoch());
+                    timelineWrites.incrementAndGet();
+                }
+            }
+        }catch(RuntimeException e){
+            e.printStackTrace();
+            fanOutFailed();
+        }
+    }
+
+    private void fanOutFailed(){
+        failures.incrementAndGet();
+        timelines.clear();
+    }
+
+    private boolean isCelebrity(int account_id){
+        return followerCount(account_id) >= celebrityFollowers;
+    }
+
+    /**
+     * @return the author's follower count, cached until it changes, or -1 if it could not be read.
+     */
+    private int followerCount(int account_id){
+        Integer count = followerCounts.get(account_id);
+        if(count == null){
+            count = dao.getFollowerCount(account_id);
+            if(count >= 0)
+                followerCounts.put(account_id, count);
+        }
+        return count;
+    }
+
+    /**
+     * Must be called after a follow or unfollow has been written.
+     *
+     * @param follower_id the account that followed or unfollowed.
+     * @param followee_id the account it followed or unfollowed.
+     */
+    public void followChanged(int follower_id, int followee_id){
+        followerCounts.remove(followee_id);
+        timelines.remove(follower_id);
+    }
+
+    /**
+     * Reads an account's home feed: its own messages and those of the accounts it follows, newest first.
+     *
+     * @param account_id the account whose feed is read.
+     * @param limit the most messages to return; at most getCapacity().
+     * @return the messages, newest first.
+     */
+    public List<Message> feed(int account_id, int limit){
+        Timeline t = timelines.get(account_id);
+        if(t == null){
+            if(timelines.size() >= maxTimelines)
+                evictOne();
+            Timeline created = new Timeline(capacity);
+            t = timelines.putIfAbsent(account_id, created);
+            if(t == null)
+                t = created;
+        }
+        t.load(account_id);
+
+        // candidates from the timeline, plus the newest messages of every celebrity followee, ordered newest first
+        long[] entries = t.snapshot();
+        Map<Integer, Message> loaded = new HashMap<>();
+        List<long[]> merged = new ArrayList<>(entries.length / 2 + limit);
+        for(int i = 0; i < entries.length; i += 2)
+            merged.add(new long[]{entries[i], entries[i + 1]});
+        for(int followee : t.followees){
+            if(!isCelebrity(followee))
+                continue;
+            for(Message m : dao.getMessagesPageByUserId(followee, null, false, limit)){
+                loaded.put(m.getMessage_id(), m);
+                merged.add(new long[]{m.getMessage_id(), m.getTime_posted_epoch()});
+            }
+        }
+        merged.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(b[0], a[0]));
+
+        List<Integer> ordered = new ArrayList<>(merged.size());
+        Set<Integer> seen = new HashSet<>();
+        for(long[] e : merged)
+            if(seen.add((int) e[0]))
+                ordered.add((int) e[0]);
+
+        // look up the newest IDs a chunk at a time, until enough of them turn out to still exist
+        List<Message> feed = new ArrayList<>(limit);
+        int next = 0;
+        while(feed.size() < limit && next < ordered.size()){
+            List<Integer> chunk = ordered.subList(next, Math.min(ordered.size(), next + limit - feed.size()));
+            next += chunk.size();
+            load(chunk, loaded);
+            for(int id : chunk){
+                Message m = loaded.get(id);
+                if(m != null)
+                    feed.add(m);
+            }
+        }
+        return feed;
+    }
+
+    /**
+     * Adds the messages with the given IDs to loaded, from the message cache where possible and otherwise with one
+     * query. IDs of deleted messages are left out.
+     */
+    private void load(List<Integer> ids, Map<Integer, Message> loaded){
+        List<Integer> misses = new ArrayList<>();
+        for(int id : ids){
+            if(loaded.containsKey(id))
+                continue;
+            Message m = messageCache.get(id);
+            if(m != null)
+                loaded.put(id, m);
+            else
+                misses.add(id);
+        }
+        if(misses.isEmpty())
+            return;
+        long stamp = messageCache.generation();
+        for(Message m : dao.getMessagesByIds(misses)){
+            loaded.put(m.getMessage_id(), m);
+            messageCache.putIfUnchanged(m, stamp);
+        }
+    }
+
+    private void evictOne(){
+        Iterator<Integer> it = timelines.keySet().iterator();
+        if(it.hasNext()){
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the number of timelines in memory.
+     */
+    public int size(){
+        return timelines.size();
+    }
+
+    /**
+     * @return the number of new messages waiting to be fanned out.
+     */
+    public int getQueueDepth(){
+        return fanOutExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of messages fanned out to their followers' timelines.
+     */
+    public long getPushedPostCount(){
+        return pushedPosts.get();
+    }
+
+    /**
+     * @return the number of messages by celebrities, left to be merged when feeds are read.
+     */
+    public long getPulledPostCount(){
+        return pulledPosts.get();
+    }
+
+    /**
+     * @return the number of message IDs appended to followers' timelines.
+     */
+    public long getTimelineWriteCount(){
+        return timelineWrites.get();
+    }
+
+    /**
+     * @return the number of timelines filled from the database.
+     */
+    public long getTimelineBuildCount(){
+        return timelineBuilds.get();
+    }
+
+    /**
+     * @return the number of times the fan-out queue was full and every timeline was dropped.
+     */
+    public long getOverflowCount(){
+        return overflows.get();
+    }
+
+    /**
+     * @return the number of messages whose fan-out failed, each of which dropped every timeline.
+     */
+    public long getFailureCount(){
+        return failures.get();
+    }
+
+    /**
+     * Stops the fan-out threads; messages still queued are not fanned out.
+     */
+    public void close(){
+        fanOutExecutor.shutdownNow();
+    }
+
+    /**
+     * One account's timeline: a ring buffer of message IDs and their times, and the accounts it follows.
+     * All access is synchronized on the timeline; a fan-out write waits while the timeline is being filled.
+     */
+    private class Timeline {
+        private final int[] ids;
+        private final long[] times;
+        private int next;
+        private int size;
+        private boolean loaded;
+        volatile int[] followees = new int[0];
+
+        Timeline(int capacity){
+            this.ids = new int[capacity];
+            this.times = new long[capacity];
+        }
+
+        synchronized void add(int id, long time){
+            ids[next] = id;
+            times[next] = time;
+            next = (next + 1) % ids.length;
+            if(size < ids.length)
+                size++;
+        }
+
+        /**
+         * Fills the timeline from the database the first time it is read. The queries run outside the monitor, so
+         * fan-out to this timeline is not held up by them and a virtual thread waiting on the database is not
+         * pinned; concurrent first reads may each query, and the first to finish installs its result. Messages
+         * fanned out in the meantime are kept after the loaded ones, as the newest; any that the query also
+         * returned are dropped as duplicates when the feed is read.
+         */
+        void load(int account_id){
+            synchronized(this){
+                if(loaded)
+                    return;
+            }
+            int[] loadedFollowees = dao.getFolloweeIds(account_id);
+            List<Message> recent = dao.getRecentFeedMessages(account_id, ids.length);
+            synchronized(this){
+                if(loaded)
+                    return;
+                long[] fannedOut = snapshot();
+                next = 0;
+                size = 0;
+                for(int i = recent.size() - 1; i >= 0; i--)
+                    add(recent.get(i).getMessage_id(), recent.get(i).getTime_posted_epoch());
+                for(int i = 0; i < fannedOut.length; i += 2)
+                    add((int) fannedOut[i], fannedOut[i + 1]);
+                followees = loadedFollowees;
+                loaded = true;
+            }
+            timelineBuilds.incrementAndGet();
+        }
+
+        /**
+         * @return the entries as alternating ID and time, oldest first.
+         */
+        synchronized long[] snapshot(){
+            long[] out = new long[size * 2];
+            int start = (next - size + ids.length) % ids.length;
+            for(int i = 0; i < size; i++){
+                int j = (start + i) % ids.length;
+                out[2 * i] = ids[j];
+                out[2 * i + 1] = times[j];
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package Util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An adaptive limit on how many requests may use the database at once, adjusted by additive increase and
+ * multiplicative decrease (AIMD) from the latency of the requests it admits.
+ *
+ * Each request that completes within targetLatency while the limit is at least half in use raises the limit by
+ * 1/limit, so a busy limiter grows by about one per limit's worth of fast requests. Once slowSamples of the last
+ * window requests were slower than targetLatency, the limit is multiplied by backoffRatio and the window starts over,
+ * so a lone outlier (a cold cache, a GC pause) does not cost capacity. A request that could not be run at all lowers
+ * the limit at once. The limit stays between minLimit and maxLimit. Latency is measured from admission, so time
+ * spent queued for a thread or a connection counts: a backlog anywhere below the limiter shrinks it, and requests
+ * over the limit are turned away at once instead of joining the backlog.
+ *
+ * Priority requests may go over the limit by priorityHeadroom (a fraction of it), so they are still admitted for a
+ * while after ordinary requests start being turned away.
+ */
+public class AimdLimiter {
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+    private final double priorityHeadroom;
+    private final int slowSamples;
+
+    /**
+     * The current limit and the requests admitted and not yet released; guarded by this.
+     */
+    private double limit;
+    private int inFlight;
+    private long admitted;
+    private long rejected;
+    private long priorityRejected;
+    private long decreases;
+    /**
+     * Whether each of the last window requests was slow, as a ring; guarded by this.
+     */
+    private final boolean[] recent;
+    private int recentNext;
+    private int recentSlow;
+
+    /**
+     * @param name the budget's name, used as a metric label, e.g. read.
+     * @param initialLimit the limit to start from.
+     * @param minLimit the lowest the limit may go.
+     * @param maxLimit the highest the limit may go.
+     * @param targetLatencyMillis requests slower than this lower the limit.
+     * @param backoffRatio what the limit is multiplied by on a slow request, e.g. 0.9.
+     * @param priorityHeadroom how far over the limit priority requests may go, as a fraction of it.
+     */
+    public AimdLimiter(String name, int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis,
+                       double backoffRatio, double priorityHeadroom){
+        this(name, initialLimit, minLimit, maxLimit, targetLatencyMillis, backoffRatio, priorityHeadroom, 1, 1);
+    }
+
+    /**
+     * @param name the budget's name, used as a metric label, e.g. read.
+     * @param initialLimit the limit to start from.
+     * @param minLimit the lowest the limit may go.
+     * @param maxLimit the highest the limit may go.
+     * @param targetLatencyMillis requests slower than this count as slow.
+     * @param backoffRatio what the limit is multiplied by when it is lowered, e.g. 0.9.
+     * @param priorityHeadroom how far over the limit priority requests may go, as a fraction of it.
+     * @param slowSamples how many slow requests among the last window lower the limit.
+     * @param window how many of the most recent requests slowSamples is counted over.
+     */
+    public AimdLimiter(String name, int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis,
+                       double backoffRatio, double priorityHeadroom, int slowSamples, int window){
+        this.name = name;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.backoffRatio = backoffRatio;
+        this.priorityHeadroom = priorityHeadroom;
+        this.slowSamples = Math.max(slowSamples, 1);
+        this.recent = new boolean[Math.max(window, this.slowSamples)];
+    }
+
+    /**
+     * Admits a request if the limit allows it. An admitted request must be passed to release() or drop().
+     *
+     * @param priority true to let the request use the priority headroom above the limit.
+     * @return true if the request may go ahead.
+     */
+    public synchronized boolean tryAcquire(boolean priority){
+        int allowed = (int) limit;
+        if(priority)
+            allowed += Math.max(1, (int) Math.ceil(limit * priorityHeadroom));
+        if(inFlight >= allowed){
+            if(priority)
+                priorityRejected++;
+            else
+                rejected++;
+            return false;
+        }
+        inFlight++;
+        admitted++;
+        return true;
+    }
+
+    /**
+     * Ends an admitted request and adjusts the limit by its latency.
+     *
+     * @param latencyNanos the time from tryAcquire() to the end of the work the limit protects.
+     */
+    public synchronized void release(long latencyNanos){
+        boolean slow = latencyNanos > targetLatencyNanos;
+        if(recent[recentNext])
+            recentSlow--;
+        recent[recentNext] = slow;
+        recentNext = (recentNext + 1) % recent.length;
+        if(slow){
+            if(++recentSlow >= slowSamples)
+                decrease();
+        }else if(inFlight * 2 >= limit){
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        inFlight--;
+    }
+
+    /**
+     * Ends an admitted request that could not be run, for instance because a queue below was full, and lowers the
+     * limit as for a slow request.
+     */
+    public synchronized void drop(){
+        decrease();
+        inFlight--;
+    }
+
+    private void decrease(){
+        limit = Math.max(minLimit, limit * backoffRatio);
+        decreases++;
+        // the slow requests seen so far have been acted on; the next decrease needs new ones
+        Arrays.fill(recent, false);
+        recentSlow = 0;
+    }
+
+    /**
+     * @return the current limit, rounded down to the number of ordinary requests it admits.
+     */
+    public synchronized int getLimit(){
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests admitted and not yet released.
+     */
+    public synchronized int getInFlight(){
+        return inFlight;
+    }
+
+    /**
+     * @param priority whether to count priority or ordinary requests.
+     * @return the number of requests turned away.
+     */
+    public synchronized long getRejectedCount(boolean priority){
+        return priority ? priorityRejected : rejected;
+    }
+
+    /**
+     * Writes the limit, requests in flight, and admission and rejection counts of each limiter, labelled by name.
+     *
+     * @param w the metrics page being built.
+     * @param limiters the limiters to export.
+     */
+    public static void writeTo(PrometheusTextWriter w, AimdLimiter... limiters){
+        w.header("concurrency_limit", "gauge", "Current adaptive limit on concurrent database requests, by budget.");
+        for(AimdLimiter l : limiters)
+            w.sample("concurrency_limit", l.getLimit(), "budget", l.name);
+        w.header("concurrency_limit_in_flight", "gauge", "Database requests admitted and not yet finished, by budget.");
+        for(AimdLimiter l : limiters)
+            w.sample("concurrency_limit_in_flight", l.getInFlight(), "budget", l.name);
+        w.header("concurrency_limit_requests_total", "counter", "Database requests by budget and whether they were admitted.");
+        for(AimdLimiter l : limiters){
+            synchronized(l){
+                w.sample("concurrency_limit_requests_total", l.admitted, "budget", l.name, "result", "admitted")
+                        .sample("concurrency_limit_requests_total", l.rejected, "budget", l.name, "result", "rejected")
+                        .sample("concurrency_limit_requests_total", l.priorityRejected, "budget", l.name, "result", "rejected_priority");
+            }
+        }
+        w.header("concurrency_limit_decreases_total", "counter", "Times slow or dropped requests lowered the limit, by budget.");
+        for(AimdLimiter l : limiters){
+            synchronized(l){
+                w.sample("concurrency_limit_decreases_total", l.decreases, "budget", l.name);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small pool of growable byte buffers, for assembling response bodies without allocating a new array per
+ * request. Buffers that have grown past maxRetainedBytes are dropped on release rather than pooled, so one huge
+ * response does not pin its memory forever.
+ *
+ * The pool is a bounded queue rather than a ThreadLocal, so it works the same on virtual threads.
+ */
+public class ByteArrayPool {
+    private final ArrayBlockingQueue<Buffer> free;
+    private final int initialBytes;
+    private final int maxRetainedBytes;
+
+    /**
+     * @param maxPooled the most idle buffers kept.
+     * @param initialBytes the size of a new buffer.
+     * @param maxRetainedBytes buffers larger than this are not returned to the pool.
+     */
+    public ByteArrayPool(int maxPooled, int initialBytes, int maxRetainedBytes){
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+        this.initialBytes = initialBytes;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return an empty buffer, from the pool if one is idle.
+     */
+    public Buffer acquire(){
+        Buffer b = free.poll();
+        return b != null ? b : new Buffer(initialBytes);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param b a buffer from acquire().
+     */
+    public void release(Buffer b){
+        if(b.bytes.length > maxRetainedBytes)
+            return;
+        b.length = 0;
+        free.offer(b);
+    }
+
+    /**
+     * @return the number of idle buffers in the pool.
+     */
+    public int size(){
+        return free.size();
+    }
+
+    /**
+     * A growable byte array that can also be written to as an OutputStream.
+     */
+    public static class Buffer extends OutputStream {
+        private byte[] bytes;
+        private int length;
+
+        Buffer(int initialBytes){
+            this.bytes = new byte[initialBytes];
+        }
+
+        @Override
+        public void write(int b){
+            ensureCapacity(length + 1);
+            bytes[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len){
+            ensureCapacity(length + len);
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        @Override
+        public void write(byte[] b){
+            write(b, 0, b.length);
+        }
+
+        /**
+         * Appends the characters of an ASCII string, one byte each.
+         */
+        public void writeAscii(String s){
+            ensureCapacity(length + s.length());
+            for(int i = 0; i < s.length(); i++)
+                bytes[length++] = (byte) s.charAt(i);
+        }
+
+        private void ensureCapacity(int capacity){
+            if(capacity > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+
+        /**
+         * @return the number of bytes written.
+         */
+        public int size(){
+            return length;
+        }
+
+        /**
+         * @return a copy of the bytes written.
+         */
+        public byte[] toByteArray(){
+            return Arrays.copyOf(bytes, length);
+        }
+
+        /**
+         * Forgets the bytes written, keeping the array.
+         */
+        public void reset(){
+            length = 0;
+        }
+
+        /**
+         * Writes the bytes written so far to a stream.
+         *
+         * @param out the stream to copy to.
+         * @throws IOException if the stream fails.
+         */
+        public void writeTo(OutputStream out) throws IOException{
+            out.write(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * A bounded pool of JDBC connections used by the DAO layer.
+ *
+ * ConnectionUtil hands out a brand new physical connection on every call, so every DAO method pays the cost of
+ * opening a session. This pool keeps between minSize and maxSize physical connections open and lends them out.
+ * Callers use it exactly like ConnectionUtil (including try-with-resources): closing a borrowed connection returns
+ * it to the pool instead of closing the physical session.
+ *
+ * Sizing can be changed with system properties:
+ * socialmedia.pool.minSize, socialmedia.pool.maxSize, socialmedia.pool.acquireTimeoutMs and
+ * socialmedia.pool.idleTimeoutMs. The database can be moved with socialmedia.db.url; read replicas get pools of the
+ * same size from create().
+ */
+public class ConnectionPool {
+
+    /**
+     * Same connection settings as ConnectionUtil, which must not be changed; URL is only the default.
+     */
+    private static final String URL = "jdbc:h2:./h2/db;";
+    private static final String USERNAME = "sa";
+    private static final String PASSWORD = "sa";
+
+    private static ConnectionPool instance;
+
+    private final DataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+    private final long idleTimeoutNanos;
+
+    /**
+     * Guards idle, total and closed. A ReentrantLock is used rather than synchronized so that a thread waiting for a
+     * connection never pins a carrier thread when running on virtual threads.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+    private int total;
+    private int waiting;
+    private boolean closed;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder waitTimeNanos = new LongAdder();
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder validationFailureCount = new LongAdder();
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Creates a pool over the given data source.
+     *
+     * @param dataSource where physical connections come from.
+     * @param minSize the number of connections kept open even when idle.
+     * @param maxSize the maximum number of physical connections, borrowed or idle.
+     * @param acquireTimeoutMillis how long a caller waits for a connection before getting an SQLException.
+     * @param idleTimeoutMillis how long a connection above minSize may sit idle before it is closed.
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis){
+        if(maxSize < 1 || minSize < 0 || minSize > maxSize)
+            throw new IllegalArgumentException("invalid pool size min=" + minSize + " max=" + maxSize);
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        fillToMinimum();
+    }
+
+    /**
+     * @return the pool shared by the whole application, created on first use.
+     */
+    public static synchronized ConnectionPool getInstance(){
+        if(instance == null)
+            instance = create(System.getProperty("socialmedia.db.url", URL));
+        return instance;
+    }
+
+    /**
+     * Creates a pool sized by the same system properties as the shared one, for another database.
+     *
+     * @param url the JDBC URL of the database, which uses the same credentials as the primary.
+     * @return a new pool, which the caller must close.
+     */
+    public static ConnectionPool create(String url){
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(url);
+        ds.setUser(USERNAME);
+        ds.setPassword(PASSWORD);
+        return new ConnectionPool(ds,
+                Integer.getInteger("socialmedia.pool.minSize", 2),
+                Integer.getInteger("socialmedia.pool.maxSize", 10),
+                Long.getLong("socialmedia.pool.acquireTimeoutMs", 5000L),
+                Long.getLong("socialmedia.pool.idleTimeoutMs", 60000L));
+    }
+
+    /**
+     * Borrows a connection from the shared pool.
+     *
+     * @return a pooled connection; closing it hands it back to the pool.
+     * @throws SQLException if no connection became available within the acquire timeout.
+     */
+    public static Connection getConnection() throws SQLException {
+        return getInstance().borrow();
+    }
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout if all maxSize connections are in use.
+     * Idle connections are validated before being handed out; broken ones are discarded and replaced.
+     *
+     * @return a pooled connection; closing it hands it back to the pool.
+     * @throws SQLException if the pool is closed, the timeout elapses or a new connection cannot be opened.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = acquireTimeoutNanos;
+        while(true){
+            IdleConnection candidate = null;
+            boolean create = false;
+            lock.lock();
+            try{
+                while(true){
+                    if(closed)
+                        throw new SQLException("connection pool is closed");
+                    candidate = idle.pollLast();
+                    if(candidate != null)
+                        break;
+                    if(total < maxSize){
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    if(remaining <= 0){
+                        timeoutCount.increment();
+                        throw new SQLException("timed out after " + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos)
+                                + "ms waiting for a connection (max " + maxSize + ")");
+                    }
+                    waiting++;
+                    try{
+                        remaining = available.awaitNanos(remaining);
+                    }catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("interrupted while waiting for a connection", e);
+                    }finally{
+                        waiting--;
+                    }
+                }
+            }finally{
+                lock.unlock();
+            }
+
+            Connection physical;
+            if(create){
+                physical = openPhysical();
+            }
+            else if(isValid(candidate.connection)){
+                physical = candidate.connection;
+            }
+            else{
+                validationFailureCount.increment();
+                discard(candidate.connection);
+                remaining = acquireTimeoutNanos - (System.nanoTime() - start);
+                continue;
+            }
+
+            long waited = System.nanoTime() - start;
+            acquireCount.increment();
+            waitTimeNanos.add(waited);
+            maxWaitTimeNanos.accumulateAndGet(waited, Math::max);
+            return wrap(physical);
+        }
+    }
+
+    /**
+     * Closes every idle connection and refuses further borrows. Borrowed connections are closed when returned.
+     */
+    public void close(){
+        List<IdleConnection> toClose;
+        lock.lock();
+        try{
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            total -= toClose.size();
+            available.signalAll();
+        }finally{
+            lock.unlock();
+        }
+        for(IdleConnection c : toClose)
+            closeQuietly(c.connection);
+        evictor.shutdownNow();
+    }
+
+    /**
+     * @return the number of connections currently lent out.
+     */
+    public int getActiveCount(){
+        lock.lock();
+        try{
+            return total - idle.size();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool.
+     */
+    public int getIdleCount(){
+        lock.lock();
+        try{
+            return idle.size();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of threads blocked waiting for a connection.
+     */
+    public int getWaitingCount(){
+        lock.lock();
+        try{
+            return waiting;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    public int getMinSize(){
+        return minSize;
+    }
+
+    public long getAcquireCount(){
+        return acquireCount.sum();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, callers have spent in borrow().
+     */
+    public long getTotalWaitTimeNanos(){
+        return waitTimeNanos.sum();
+    }
+
+    public long getMaxWaitTimeNanos(){
+        return maxWaitTimeNanos.get();
+    }
+
+    public long getTimeoutCount(){
+        return timeoutCount.sum();
+    }
+
+    public long getCreatedCount(){
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount(){
+        return evictedCount.sum();
+    }
+
+    public long getValidationFailureCount(){
+        return validationFailureCount.sum();
+    }
+
+    @Override
+    public String toString(){
+        return "ConnectionPool{active=" + getActiveCount() + ", idle=" + getIdleCount() + ", waiting=" + getWaitingCount()
+                + ", acquired=" + getAcquireCount() + ", waitMs=" + TimeUnit.NANOSECONDS.toMillis(getTotalWaitTimeNanos())
+                + ", timeouts=" + getTimeoutCount() + "}";
+    }
+
+    private Connection openPhysical() throws SQLException {
+        try{
+            Connection c = dataSource.getConnection();
+            createdCount.increment();
+            return c;
+        }catch(SQLException | RuntimeException e){
+            lock.lock();
+            try{
+                total--;
+                available.signal();
+            }finally{
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private boolean isValid(Connection c){
+        try{
+            return c.isValid(1);
+        }catch(SQLException e){
+            return false;
+        }
+    }
+
+    /**
+     * Called when a borrowed connection is closed by its user.
+     */
+    private void release(Connection physical){
+        boolean reusable;
+        try{
+            reusable = !physical.isClosed();
+            if(reusable && !physical.getAutoCommit()){
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        }catch(SQLException e){
+            reusable = false;
+        }
+
+        lock.lock();
+        try{
+            if(reusable && !closed){
+                idle.addLast(new IdleConnection(physical, System.nanoTime()));
+                available.signal();
+                return;
+            }
+        }finally{
+            lock.unlock();
+        }
+        discard(physical);
+    }
+
+    private void discard(Connection physical){
+        lock.lock();
+        try{
+            total--;
+            available.signal();
+        }finally{
+            lock.unlock();
+        }
+        closeQuietly(physical);
+    }
+
+    /**
+     * Closes connections that have been idle longer than the idle timeout, never going below minSize.
+     */
+    private void evictIdle(){
+        List<IdleConnection> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        lock.lock();
+        try{
+            Iterator<IdleConnection> it = idle.iterator();
+            while(it.hasNext() && total - expired.size() > minSize){
+                IdleConnection c = it.next();
+                if(now - c.idleSince > idleTimeoutNanos){
+                    it.remove();
+                    expired.add(c);
+                }
+            }
+            total -= expired.size();
+        }finally{
+            lock.unlock();
+        }
+        for(IdleConnection c : expired){
+            evictedCount.increment();
+            closeQuietly(c.connection);
+        }
+        fillToMinimum();
+    }
+
+    private void fillToMinimum(){
+        while(true){
+            lock.lock();
+            try{
+                if(closed || total >= minSize)
+                    return;
+                total++;
+            }finally{
+                lock.unlock();
+            }
+            try{
+                release(openPhysical());
+            }catch(SQLException e){
+                return;
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection c){
+        try{
+            c.close();
+        }catch(SQLException e){
+            // already broken, nothing more to do
+        }
+    }
+
+    private Connection wrap(Connection physical){
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical));
+    }
+
+    /**
+     * An open connection sitting in the pool, with the time it was returned.
+     */
+    private static class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection, long idleSince){
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * Forwards every call to the physical connection, except close() which returns it to the pool.
+     * Statements opened through the handle are closed when it is returned, the same way closing a physical
+     * connection would. Once closed, the handle can no longer be used.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private Connection physical;
+        private final List<Statement> statements = new ArrayList<>();
+
+        PooledConnectionHandler(Connection physical){
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()){
+                case "close":
+                    if(physical != null){
+                        Connection c = physical;
+                        physical = null;
+                        for(Statement st : statements){
+                            try{
+                                st.close();
+                            }catch(SQLException e){
+                                // the connection is checked again in release()
+                            }
+                        }
+                        statements.clear();
+                        release(c);
+                    }
+                    return null;
+                case "isClosed":
+                    return physical == null || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    if(physical == null)
+                        throw new SQLException("connection has been returned to the pool");
+                    try{
+                        Object result = method.invoke(physical, args);
+                        if(result instanceof Statement)
+                            statements.add((Statement) result);
+                        return result;
+                    }catch(InvocationTargetException e){
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
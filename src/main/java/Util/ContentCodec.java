@@ -0,0 +1,25 @@
+package Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A content coding that responses can be compressed with, such as gzip. Implementations must be thread-safe;
+ * each response opens its own stream.
+ */
+public interface ContentCodec {
+    /**
+     * @return the token this coding is named by in Accept-Encoding and Content-Encoding, e.g. gzip.
+     */
+    String getEncoding();
+
+    /**
+     * Opens a stream that encodes everything written to it into out. Closing it finishes the encoding, closes out
+     * and releases anything the stream borrowed.
+     *
+     * @param out the stream to write the encoded bytes to.
+     * @return the encoding stream.
+     * @throws IOException if writing the coding's header fails.
+     */
+    OutputStream open(OutputStream out) throws IOException;
+}
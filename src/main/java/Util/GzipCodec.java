@@ -0,0 +1,111 @@
+package Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The gzip content coding, with pooled Deflaters.
+ *
+ * GZIPOutputStream allocates a new Deflater, and with it a few hundred kilobytes of native zlib state, for every
+ * stream. Here the gzip header and trailer are written by hand around a raw DeflaterOutputStream, so the Deflater
+ * can be reset and handed to the next response instead. At most maxPooled idle Deflaters are kept; any beyond
+ * that are ended when their stream is closed.
+ */
+public class GzipCodec implements ContentCodec {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final int level;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * @param level the zlib compression level, 1 (fastest) to 9 (smallest), or Deflater.DEFAULT_COMPRESSION.
+     * @param maxPooled the most idle Deflaters kept for reuse.
+     */
+    public GzipCodec(int level, int maxPooled){
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    @Override
+    public String getEncoding(){
+        return "gzip";
+    }
+
+    @Override
+    public OutputStream open(OutputStream out) throws IOException{
+        Deflater def = deflaters.poll();
+        if(def == null){
+            def = new Deflater(level, true);
+            created.incrementAndGet();
+        }
+        return new GzipStream(out, def);
+    }
+
+    /**
+     * @return the number of Deflaters created; once the pool is warm this stops growing.
+     */
+    public long getCreatedCount(){
+        return created.get();
+    }
+
+    private void release(Deflater def){
+        def.reset();
+        if(!deflaters.offer(def))
+            def.end();
+    }
+
+    /**
+     * A gzip member: header, raw deflate data, then the CRC-32 and length of the input. Flushing performs a zlib
+     * sync flush, so a streamed response reaches the client as it is written.
+     */
+    private class GzipStream extends DeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean closed;
+
+        GzipStream(OutputStream out, Deflater def) throws IOException{
+            super(out, def, 8192, true);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException{
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException{
+            if(def.finished())
+                return;
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+
+        private void writeInt(int v) throws IOException{
+            out.write(v & 0xff);
+            out.write((v >>> 8) & 0xff);
+            out.write((v >>> 16) & 0xff);
+            out.write((v >>> 24) & 0xff);
+        }
+
+        @Override
+        public void close() throws IOException{
+            if(closed)
+                return;
+            closed = true;
+            try{
+                finish();
+                out.close();
+            }finally{
+                release(def);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool for request work that blocks on the database, so that HTTP threads are not held while a
+ * query runs. It is sized to the connection pool: more threads would only wait for a connection, and fewer would
+ * leave connections idle while requests queue.
+ *
+ * Work beyond the threads waits in a queue of queueSize tasks, and work beyond that is refused, so an overloaded
+ * database shows up as queue depth and wait time here rather than as exhausted HTTP threads.
+ */
+public class JdbcExecutor {
+    private static final double NANOS_TO_SECONDS = 1e-9;
+    private static final double[] BUCKET_BOUNDS_SECONDS =
+            {0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+    private final LatencyHistogram waits = new LatencyHistogram(TimeUnit.MINUTES.toNanos(1));
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * A task that may throw; whatever it throws completes its future exceptionally.
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * @param threads the most tasks run at once.
+     * @param queueSize the most tasks waiting for a thread.
+     */
+    public JdbcExecutor(int threads, int queueSize){
+        this.queueSize = queueSize;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueSize, 1)), r -> {
+                    Thread t = new Thread(r, "jdbc-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a task.
+     *
+     * @param task the work to run.
+     * @return a future completed when the task has run, exceptionally with whatever it threw; or null if the queue
+     *         is full and the task was not accepted.
+     */
+    public CompletableFuture<Void> submit(Task task){
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        long queued = System.nanoTime();
+        try{
+            executor.execute(() -> {
+                waits.record(System.nanoTime() - queued);
+                try{
+                    task.run();
+                    future.complete(null);
+                }catch(Exception | Error e){
+                    future.completeExceptionally(e);
+                }
+            });
+        }catch(RejectedExecutionException e){
+            rejected.incrementAndGet();
+            return null;
+        }
+        return future;
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth(){
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks running.
+     */
+    public int getActiveCount(){
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the time tasks have spent queued before a thread picked them up, in nanoseconds.
+     */
+    public LatencyHistogram getWaitTimes(){
+        return waits;
+    }
+
+    /**
+     * @return the number of tasks refused because the queue was full.
+     */
+    public long getRejectedCount(){
+        return rejected.get();
+    }
+
+    /**
+     * Writes the queue depth, busy threads, rejections and queue wait times.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("jdbc_executor_queue_depth", "gauge", "Database tasks waiting for a thread.")
+                .sample("jdbc_executor_queue_depth", getQueueDepth());
+        w.header("jdbc_executor_queue_capacity", "gauge", "Most database tasks that may wait for a thread.")
+                .sample("jdbc_executor_queue_capacity", queueSize);
+        w.header("jdbc_executor_threads", "gauge", "Database task threads by state.")
+                .sample("jdbc_executor_threads", getActiveCount(), "state", "active")
+                .sample("jdbc_executor_threads", executor.getMaximumPoolSize(), "state", "max");
+        w.header("jdbc_executor_rejected_total", "counter", "Database tasks refused because the queue was full.")
+                .sample("jdbc_executor_rejected_total", getRejectedCount());
+        w.header("jdbc_executor_wait_seconds", "histogram", "Time database tasks spent queued before running.")
+                .histogram("jdbc_executor_wait_seconds", waits, NANOS_TO_SECONDS, BUCKET_BOUNDS_SECONDS);
+    }
+}
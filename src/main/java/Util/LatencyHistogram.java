@@ -0,0 +1,159 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-memory histogram of latencies (or any non-negative long values), in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power-of-two range is split into SUB_BUCKETS / 2 equal
+ * sub-buckets, so a recorded value is reported back within 1% of its true value whatever its magnitude, and the
+ * memory used depends only on the largest trackable value. Larger values are clamped to it.
+ *
+ * record() is thread-safe, lock-free and allocation-free, so it can be called on every request. Reads are not
+ * atomic snapshots; a percentile computed while others record may be off by the values recorded meanwhile.
+ */
+public class LatencyHistogram {
+    /**
+     * Sub-buckets per power of two (the lowest range counts every value below it exactly). 256 keeps the
+     * relative error of a reported value under 1/128.
+     */
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param highestTrackableValue the largest value kept exactly; e.g. TimeUnit.MINUTES.toNanos(1) for nanosecond
+     *                              latencies of up to a minute.
+     */
+    public LatencyHistogram(long highestTrackableValue){
+        if(highestTrackableValue < SUB_BUCKETS)
+            throw new IllegalArgumentException("highestTrackableValue must be at least " + SUB_BUCKETS);
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    /**
+     * Counts one value. Negative values count as zero and values above the highest trackable value count as it.
+     *
+     * @param value the value, e.g. a latency in nanoseconds.
+     */
+    public void record(long value){
+        long v = Math.min(Math.max(value, 0), highestTrackableValue);
+        counts.incrementAndGet(indexOf(v));
+        totalCount.incrementAndGet();
+        sum.addAndGet(v);
+        if(v > max.get())
+            max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100, e.g. 99.9.
+     * @return the value at that percentile (the upper end of its bucket), or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile){
+        long total = totalCount.get();
+        if(total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if(seen >= target)
+                return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax();
+    }
+
+    public long getCount(){
+        return totalCount.get();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * @return the sum of all recorded values, after clamping.
+     */
+    public long getSum(){
+        return sum.get();
+    }
+
+    public double getMean(){
+        long total = totalCount.get();
+        return total == 0 ? 0 : sum.get() / (double) total;
+    }
+
+    public long getHighestTrackableValue(){
+        return highestTrackableValue;
+    }
+
+    /**
+     * @param value a value no greater than the highest trackable value.
+     * @return how many recorded values are less than or equal to it (to bucket precision).
+     */
+    public long getCountAtOrBelow(long value){
+        int last = indexOf(Math.min(Math.max(value, 0), highestTrackableValue));
+        long n = 0;
+        for(int i = 0; i <= last; i++)
+            n += counts.get(i);
+        return n;
+    }
+
+    /**
+     * Adds every value recorded by another histogram with the same highest trackable value.
+     *
+     * @param other the histogram to merge into this one.
+     */
+    public void add(LatencyHistogram other){
+        if(other.highestTrackableValue != highestTrackableValue)
+            throw new IllegalArgumentException("histograms must have the same highestTrackableValue");
+        for(int i = 0; i < counts.length(); i++){
+            long c = other.counts.get(i);
+            if(c != 0)
+                counts.addAndGet(i, c);
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Forgets every recorded value.
+     */
+    public void reset(){
+        for(int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Values below SUB_BUCKETS map to themselves. Above that, a value with highest bit e lands in power-of-two
+     * bucket b = e - SUB_BUCKET_BITS + 1 and, within it, at sub-bucket value >> b, which lies in
+     * [HALF_SUB_BUCKETS, SUB_BUCKETS); each bucket therefore adds HALF_SUB_BUCKETS indexes.
+     */
+    static int indexOf(long value){
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1);
+        return bucket * HALF_SUB_BUCKETS + (int) (value >>> bucket);
+    }
+
+    /**
+     * @return the largest value that maps to the given index.
+     */
+    static long highestValueAt(int index){
+        if(index < SUB_BUCKETS)
+            return index;
+        int bucket = index / HALF_SUB_BUCKETS - 1;
+        long subBucket = index - (long) bucket * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
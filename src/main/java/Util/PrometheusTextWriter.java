@@ -0,0 +1,135 @@
+package Util;
+
+/**
+ * Builds a metrics page in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Callers write a header() for each metric family and then its samples; labels are given as alternating names and
+ * values. The page is only built when it is scraped, so this class favours simplicity over avoiding allocation.
+ */
+public class PrometheusTextWriter {
+    /**
+     * Content type to serve the page with.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(4096);
+
+    /**
+     * Starts a metric family.
+     *
+     * @param name the metric name, e.g. http_server_requests_seconds.
+     * @param type counter, gauge, histogram or summary.
+     * @param help a one-line description.
+     * @return this writer.
+     */
+    public PrometheusTextWriter header(String name, String type, String help){
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Writes one sample.
+     *
+     * @param name the sample name, which for histograms and summaries includes the _bucket, _sum or _count suffix.
+     * @param value the value.
+     * @param labels alternating label names and values.
+     * @return this writer.
+     */
+    public PrometheusTextWriter sample(String name, double value, String... labels){
+        out.append(name);
+        appendLabels(labels, null, null);
+        out.append(' ');
+        appendValue(value);
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the _bucket, _sum and _count samples of a histogram family from a LatencyHistogram.
+     *
+     * @param name the family name.
+     * @param h the histogram.
+     * @param scale multiplies recorded values to get the exported unit, e.g. 1e-9 for nanoseconds to seconds.
+     * @param bounds the bucket upper bounds, in the exported unit, in increasing order; +Inf is added.
+     * @param labels alternating label names and values.
+     * @return this writer.
+     */
+    public PrometheusTextWriter histogram(String name, LatencyHistogram h, double scale, double[] bounds, String... labels){
+        long count = h.getCount();
+        for(double bound : bounds){
+            long raw = (long) Math.floor(bound / scale);
+            long n = raw >= h.getHighestTrackableValue() ? count : h.getCountAtOrBelow(raw);
+            out.append(name).append("_bucket");
+            appendLabels(labels, "le", format(bound));
+            out.append(' ').append(n).append('\n');
+        }
+        out.append(name).append("_bucket");
+        appendLabels(labels, "le", "+Inf");
+        out.append(' ').append(count).append('\n');
+        sample(name + "_sum", h.getSum() * scale, labels);
+        sample(name + "_count", count, labels);
+        return this;
+    }
+
+    /**
+     * Writes the quantile samples of a summary family from a LatencyHistogram, with its _sum and _count.
+     *
+     * @param name the family name.
+     * @param h the histogram.
+     * @param scale multiplies recorded values to get the exported unit.
+     * @param quantiles the quantiles to report, between 0 and 1.
+     * @param labels alternating label names and values.
+     * @return this writer.
+     */
+    public PrometheusTextWriter summary(String name, LatencyHistogram h, double scale, double[] quantiles, String... labels){
+        for(double q : quantiles){
+            out.append(name);
+            appendLabels(labels, "quantile", format(q));
+            out.append(' ');
+            appendValue(h.getValueAtPercentile(q * 100) * scale);
+            out.append('\n');
+        }
+        sample(name + "_sum", h.getSum() * scale, labels);
+        sample(name + "_count", h.getCount(), labels);
+        return this;
+    }
+
+    @Override
+    public String toString(){
+        return out.toString();
+    }
+
+    private void appendLabels(String[] labels, String extraName, String extraValue){
+        if(labels.length == 0 && extraName == null)
+            return;
+        out.append('{');
+        for(int i = 0; i + 1 < labels.length; i += 2){
+            if(i > 0)
+                out.append(',');
+            out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        if(extraName != null){
+            if(labels.length > 0)
+                out.append(',');
+            out.append(extraName).append("=\"").append(extraValue).append('"');
+        }
+        out.append('}');
+    }
+
+    private void appendValue(double value){
+        out.append(format(value));
+    }
+
+    private static String format(double value){
+        if(Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escape(String value){
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
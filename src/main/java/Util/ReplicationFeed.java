@@ -0,0 +1,497 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies committed writes from the primary database to read replicas, for databases such as H2 that have no
+ * replication of their own.
+ *
+ * Writers report each row they change with changed(), after committing, and get back the write's position, a
+ * sequence number. A capture thread reads the changed rows from the primary in position order and appends them to
+ * a log of the last logSize changes. An entry holds the row as it is when captured rather than the statement that
+ * changed it, so applying entries in order converges on the primary's state even when concurrent writers commit
+ * and report in different orders: the last entry for a row is always read after the row's last commit.
+ *
+ * Each replica has an Applier thread that applies the log in batches, one transaction per batch, with MERGE for
+ * rows that exist and DELETE for rows that do not, and records the position it has applied up to. A replica is
+ * rebuilt from a full copy (the primary's schema, then every table) when it starts, and again whenever it cannot
+ * continue from the log: it fell further behind than the log, a change could not be captured, or a batch failed.
+ */
+public class ReplicationFeed {
+    private static final int APPLY_BATCH_SIZE = 500;
+    private static final int COPY_BATCH_SIZE = 1000;
+    private static final long POLL_MILLIS = 100;
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * A replicated table: its name, and its columns with the primary key columns first.
+     */
+    public static final class Table {
+        final String name;
+        final String[] columns;
+        final int keyColumns;
+        final String selectRow;
+        final String selectAll;
+        final String insert;
+        final String merge;
+        final String delete;
+
+        /**
+         * @param name the table's name.
+         * @param keyColumns how many of the columns, from the first, make up the primary key.
+         * @param columns every column to copy, key columns first.
+         */
+        public Table(String name, int keyColumns, String... columns){
+            this.name = name;
+            this.columns = columns;
+            this.keyColumns = keyColumns;
+            String list = String.join(", ", columns);
+            String params = String.join(", ", Collections.nCopies(columns.length, "?"));
+            StringBuilder where = new StringBuilder();
+            for(int i = 0; i < keyColumns; i++)
+                where.append(i == 0 ? " where " : " and ").append(columns[i]).append(" = ?");
+            this.selectRow = "select " + list + " from " + name + where;
+            this.selectAll = "select " + list + " from " + name;
+            this.insert = "insert into " + name + " (" + list + ") values (" + params + ")";
+            this.merge = "merge into " + name + " (" + list + ") key (" + String.join(", ", Arrays.copyOf(columns, keyColumns))
+                    + ") values (" + params + ")";
+            this.delete = "delete from " + name + where;
+        }
+    }
+
+    private final ConnectionPool primary;
+    private final List<Table> tables;
+    private final BlockingQueue<Change> pending;
+    private final Record[] log;
+    private final List<Applier> appliers = new CopyOnWriteArrayList<>();
+    private final Thread captureThread;
+    private volatile boolean closed;
+
+    /**
+     * Guards published, the order of pending, and lost.
+     */
+    private final Object publishLock = new Object();
+    private volatile long published;
+    private boolean lost;
+    /**
+     * The position up to which changes have been captured (or skipped); guarded by this, which appliers wait on.
+     */
+    private long captured;
+    private final LongAdder lostCount = new LongAdder();
+
+    /**
+     * @param primary the database writes are made to.
+     * @param tables every table to replicate, in the order they are copied.
+     * @param logSize how many changes are kept for appliers, and how many may wait to be captured.
+     */
+    public ReplicationFeed(ConnectionPool primary, List<Table> tables, int logSize){
+        this.primary = primary;
+        this.tables = tables;
+        this.pending = new ArrayBlockingQueue<>(Math.max(logSize, 1));
+        this.log = new Record[Math.max(logSize, 1)];
+        captureThread = new Thread(this::capture, "replication-capture");
+        captureThread.setDaemon(true);
+        captureThread.start();
+    }
+
+    /**
+     * Reports a committed change to a row.
+     *
+     * @param table the row's table.
+     * @param key the row's primary key values, in the table's key column order.
+     * @return the write's position; a replica whose applied position has reached it reflects the write.
+     */
+    public long changed(Table table, Object... key){
+        synchronized(publishLock){
+            long position = ++published;
+            if(!pending.offer(new Change(position, table, key)))
+                lost = true;
+            return position;
+        }
+    }
+
+    /**
+     * @return the position of the newest reported write.
+     */
+    public long getPublishedPosition(){
+        return published;
+    }
+
+    /**
+     * @return the position up to which writes have been captured into the log.
+     */
+    public synchronized long getCapturedPosition(){
+        return captured;
+    }
+
+    /**
+     * Starts keeping a replica in sync. Its first action is a full copy.
+     *
+     * @param name a name for the replica, used in its thread's name and its metric labels.
+     * @param replica the replica's connections.
+     * @return the replica's applier.
+     */
+    public Applier addReplica(String name, ConnectionPool replica){
+        Applier a = new Applier(name, replica);
+        appliers.add(a);
+        a.thread.start();
+        return a;
+    }
+
+    /**
+     * Stops capturing and applying. The pools are left open.
+     */
+    public void close(){
+        closed = true;
+        captureThread.interrupt();
+        for(Applier a : appliers)
+            a.thread.interrupt();
+    }
+
+    private void capture(){
+        List<Change> batch = new ArrayList<>();
+        while(!closed){
+            try{
+                Change first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null){
+                    skipLost();
+                    continue;
+                }
+                batch.clear();
+                batch.add(first);
+                pending.drainTo(batch, APPLY_BATCH_SIZE - 1);
+                Record[] records = new Record[batch.size()];
+                try(Connection conn = primary.borrow()){
+                    Map<Table, PreparedStatement> statements = new HashMap<>();
+                    for(int i = 0; i < records.length; i++){
+                        Change c = batch.get(i);
+                        PreparedStatement ps = statements.get(c.table);
+                        if(ps == null){
+                            ps = conn.prepareStatement(c.table.selectRow);
+                            statements.put(c.table, ps);
+                        }
+                        for(int k = 0; k < c.key.length; k++)
+                            ps.setObject(k + 1, c.key[k]);
+                        try(ResultSet rs = ps.executeQuery()){
+                            records[i] = new Record(c.position, c.table, c.key, rs.next() ? row(rs, c.table) : null);
+                        }
+                    }
+                    append(records);
+                }catch(SQLException e){
+                    // without these changes the replicas can only catch up with a full copy, which the gap forces
+                    e.printStackTrace();
+                    lostCount.add(batch.size());
+                    skipTo(batch.get(batch.size() - 1).position);
+                }
+                skipLost();
+            }catch(InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    /**
+     * If a change was reported while the queue was full, gives up on everything still queued: the positions are
+     * skipped, which forces every replica into a full copy.
+     */
+    private void skipLost(){
+        synchronized(publishLock){
+            if(!lost)
+                return;
+            lost = false;
+            lostCount.add(published - getCapturedPosition());
+            pending.clear();
+            skipTo(published);
+        }
+    }
+
+    private synchronized void append(Record[] records){
+        for(Record r : records)
+            log[(int) (r.position % log.length)] = r;
+        captured = records[records.length - 1].position;
+        notifyAll();
+    }
+
+    /**
+     * Moves the captured position past changes that were not captured; an applier before them finds the gap and
+     * makes a full copy.
+     */
+    private synchronized void skipTo(long position){
+        if(position > captured){
+            captured = position;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for changes after a position.
+     *
+     * @return up to max consecutive changes after position, an empty list if none were captured within the wait,
+     *         or null if the next one is no longer (or was never) in the log.
+     */
+    private synchronized List<Record> recordsAfter(long position, int max, long waitMillis) throws InterruptedException{
+        if(captured <= position)
+            wait(waitMillis);
+        List<Record> records = new ArrayList<>();
+        for(long p = position + 1; p <= captured && records.size() < max; p++){
+            Record r = log[(int) (p % log.length)];
+            if(r == null || r.position != p)
+                return null;
+            records.add(r);
+        }
+        return records;
+    }
+
+    private static Object[] row(ResultSet rs, Table table) throws SQLException{
+        Object[] row = new Object[table.columns.length];
+        for(int i = 0; i < row.length; i++)
+            row[i] = rs.getObject(i + 1);
+        return row;
+    }
+
+    /**
+     * Writes each position, the number of changes that could not be captured, and for every replica its applied
+     * position, full copies and failures.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("db_replication_position", "gauge", "Newest write position reported by the primary and captured into the replication log.")
+                .sample("db_replication_position", getPublishedPosition(), "stage", "published")
+                .sample("db_replication_position", getCapturedPosition(), "stage", "captured");
+        w.header("db_replication_lost_total", "counter", "Changes that could not be captured, forcing replicas to make a full copy.")
+                .sample("db_replication_lost_total", lostCount.sum());
+        w.header("db_replica_applied_position", "gauge", "Write position each replica has applied up to.");
+        for(Applier a : appliers)
+            w.sample("db_replica_applied_position", a.getAppliedPosition(), "replica", a.name);
+        w.header("db_replica_resyncs_total", "counter", "Full copies made to each replica.");
+        for(Applier a : appliers)
+            w.sample("db_replica_resyncs_total", a.resyncs.sum(), "replica", a.name);
+        w.header("db_replica_apply_failures_total", "counter", "Failed batches or copies, by replica.");
+        for(Applier a : appliers)
+            w.sample("db_replica_apply_failures_total", a.failures.sum(), "replica", a.name);
+    }
+
+    /**
+     * Keeps one replica in sync on its own thread.
+     */
+    public class Applier {
+        final String name;
+        private final ConnectionPool replica;
+        private final Thread thread;
+        private volatile long applied;
+        private volatile boolean ready;
+        private boolean resync = true;
+        /**
+         * Guarded by this, which is held while a batch or copy is applied.
+         */
+        private boolean paused;
+        private boolean failing;
+        private final LongAdder resyncs = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Applier(String name, ConnectionPool replica){
+            this.name = name;
+            this.replica = replica;
+            this.thread = new Thread(this::run, "replication-apply-" + name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * @return the position of the newest write this replica reflects.
+         */
+        public long getAppliedPosition(){
+            return applied;
+        }
+
+        /**
+         * @return true once the replica has a full copy and is applying changes; false before, and during a copy.
+         */
+        public boolean isReady(){
+            return ready;
+        }
+
+        /**
+         * Stops applying changes, for maintenance on the replica or to hold it behind in a test. Returns once any
+         * batch in progress is done.
+         */
+        public synchronized void pause(){
+            paused = true;
+        }
+
+        /**
+         * Resumes applying changes after pause().
+         */
+        public synchronized void resume(){
+            paused = false;
+        }
+
+        private void run(){
+            while(!closed){
+                try{
+                    List<Record> batch = resync ? null : recordsAfter(applied, APPLY_BATCH_SIZE, POLL_MILLIS);
+                    synchronized(this){
+                        if(paused){
+                            wait(POLL_MILLIS);
+                            continue;
+                        }
+                        if(resync || batch == null){
+                            resync = true;
+                            copy();
+                            resync = false;
+                        }else if(!batch.isEmpty()){
+                            apply(batch);
+                        }
+                        failing = false;
+                    }
+                }catch(SQLException e){
+                    failures.increment();
+                    resync = true;
+                    if(!failing)
+                        e.printStackTrace();
+                    failing = true;
+                    try{
+                        Thread.sleep(RETRY_MILLIS);
+                    }catch(InterruptedException e2){
+                        return;
+                    }
+                }catch(InterruptedException e){
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Applies a batch of changes in one transaction, so a failed batch leaves the applied position where it was.
+         */
+        private void apply(List<Record> batch) throws SQLException{
+            try(Connection conn = replica.borrow()){
+                conn.setAutoCommit(false);
+                try{
+                    Map<String, PreparedStatement> statements = new HashMap<>();
+                    for(Record r : batch){
+                        String sql = r.row == null ? r.table.delete : r.table.merge;
+                        PreparedStatement ps = statements.get(sql);
+                        if(ps == null){
+                            ps = conn.prepareStatement(sql);
+                            statements.put(sql, ps);
+                        }
+                        Object[] values = r.row == null ? r.key : r.row;
+                        for(int i = 0; i < values.length; i++)
+                            ps.setObject(i + 1, values[i]);
+                        ps.executeUpdate();
+                    }
+                    conn.commit();
+                }catch(SQLException e){
+                    conn.rollback();
+                    throw e;
+                }finally{
+                    conn.setAutoCommit(true);
+                }
+            }
+            applied = batch.get(batch.size() - 1).position;
+        }
+
+        /**
+         * Replaces the replica's contents with a copy of the primary: its schema from SCRIPT NODATA, then every
+         * table's rows. Changes captured before the copy started are already in it; later ones are applied after.
+         * Foreign keys are not checked on the replica, since changes to different tables may arrive in any order.
+         */
+        private void copy() throws SQLException{
+            ready = false;
+            long position = getCapturedPosition();
+            try(Connection src = primary.borrow(); Connection dst = replica.borrow()){
+                List<String> schema = new ArrayList<>();
+                try(Statement st = src.createStatement(); ResultSet rs = st.executeQuery("SCRIPT NODATA")){
+                    while(rs.next()){
+                        String sql = rs.getString(1);
+                        if(!sql.startsWith("--"))
+                            schema.add(sql);
+                    }
+                }
+                try(Statement st = dst.createStatement()){
+                    st.execute("DROP ALL OBJECTS");
+                    for(String sql : schema)
+                        st.execute(sql);
+                    st.execute("SET REFERENTIAL_INTEGRITY FALSE");
+                }
+                dst.setAutoCommit(false);
+                try{
+                    for(Table t : tables)
+                        copy(src, dst, t);
+                    dst.commit();
+                }catch(SQLException e){
+                    dst.rollback();
+                    throw e;
+                }finally{
+                    dst.setAutoCommit(true);
+                }
+            }
+            applied = position;
+            resyncs.increment();
+            ready = true;
+        }
+
+        private void copy(Connection src, Connection dst, Table t) throws SQLException{
+            try(Statement st = src.createStatement(); ResultSet rs = st.executeQuery(t.selectAll);
+                PreparedStatement ps = dst.prepareStatement(t.insert)){
+                int batched = 0;
+                while(rs.next()){
+                    for(int i = 0; i < t.columns.length; i++)
+                        ps.setObject(i + 1, rs.getObject(i + 1));
+                    ps.addBatch();
+                    if(++batched == COPY_BATCH_SIZE){
+                        ps.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if(batched > 0)
+                    ps.executeBatch();
+            }
+        }
+    }
+
+    private static class Change {
+        final long position;
+        final Table table;
+        final Object[] key;
+
+        Change(long position, Table table, Object[] key){
+            this.position = position;
+            this.table = table;
+            this.key = key;
+        }
+    }
+
+    /**
+     * A captured change: the row's values in column order, or null if it no longer exists.
+     */
+    private static class Record {
+        final long position;
+        final Table table;
+        final Object[] key;
+        final Object[] row;
+
+        Record(long position, Table table, Object[] key, Object[] row){
+            this.position = position;
+            this.table = table;
+            this.key = key;
+            this.row = row;
+        }
+    }
+}
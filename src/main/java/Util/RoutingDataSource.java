@@ -0,0 +1,344 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the DAO's routable reads to read replicas and everything else to the primary.
+ *
+ * Replicas are listed as comma-separated JDBC URLs, each optionally followed by @weight (1 by default), e.g.
+ * {@code jdbc:h2:tcp://replica1/db@3,jdbc:h2:tcp://replica2/db}. Reads are spread over the replicas that may take
+ * them by smooth weighted round-robin, so a replica of weight 3 gets three reads for every one of a weight-1 replica,
+ * interleaved rather than in runs. Every healthCheckMillis each replica is checked with a trivial query; one that
+ * fails, or whose pool fails to hand out a connection for a read, gets no reads until a check passes again. When no
+ * replica may take a read it goes to the primary.
+ *
+ * Only reads made inside a request scope, between beginRequest() and endRequest() on the same thread, go to
+ * replicas; background work such as rebuilding the search index reads the primary. Writers report the rows they
+ * change with changed(), which returns the write's position; a request that passes a position to beginRequest()
+ * reads only from replicas that have applied it, or else the primary, so it sees that write.
+ *
+ * With a ReplicationFeed the replicas are kept in sync in-app and their positions are exact: a replica more than
+ * maxLag positions behind gets no reads, and a read from a replica that is behind at all is marked stale, see
+ * isStaleRead(). Without one, replication is left to the database, replica positions are unknown, reads that ask
+ * for a position go to the primary, and every replica read is marked stale.
+ */
+public class RoutingDataSource {
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+    private static RoutingDataSource instance;
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas;
+    private final ReplicationFeed feed;
+    private final long maxLag;
+    private final ScheduledExecutorService healthChecker;
+    /**
+     * Positions handed out by changed() when there is no feed.
+     */
+    private final AtomicLong positions = new AtomicLong();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder fallbackReads = new LongAdder();
+
+    /**
+     * @param primary the database that takes writes.
+     * @param replicas the replicas as url@weight,..., or null or empty for none.
+     * @param tables the tables to replicate with a ReplicationFeed, or null if the replicas are kept in sync by
+     *               other means.
+     * @param logSize how many changes the feed keeps; see ReplicationFeed.
+     * @param maxLag how many positions behind the primary a replica may be and still take reads, with a feed.
+     * @param healthCheckMillis how often replicas are checked.
+     */
+    public RoutingDataSource(ConnectionPool primary, String replicas, List<ReplicationFeed.Table> tables, int logSize,
+                             long maxLag, long healthCheckMillis){
+        this.primary = primary;
+        this.maxLag = maxLag;
+        List<Replica> parsed = new ArrayList<>();
+        if(replicas != null){
+            for(String spec : replicas.split(",")){
+                spec = spec.trim();
+                if(spec.isEmpty())
+                    continue;
+                int at = spec.lastIndexOf('@');
+                int weight = 1;
+                if(at > 0 && spec.substring(at + 1).matches("\\d+")){
+                    weight = Math.max(1, Integer.parseInt(spec.substring(at + 1)));
+                    spec = spec.substring(0, at);
+                }
+                parsed.add(new Replica(spec, weight, ConnectionPool.create(spec)));
+            }
+        }
+        this.replicas = Collections.unmodifiableList(parsed);
+        this.feed = parsed.isEmpty() || tables == null ? null : new ReplicationFeed(primary, tables, logSize);
+        if(feed != null){
+            for(Replica r : parsed)
+                r.applier = feed.addReplica(r.url, r.pool);
+        }
+        if(parsed.isEmpty()){
+            healthChecker = null;
+        }else{
+            healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "replica-health-check");
+                t.setDaemon(true);
+                return t;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The data source shared by the application, over ConnectionPool.getInstance(). Replicas are read from
+     * socialmedia.db.replicas, and kept in sync by a ReplicationFeed of the given tables unless
+     * socialmedia.db.replication is false. The feed keeps socialmedia.db.replicationLogSize changes (10000 by
+     * default), replicas more than socialmedia.db.replicaMaxLag positions behind (1000) get no reads, and replicas
+     * are checked every socialmedia.db.replicaHealthCheckMs (1000).
+     *
+     * @param tables the tables the feed replicates; only used on the first call.
+     * @return the shared data source, created on first use.
+     */
+    public static synchronized RoutingDataSource getInstance(List<ReplicationFeed.Table> tables){
+        if(instance == null){
+            instance = new RoutingDataSource(ConnectionPool.getInstance(), System.getProperty("socialmedia.db.replicas"),
+                    Boolean.parseBoolean(System.getProperty("socialmedia.db.replication", "true")) ? tables : null,
+                    Integer.getInteger("socialmedia.db.replicationLogSize", 10000),
+                    Long.getLong("socialmedia.db.replicaMaxLag", 1000L),
+                    Long.getLong("socialmedia.db.replicaHealthCheckMs", 1000L));
+        }
+        return instance;
+    }
+
+    /**
+     * Starts a request scope on this thread, in which reads may go to replicas. Must be ended with endRequest().
+     *
+     * @param readAfter the position of a write the request must see, 0 for none, or Long.MAX_VALUE to read
+     *                  everything from the primary.
+     */
+    public static void beginRequest(long readAfter){
+        SCOPE.set(new Scope(readAfter));
+    }
+
+    /**
+     * Ends this thread's request scope.
+     */
+    public static void endRequest(){
+        SCOPE.remove();
+    }
+
+    /**
+     * @return true if a read in this thread's request scope went to a replica that may not have applied every
+     *         write, so what it read should not be cached as current.
+     */
+    public static boolean isStaleRead(){
+        Scope scope = SCOPE.get();
+        return scope != null && scope.stale;
+    }
+
+    /**
+     * @return a connection to the primary, for writes and for reads that must be current.
+     */
+    public Connection getConnection() throws SQLException{
+        return primary.borrow();
+    }
+
+    /**
+     * @return a connection to a replica that may take this thread's read, or to the primary if there is none or
+     *         the thread is not in a request scope.
+     */
+    public Connection getReadConnection() throws SQLException{
+        Scope scope = SCOPE.get();
+        if(scope == null || replicas.isEmpty()){
+            primaryReads.increment();
+            return primary.borrow();
+        }
+        Replica r = choose(scope.readAfter);
+        if(r != null){
+            try{
+                Connection c = r.pool.borrow();
+                r.reads.increment();
+                if(feed == null || r.applier.getAppliedPosition() < feed.getPublishedPosition())
+                    scope.stale = true;
+                return c;
+            }catch(SQLException e){
+                r.healthy = false;
+                r.failures.increment();
+            }
+        }
+        fallbackReads.increment();
+        return primary.borrow();
+    }
+
+    /**
+     * Picks the next replica by smooth weighted round-robin: each eligible replica's current weight goes up by its
+     * weight, the highest is chosen, and it gives back the eligible replicas' total.
+     */
+    private synchronized Replica choose(long readAfter){
+        Replica best = null;
+        int total = 0;
+        for(Replica r : replicas){
+            if(!isEligible(r, readAfter))
+                continue;
+            r.currentWeight += r.weight;
+            total += r.weight;
+            if(best == null || r.currentWeight > best.currentWeight)
+                best = r;
+        }
+        if(best != null)
+            best.currentWeight -= total;
+        return best;
+    }
+
+    private boolean isEligible(Replica r, long readAfter){
+        if(!r.healthy)
+            return false;
+        if(feed == null)
+            return readAfter <= 0;
+        long applied = r.applier.getAppliedPosition();
+        return r.applier.isReady() && applied >= readAfter && feed.getPublishedPosition() - applied <= maxLag;
+    }
+
+    private void checkHealth(){
+        for(Replica r : replicas){
+            boolean healthy;
+            try(Connection c = r.pool.borrow()){
+                healthy = c.isValid(1);
+            }catch(SQLException e){
+                healthy = false;
+            }
+            if(!healthy)
+                r.failures.increment();
+            r.healthy = healthy;
+        }
+    }
+
+    /**
+     * Reports a committed change to a row, to be replicated if there is a feed.
+     *
+     * @param table the row's table.
+     * @param key the row's primary key values.
+     * @return the write's position, to be passed to beginRequest() by a request that must see the write.
+     */
+    public long changed(ReplicationFeed.Table table, Object... key){
+        return feed != null ? feed.changed(table, key) : positions.incrementAndGet();
+    }
+
+    /**
+     * @return the position of the newest write; every write reported so far is at or before it.
+     */
+    public long getWritePosition(){
+        return feed != null ? feed.getPublishedPosition() : positions.get();
+    }
+
+    /**
+     * @return the replicas, in the order they were listed.
+     */
+    public List<Replica> getReplicas(){
+        return replicas;
+    }
+
+    /**
+     * @return the feed keeping the replicas in sync, or null if there is none.
+     */
+    public ReplicationFeed getFeed(){
+        return feed;
+    }
+
+    /**
+     * Stops replication and health checks and closes the replicas' pools. The primary is left open.
+     */
+    public void close(){
+        if(healthChecker != null)
+            healthChecker.shutdownNow();
+        if(feed != null)
+            feed.close();
+        for(Replica r : replicas)
+            r.pool.close();
+    }
+
+    /**
+     * Writes where reads went, each replica's health and, with a feed, replication positions.
+     *
+     * @param w the metrics page being built.
+     */
+    public void writeTo(PrometheusTextWriter w){
+        w.header("db_reads_total", "counter", "Routable DAO reads by the database they went to.")
+                .sample("db_reads_total", primaryReads.sum() + fallbackReads.sum(), "target", "primary");
+        for(Replica r : replicas)
+            w.sample("db_reads_total", r.reads.sum(), "target", r.url);
+        w.header("db_read_fallbacks_total", "counter", "Reads in a request scope sent to the primary because no replica could take them.")
+                .sample("db_read_fallbacks_total", fallbackReads.sum());
+        if(replicas.isEmpty())
+            return;
+        w.header("db_replica_healthy", "gauge", "1 if the replica passed its last health check.");
+        for(Replica r : replicas)
+            w.sample("db_replica_healthy", r.healthy ? 1 : 0, "replica", r.url);
+        w.header("db_replica_failures_total", "counter", "Failed health checks and connection attempts, by replica.");
+        for(Replica r : replicas)
+            w.sample("db_replica_failures_total", r.failures.sum(), "replica", r.url);
+        if(feed != null)
+            feed.writeTo(w);
+    }
+
+    /**
+     * One read replica.
+     */
+    public static class Replica {
+        final String url;
+        final int weight;
+        final ConnectionPool pool;
+        ReplicationFeed.Applier applier;
+        volatile boolean healthy;
+        /**
+         * The smooth round-robin's running weight; guarded by the RoutingDataSource.
+         */
+        int currentWeight;
+        final LongAdder reads = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        Replica(String url, int weight, ConnectionPool pool){
+            this.url = url;
+            this.weight = weight;
+            this.pool = pool;
+        }
+
+        public String getUrl(){
+            return url;
+        }
+
+        /**
+         * @return the replica's applier, or null if there is no feed.
+         */
+        public ReplicationFeed.Applier getApplier(){
+            return applier;
+        }
+
+        /**
+         * @return true if the replica passed its last health check.
+         */
+        public boolean isHealthy(){
+            return healthy;
+        }
+
+        /**
+         * @return the number of reads sent to the replica.
+         */
+        public long getReadCount(){
+            return reads.sum();
+        }
+    }
+
+    private static class Scope {
+        final long readAfter;
+        boolean stale;
+
+        Scope(long readAfter){
+            this.readAfter = readAfter;
+        }
+    }
+}
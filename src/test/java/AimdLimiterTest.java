@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.AimdLimiter;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AimdLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Requests beyond the limit should be turned away, except priority requests within the headroom.
+     */
+    @Test
+    public void requestsOverTheLimitAreRejected() {
+        AimdLimiter limiter = new AimdLimiter("test", 4, 1, 10, 100, 0.5, 0.5);
+        for(int i = 0; i < 4; i++)
+            Assert.assertTrue(limiter.tryAcquire(false));
+        Assert.assertFalse(limiter.tryAcquire(false));
+        Assert.assertTrue(limiter.tryAcquire(true));
+        Assert.assertTrue(limiter.tryAcquire(true));
+        Assert.assertFalse(limiter.tryAcquire(true));
+        Assert.assertEquals(1, limiter.getRejectedCount(false));
+        Assert.assertEquals(1, limiter.getRejectedCount(true));
+        limiter.release(FAST);
+        Assert.assertEquals(5, limiter.getInFlight());
+    }
+
+    /**
+     * Slow or dropped requests should halve the limit down to the minimum, and fast requests on a busy limiter
+     * should raise it again up to the maximum.
+     */
+    @Test
+    public void limitFollowsLatency() {
+        AimdLimiter limiter = new AimdLimiter("test", 8, 2, 9, 100, 0.5, 0.5);
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.release(SLOW);
+        Assert.assertEquals(4, limiter.getLimit());
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.drop();
+        Assert.assertEquals(2, limiter.getLimit());
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.release(SLOW);
+        Assert.assertEquals(2, limiter.getLimit());
+
+        // an idle limiter is not raised
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.release(FAST);
+        Assert.assertEquals(2, limiter.getLimit());
+
+        for(int i = 0; i < 200; i++){
+            int limit = limiter.getLimit();
+            for(int j = 0; j < limit; j++)
+                Assert.assertTrue(limiter.tryAcquire(false));
+            for(int j = 0; j < limit; j++)
+                limiter.release(FAST);
+        }
+        Assert.assertEquals(9, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * A limiter that waits for several slow requests should ignore a lone outlier, lower the limit once enough slow
+     * requests fall within its window, and then need new slow requests before lowering it again.
+     */
+    @Test
+    public void outliersAreIgnored() {
+        AimdLimiter limiter = new AimdLimiter("test", 8, 2, 8, 100, 0.5, 0.5, 3, 5);
+        for(int i = 0; i < 2; i++){
+            Assert.assertTrue(limiter.tryAcquire(false));
+            limiter.release(SLOW);
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+
+        // the first two slow requests have left the window by now
+        for(int i = 0; i < 5; i++){
+            Assert.assertTrue(limiter.tryAcquire(false));
+            limiter.release(FAST);
+        }
+        for(int i = 0; i < 2; i++){
+            Assert.assertTrue(limiter.tryAcquire(false));
+            limiter.release(SLOW);
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.release(SLOW);
+        Assert.assertEquals(4, limiter.getLimit());
+
+        Assert.assertTrue(limiter.tryAcquire(false));
+        limiter.release(SLOW);
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    /**
+     * The read and write budgets should be exported, and count the requests they admit.
+     */
+    @Test
+    public void limitsAreExported() throws IOException, InterruptedException {
+        HttpRequest login = HttpRequest.newBuilder(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"testuser1\",\"password\":\"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(login, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest metrics = HttpRequest.newBuilder(URI.create("http://localhost:8080/metrics")).build();
+        String body = webClient.send(metrics, HttpResponse.BodyHandlers.ofString()).body();
+        Assert.assertTrue(body, body.contains("concurrency_limit{budget=\"read\"} 40\n"));
+        Assert.assertTrue(body, body.contains("concurrency_limit{budget=\"write\"} 20\n"));
+        Assert.assertTrue(body, body.contains("concurrency_limit_requests_total{budget=\"read\",result=\"admitted\"} 1\n"));
+        Assert.assertTrue(body, body.contains("concurrency_limit_requests_total{budget=\"write\",result=\"rejected\"} 0\n"));
+    }
+}
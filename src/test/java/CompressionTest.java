@@ -0,0 +1,148 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.GzipCodec;
+import io.javalin.Javalin;
+
+public class CompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app and post 200 more messages, so the listing is
+     * well over the compression threshold.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        StringBuilder batch = new StringBuilder("[");
+        for(int i = 0; i < 200; i++)
+            batch.append(i == 0 ? "" : ",").append("{\"posted_by\": 1, \"message_text\": \"message ").append(i)
+                    .append("\", \"time_posted_epoch\": ").append(1669947800 + i).append("}");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A large listing should be gzipped when the client accepts it, buffered or streamed, and sent as is otherwise.
+     */
+    @Test
+    public void largeListingsAreGzippedWhenAccepted() throws IOException, InterruptedException {
+        HttpResponse<byte[]> plain = get("/messages", null);
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(201, objectMapper.readValue(plain.body(), Message[].class).length);
+
+        for(String path : new String[]{"/messages", "/messages?stream=true", "/accounts/1/messages"}){
+            HttpResponse<byte[]> gzipped = get(path, "br;q=1.0, gzip;q=0.8");
+            Assert.assertEquals(path, "gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+            Assert.assertTrue(gzipped.headers().allValues("Vary").contains("Accept-Encoding"));
+            byte[] body = gunzip(gzipped.body());
+            Assert.assertEquals(201, objectMapper.readValue(body, Message[].class).length);
+            Assert.assertTrue(gzipped.body().length * 3 < body.length);
+        }
+
+        Assert.assertFalse(get("/messages", "gzip;q=0").headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertFalse(get("/messages?stream=true", "identity").headers().firstValue("Content-Encoding").isPresent());
+    }
+
+    /**
+     * Responses under the threshold should not be compressed, whether buffered or streamed.
+     */
+    @Test
+    public void smallResponsesAreNotCompressed() throws IOException, InterruptedException {
+        for(String path : new String[]{"/accounts/2/messages", "/accounts/2/messages?stream=true", "/messages/1"}){
+            HttpResponse<byte[]> response = get(path, "gzip");
+            Assert.assertEquals(path, 200, response.statusCode());
+            Assert.assertFalse(path, response.headers().firstValue("Content-Encoding").isPresent());
+        }
+    }
+
+    /**
+     * A gzipped response's ETag should differ from the plain one, and either should get a 304.
+     */
+    @Test
+    public void gzippedETagsStillMatch() throws IOException, InterruptedException {
+        String plain = get("/messages", null).headers().firstValue("ETag").get();
+        String gzipped = get("/messages", "gzip").headers().firstValue("ETag").get();
+        Assert.assertNotEquals(plain, gzipped);
+        Assert.assertTrue(gzipped.endsWith("-gzip\""));
+        Assert.assertEquals(304, get("/messages", "gzip", gzipped).statusCode());
+        Assert.assertEquals(304, get("/messages", null, gzipped).statusCode());
+    }
+
+    /**
+     * Deflaters should be reused from one stream to the next, and each stream should be valid gzip, including
+     * after a flush part way through.
+     */
+    @Test
+    public void gzipCodecReusesDeflaters() throws IOException {
+        GzipCodec codec = new GzipCodec(Deflater.DEFAULT_COMPRESSION, 4);
+        for(int i = 0; i < 3; i++){
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            try(OutputStream out = codec.open(raw)){
+                out.write("hello ".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Assert.assertTrue(raw.size() > 10);
+                out.write(("world " + i).repeat(100).getBytes(StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals("hello " + ("world " + i).repeat(100), new String(gunzip(raw.toByteArray()), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(1, codec.getCreatedCount());
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))){
+            return in.readAllBytes();
+        }
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        return get(path, acceptEncoding, null);
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path));
+        if(acceptEncoding != null)
+            request.header("Accept-Encoding", acceptEncoding);
+        if(ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
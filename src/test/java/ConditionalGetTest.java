@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A message's ETag should get a 304 with an empty body until the message is updated.
+     */
+    @Test
+    public void messageNotModifiedUntilUpdated() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        String eTag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertNotNull(eTag);
+
+        HttpResponse<String> again = get("/messages/1", eTag);
+        Assert.assertEquals(304, again.statusCode());
+        Assert.assertEquals("", again.body());
+        Assert.assertEquals(304, get("/messages/1", "\"other\", W/" + eTag).statusCode());
+
+        send("PATCH", "/messages/1", "{\"message_text\": \"edited\"}");
+        HttpResponse<String> changed = get("/messages/1", eTag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("edited"));
+        Assert.assertNotEquals(eTag, changed.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * An account's listing should get a 304, without querying the database, until the account posts again; other
+     * accounts' listings keep their ETags.
+     */
+    @Test
+    public void accountListingNotModifiedUntilItsAuthorPosts() throws IOException, InterruptedException {
+        send("POST", "/register", "{\"username\": \"alice\", \"password\": \"password\"}");
+        String eTag = get("/accounts/1/messages", null).headers().firstValue("ETag").get();
+        String otherETag = get("/accounts/2/messages", null).headers().firstValue("ETag").get();
+        String queries = listingQueries();
+
+        Assert.assertEquals(304, get("/accounts/1/messages", eTag).statusCode());
+        Assert.assertEquals(queries, listingQueries());
+
+        send("POST", "/messages", "{\"posted_by\": 1, \"message_text\": \"new\", \"time_posted_epoch\": 1669947800}");
+        Assert.assertEquals(200, get("/accounts/1/messages", eTag).statusCode());
+        Assert.assertEquals(304, get("/accounts/2/messages", otherETag).statusCode());
+        Assert.assertEquals(200, get("/messages", get("/messages", null).headers().firstValue("ETag").get() + "x").statusCode());
+    }
+
+    /**
+     * @return the metrics line counting getAllMessagesByUserId queries
+     */
+    private String listingQueries() throws IOException, InterruptedException {
+        for(String line : get("/metrics", null).body().split("\n"))
+            if(line.startsWith("db_query_seconds_count{method=\"getAllMessagesByUserId\",phase=\"total\"}"))
+                return line;
+        Assert.fail("no getAllMessagesByUserId metrics");
+        return null;
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path));
+        if(ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
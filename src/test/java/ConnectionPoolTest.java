@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database so the counters start from zero.
+     */
+    @Before
+    public void setUp() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        ds.setPassword("sa");
+        pool = new ConnectionPool(ds, 1, 2, 200, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a borrowed connection should hand the same physical connection back out instead of opening a new one.
+     */
+    @Test
+    public void closedConnectionsAreReused() throws SQLException {
+        for(int i = 0; i < 10; i++){
+            try(Connection conn = pool.borrow()){
+                Assert.assertTrue(conn.isValid(1));
+                Assert.assertEquals(1, pool.getActiveCount());
+            }
+        }
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(10, pool.getAcquireCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    /**
+     * Borrowing past maxSize should wait for the acquire timeout and then fail, rather than opening more sessions.
+     */
+    @Test
+    public void borrowBeyondMaxSizeTimesOut() throws SQLException {
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        try{
+            pool.borrow();
+            Assert.fail("expected the third borrow to time out");
+        }catch(SQLException e){
+            Assert.assertEquals(1, pool.getTimeoutCount());
+        }
+        first.close();
+        second.close();
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * A returned handle must not be usable anymore, since its physical connection may already belong to someone else.
+     */
+    @Test
+    public void returnedHandleCannotBeUsed() throws SQLException {
+        Connection conn = pool.borrow();
+        conn.close();
+        Assert.assertTrue(conn.isClosed());
+        try{
+            conn.prepareStatement("select 1");
+            Assert.fail("expected an SQLException");
+        }catch(SQLException e){
+            // expected
+        }
+    }
+}
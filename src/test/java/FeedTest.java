@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.MessageCache;
+import Service.TimelineStore;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class FeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app and register accounts 2, 3 and 4 next to
+     * testuser1.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        for(String username : List.of("alice", "bob", "carol"))
+            Assert.assertEquals(200, send("POST", "/register", "{\"username\": \"" + username + "\", \"password\": \"password\"}").statusCode());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A feed should hold the messages of followed accounts, newest first, including ones posted after the
+     * timeline was built, and nothing from accounts that are not followed.
+     */
+    @Test
+    public void feedHoldsFollowedAccountsNewestFirst() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send("PUT", "/accounts/2/following/1", "").statusCode());
+        Assert.assertEquals(200, send("PUT", "/accounts/2/following/3", "").statusCode());
+        Assert.assertEquals(List.of(1), feed(2, null));
+
+        post(3, "from bob", 1669947900);
+        post(4, "from carol", 1669948000);
+        post(2, "from alice", 1669947850);
+        Assert.assertEquals(List.of(2, 4, 1), awaitFeed(2, 3));
+        Assert.assertEquals(List.of(2), feed(2, 1));
+    }
+
+    /**
+     * Unfollowing should take the account's messages out of the feed; bad follows are rejected.
+     */
+    @Test
+    public void unfollowAndInvalidFollows() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send("PUT", "/accounts/2/following/1", "").statusCode());
+        Assert.assertEquals(200, send("PUT", "/accounts/2/following/1", "").statusCode());
+        Assert.assertEquals(List.of(1), feed(2, null));
+        Assert.assertEquals(200, send("DELETE", "/accounts/2/following/1", "").statusCode());
+        Assert.assertEquals(List.of(), feed(2, null));
+
+        Assert.assertEquals(404, send("DELETE", "/accounts/2/following/1", "").statusCode());
+        Assert.assertEquals(400, send("PUT", "/accounts/2/following/2", "").statusCode());
+        Assert.assertEquals(400, send("PUT", "/accounts/2/following/99", "").statusCode());
+        Assert.assertEquals(400, get("/accounts/2/feed?limit=0").statusCode());
+    }
+
+    /**
+     * Posts by an account at the celebrity threshold should not be fanned out, yet still appear in its followers'
+     * feeds, merged at read time.
+     */
+    @Test
+    public void celebrityPostsAreMergedAtReadTime() throws InterruptedException {
+        SocialMediaDAO dao = new SocialMediaDAO();
+        TimelineStore store = new TimelineStore(dao, new MessageCache(100), 10, 2, 100, 1, 10);
+        try{
+            Assert.assertTrue(dao.follow(2, 1));
+            Assert.assertTrue(dao.follow(2, 3));
+            Assert.assertTrue(dao.follow(4, 3));
+            Assert.assertEquals(1, store.feed(2, 10).size());
+
+            Message celebrity = dao.createMessage(new Message(3, "from a celebrity", 1669948000));
+            store.messageCreated(celebrity);
+            Message regular = dao.createMessage(new Message(1, "from testuser1", 1669947900));
+            store.messageCreated(regular);
+            for(int i = 0; i < 50 && store.getPushedPostCount() + store.getPulledPostCount() < 2; i++)
+                Thread.sleep(20);
+
+            Assert.assertEquals(1, store.getPulledPostCount());
+            Assert.assertEquals(1, store.getPushedPostCount());
+            Assert.assertEquals(1, store.getTimelineWriteCount());
+            List<Message> feed = store.feed(2, 10);
+            Assert.assertEquals(3, feed.size());
+            Assert.assertEquals(celebrity, feed.get(0));
+            Assert.assertEquals(regular, feed.get(1));
+        }finally{
+            store.close();
+        }
+    }
+
+    /**
+     * A message whose followers cannot be read should drop the timelines and be counted, so the next feed read
+     * rebuilds from the database and still includes it.
+     */
+    @Test
+    public void failedFanOutDropsTimelines() throws InterruptedException {
+        boolean[] failing = {false};
+        SocialMediaDAO dao = new SocialMediaDAO(){
+            @Override
+            public int[] getFollowerIds(int followee_id){
+                return failing[0] ? null : super.getFollowerIds(followee_id);
+            }
+        };
+        TimelineStore store = new TimelineStore(dao, new MessageCache(100), 10, 100, 100, 1, 10);
+        try{
+            Assert.assertTrue(dao.follow(2, 1));
+            Assert.assertEquals(1, store.feed(2, 10).size());
+            Assert.assertEquals(1, store.size());
+
+            failing[0] = true;
+            Message m = dao.createMessage(new Message(1, "missed by fan-out", 1669948000));
+            store.messageCreated(m);
+            for(int i = 0; i < 50 && store.getFailureCount() < 1; i++)
+                Thread.sleep(20);
+
+            Assert.assertEquals(1, store.getFailureCount());
+            Assert.assertEquals(0, store.size());
+            failing[0] = false;
+            Assert.assertEquals(m, store.feed(2, 10).get(0));
+        }finally{
+            store.close();
+        }
+    }
+
+    /**
+     * Polls a feed until it has the expected number of messages, since fan-out happens in the background.
+     */
+    private List<Integer> awaitFeed(int account_id, int size) throws IOException, InterruptedException {
+        List<Integer> ids = feed(account_id, null);
+        for(int i = 0; i < 50 && ids.size() < size; i++){
+            Thread.sleep(20);
+            ids = feed(account_id, null);
+        }
+        return ids;
+    }
+
+    private List<Integer> feed(int account_id, Integer limit) throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/" + account_id + "/feed" + (limit == null ? "" : "?limit=" + limit));
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for(Message m : objectMapper.readValue(response.body(), Message[].class))
+            ids.add(m.getMessage_id());
+        return ids;
+    }
+
+    private void post(int posted_by, String text, long epoch) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "/messages",
+                "{\"posted_by\": " + posted_by + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + epoch + "}");
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder(URI.create("http://localhost:8080" + path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.GroupCommitMessageWriter;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+import Util.PrometheusTextWriter;
+
+public class GroupCommitMessageWriterTest {
+    GroupCommitMessageWriter writer;
+
+    /**
+     * Before every test, reset the database and start a writer that waits up to 50ms to fill batches of 16.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        writer = new GroupCommitMessageWriter(new SocialMediaDAO(), 16, 50000);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    /**
+     * Messages submitted together should be committed in fewer transactions than messages, and each caller should
+     * get back its own message with a distinct generated ID.
+     */
+    @Test
+    public void concurrentSubmissionsAreCoalesced() {
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for(int i = 0; i < 40; i++)
+            futures.add(writer.submit(new Message(1, "message " + i, 1669947800 + i)));
+
+        Set<Integer> ids = new HashSet<>();
+        for(int i = 0; i < futures.size(); i++){
+            Message created = futures.get(i).join();
+            Assert.assertNotNull(created);
+            Assert.assertEquals("message " + i, created.getMessage_text());
+            ids.add(created.getMessage_id());
+        }
+        Assert.assertEquals(40, ids.size());
+        Assert.assertEquals(40, writer.getMessageCount());
+        Assert.assertTrue(writer.getBatchCount() < 40);
+        Assert.assertTrue(writer.getMaxObservedBatchSize() <= 16);
+    }
+
+    /**
+     * A message for an account that does not exist should fail on its own without failing the rest of its batch.
+     */
+    @Test
+    public void badMessageOnlyFailsItsOwnCaller() {
+        CompletableFuture<Message> good = writer.submit(new Message(1, "good", 1669947800));
+        CompletableFuture<Message> bad = writer.submit(new Message(99, "bad", 1669947801));
+
+        Assert.assertNotNull(good.join());
+        Assert.assertNull(bad.join());
+    }
+
+    /**
+     * A service with group commit enabled should export the writer's batch sizes and queue depth.
+     */
+    @Test
+    public void batchSizesAreExported() {
+        System.setProperty("socialmedia.groupCommit.enabled", "true");
+        SocialMediaService service;
+        try{
+            service = new SocialMediaService();
+        }finally{
+            System.clearProperty("socialmedia.groupCommit.enabled");
+        }
+        try{
+            Assert.assertNotNull(service.createMessage(new Message(1, "alone in its batch", 1669947800)));
+            PrometheusTextWriter w = new PrometheusTextWriter();
+            service.writeMetrics(w);
+            String body = w.toString();
+            Assert.assertTrue(body, body.contains("group_commit_batch_size_bucket{le=\"1\"} 1\n"));
+            Assert.assertTrue(body, body.contains("group_commit_batch_size_bucket{le=\"64\"} 1\n"));
+            Assert.assertTrue(body, body.contains("group_commit_batch_size_count 1\n"));
+            Assert.assertTrue(body, body.contains("group_commit_batch_size_sum 1\n"));
+            Assert.assertTrue(body, body.contains("group_commit_queue_depth_max "));
+        }finally{
+            service.close();
+        }
+    }
+
+    /**
+     * An insert that throws should fail its caller's future without stopping the flusher, and a message submitted
+     * after close() should still be inserted.
+     */
+    @Test
+    public void failedInsertDoesNotStopTheFlusher() {
+        writer.close();
+        boolean[] failing = {true};
+        writer = new GroupCommitMessageWriter(new SocialMediaDAO(){
+            @Override
+            public List<Message> createMessages(List<Message> messages){
+                if(failing[0])
+                    throw new IllegalStateException("no connection");
+                return super.createMessages(messages);
+            }
+
+            @Override
+            public Message createMessage(Message m){
+                if(failing[0])
+                    throw new IllegalStateException("no connection");
+                return super.createMessage(m);
+            }
+        }, 16, 1000);
+
+        CompletableFuture<Message> failed = writer.submit(new Message(1, "lost", 1669947800));
+        Assert.assertTrue(failed.handle((m, e) -> e != null).join());
+
+        failing[0] = false;
+        Assert.assertNotNull(writer.submit(new Message(1, "kept", 1669947801)).join());
+        writer.close();
+        Assert.assertNotNull(writer.submit(new Message(1, "after close", 1669947802)).join());
+        Assert.assertEquals(1, writer.getFallbackCount());
+    }
+}
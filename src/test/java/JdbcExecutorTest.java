@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.JdbcExecutor;
+import io.javalin.Javalin;
+
+public class JdbcExecutorTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Requests answered on the executor should behave as before, including errors thrown by the handler, and be
+     * counted in the executor's and the route's metrics.
+     */
+    @Test
+    public void databaseWorkRunsOnTheExecutor() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send("GET", "/messages", null).statusCode());
+        Assert.assertEquals(400, send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"\",\"time_posted_epoch\":1}").statusCode());
+        Assert.assertEquals(500, send("POST", "/messages", "not json").statusCode());
+        Assert.assertEquals(200, send("GET", "/messages/1", null).statusCode());
+
+        String metrics = send("GET", "/metrics", null).body();
+        Assert.assertTrue(metrics, metrics.contains("jdbc_executor_queue_depth 0\n"));
+        Assert.assertTrue(metrics, metrics.contains("jdbc_executor_rejected_total 0\n"));
+        // the listing cached message 1's JSON, so GET /messages/1 was answered without the executor
+        Assert.assertTrue(metrics, metrics.contains("jdbc_executor_wait_seconds_count 3\n"));
+        Assert.assertTrue(metrics, metrics.contains("http_server_requests_seconds_count{method=\"POST\",route=\"/messages\",status=\"4xx\"} 1\n"));
+        Assert.assertTrue(metrics, metrics.contains("http_server_requests_seconds_count{method=\"POST\",route=\"/messages\",status=\"5xx\"} 1\n"));
+    }
+
+    /**
+     * A message whose JSON is cached should be served on the request thread, without waiting for the executor.
+     */
+    @Test
+    public void cachedMessagesSkipTheExecutor() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send("GET", "/messages/1", null).statusCode());
+        String before = send("GET", "/metrics", null).body();
+        Assert.assertEquals(200, send("GET", "/messages/1", null).statusCode());
+        String after = send("GET", "/metrics", null).body();
+        Assert.assertTrue(before, before.contains("jdbc_executor_wait_seconds_count 1\n"));
+        Assert.assertTrue(after, after.contains("jdbc_executor_wait_seconds_count 1\n"));
+    }
+
+    /**
+     * Tasks beyond the threads should queue, and tasks beyond the queue should be refused; a task's exception
+     * should complete its future.
+     */
+    @Test
+    public void executorQueuesThenRejects() throws InterruptedException {
+        JdbcExecutor executor = new JdbcExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> running = executor.submit(release::await);
+        CompletableFuture<Void> queued = executor.submit(() -> { throw new IllegalStateException("failed"); });
+        Assert.assertNotNull(running);
+        Assert.assertNotNull(queued);
+        Assert.assertNull(executor.submit(() -> {}));
+        Assert.assertEquals(1, executor.getQueueDepth());
+        Assert.assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        try{
+            queued.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        }catch(ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }catch(TimeoutException e){
+            Assert.fail("queued task did not run");
+        }
+        Assert.assertTrue(running.isDone());
+        Assert.assertEquals(2, executor.getWaitTimes().getCount());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
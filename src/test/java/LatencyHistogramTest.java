@@ -0,0 +1,68 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    /**
+     * Percentiles of 1..100000 should come back within 1% of the exact answer.
+     */
+    @Test
+    public void percentilesWithinOnePercent(){
+        LatencyHistogram h = new LatencyHistogram(TimeUnit.SECONDS.toNanos(10));
+        for(long v = 1; v <= 100000; v++)
+            h.record(v);
+        Assert.assertEquals(100000, h.getCount());
+        assertClose(50000, h.getValueAtPercentile(50));
+        assertClose(99000, h.getValueAtPercentile(99));
+        assertClose(99900, h.getValueAtPercentile(99.9));
+        Assert.assertEquals(100000, h.getValueAtPercentile(100));
+        Assert.assertEquals(50000.5, h.getMean(), 0.001);
+    }
+
+    /**
+     * Small values are exact, values above the trackable range are clamped, and merging adds counts.
+     */
+    @Test
+    public void smallValuesExactLargeValuesClampedAndMerge(){
+        LatencyHistogram a = new LatencyHistogram(1000000);
+        LatencyHistogram b = new LatencyHistogram(1000000);
+        a.record(7);
+        a.record(200);
+        b.record(5000000);
+        a.add(b);
+        Assert.assertEquals(3, a.getCount());
+        Assert.assertEquals(7, a.getValueAtPercentile(10));
+        Assert.assertEquals(200, a.getValueAtPercentile(60));
+        Assert.assertEquals(1000000, a.getMax());
+        Assert.assertEquals(2, a.getCountAtOrBelow(255));
+        a.reset();
+        Assert.assertEquals(0, a.getCount());
+        Assert.assertEquals(0, a.getValueAtPercentile(99));
+    }
+
+    /**
+     * Recording is on every request's path, so it must not allocate.
+     */
+    @Test
+    public void recordDoesNotAllocate(){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyHistogram h = new LatencyHistogram(TimeUnit.MINUTES.toNanos(1));
+        for(int i = 0; i < 200000; i++)
+            h.record(i * 997L);
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < 200000; i++)
+            h.record(i * 997L);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        Assert.assertTrue("record() allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private void assertClose(long expected, long actual){
+        Assert.assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 100);
+    }
+}
@@ -0,0 +1,289 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import Controller.SocialMediaController;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+/**
+ * An open-loop HTTP load generator for sizing nodes. It starts the app in this JVM on an ephemeral port, seeds the
+ * database, and sends a weighted mix of register, login, post, read, list, patch and delete requests at a fixed rate
+ * for a fixed time, spread over several HTTP clients (each with its own connection pool).
+ *
+ * Requests are scheduled at fixed intervals and sent on schedule, whether or not earlier responses have arrived.
+ * Latency is measured from when a request was scheduled to be sent, not from when it actually was, so a server
+ * stall shows up in the percentiles of every request it delays instead of being hidden by the generator slowing
+ * down (coordinated omission). Percentiles come from a LatencyHistogram per operation.
+ *
+ * This is not a unit test and is not run by surefire. Run it with, for example:
+ *
+ *     mvn test-compile exec:java -Dexec.mainClass=LoadGenerator -Dload.rate=2000 -Dload.seconds=30
+ *
+ * Settings (system properties):
+ *   load.rate            requests per second (default 1000)
+ *   load.seconds         measured run length (default 30)
+ *   load.warmupSeconds   run length before measuring starts (default 5)
+ *   load.clients         HTTP clients the requests are spread over (default 16)
+ *   load.maxInFlight     requests allowed in flight before new ones are skipped, so a stalled server cannot exhaust
+ *                        the generator; skipped requests are reported (default 20000)
+ *   load.users           accounts seeded before the run (default 1000)
+ *   load.messages        messages seeded before the run (default 10000)
+ *   load.mix             operation weights (default register:2,login:8,post:15,read:50,list:15,patch:5,delete:5)
+ *
+ * The generator and the server share the machine; leave CPU headroom, and check the "late" figure, which is the
+ * worst time a request was sent after its scheduled time. If it is large the generator itself is saturated.
+ */
+public class LoadGenerator {
+    static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    enum Operation { register, login, post, read, list, patch, delete }
+
+    final URI base;
+    final int users;
+    final int messages;
+    final HttpClient[] clients;
+    final Operation[] schedule;
+    final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    final AtomicInteger registered = new AtomicInteger();
+    final ConcurrentLinkedQueue<Integer> postedIds = new ConcurrentLinkedQueue<>();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final LongAdder skipped = new LongAdder();
+
+    LoadGenerator(URI base, int users, int messages, HttpClient[] clients, Map<Operation, Integer> mix){
+        this.base = base;
+        this.users = users;
+        this.messages = messages;
+        this.clients = clients;
+        List<Operation> ops = new ArrayList<>();
+        for(Map.Entry<Operation, Integer> e : mix.entrySet())
+            for(int i = 0; i < e.getValue(); i++)
+                ops.add(e.getKey());
+        if(ops.isEmpty())
+            throw new IllegalArgumentException("load.mix has no operations");
+        this.schedule = ops.toArray(new Operation[0]);
+        for(Operation op : Operation.values())
+            stats.put(op, new Stats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("load.rate", 1000);
+        int seconds = Integer.getInteger("load.seconds", 30);
+        int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+        int clientCount = Integer.getInteger("load.clients", 16);
+        int maxInFlight = Integer.getInteger("load.maxInFlight", 20000);
+        int users = Integer.getInteger("load.users", 1000);
+        int messages = Integer.getInteger("load.messages", 10000);
+        Map<Operation, Integer> mix = parseMix(System.getProperty("load.mix",
+                "register:2,login:8,post:15,read:50,list:15,patch:5,delete:5"));
+
+        ConnectionUtil.resetTestDatabase();
+        seed(users, messages);
+
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        try{
+            HttpClient[] clients = new HttpClient[clientCount];
+            for(int i = 0; i < clientCount; i++)
+                clients[i] = HttpClient.newBuilder().executor(clientExecutor).connectTimeout(Duration.ofSeconds(10)).build();
+            LoadGenerator generator = new LoadGenerator(URI.create("http://localhost:" + app.port()), users, messages, clients, mix);
+            System.out.printf("open-loop load: %d req/s for %ds after %ds warmup, %d clients, mix %s%n",
+                    rate, seconds, warmupSeconds, clientCount, mix);
+            long late = generator.run(rate, warmupSeconds, seconds, maxInFlight);
+            generator.report(seconds, late);
+        }finally{
+            app.stop();
+            clientExecutor.shutdownNow();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Sends requests on a fixed schedule until the run is over, then waits for the outstanding responses.
+     *
+     * @return the worst lag, in nanoseconds, between a request's scheduled and actual send time.
+     */
+    long run(int rate, int warmupSeconds, int seconds, int maxInFlight) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        long worstLag = 0;
+        for(long i = 0; ; i++){
+            long intended = start + i * interval;
+            if(intended >= end)
+                break;
+            long wait = intended - System.nanoTime();
+            if(wait > 0)
+                LockSupport.parkNanos(wait);
+            else
+                worstLag = Math.max(worstLag, -wait);
+            boolean measured = intended >= measureFrom;
+            if(inFlight.get() >= maxInFlight){
+                if(measured)
+                    skipped.increment();
+                continue;
+            }
+            Operation op = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+            send(op, clients[(int) (i % clients.length)], intended, measured);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while(inFlight.get() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        return worstLag;
+    }
+
+    void send(Operation op, HttpClient client, long intended, boolean measured){
+        HttpRequest request = request(op);
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long latency = System.nanoTime() - intended;
+            inFlight.decrementAndGet();
+            if(error == null && response.statusCode() == 200 && op == Operation.post)
+                rememberPostedId(response.body());
+            if(!measured)
+                return;
+            Stats s = stats.get(op);
+            s.latency.record(latency);
+            if(error != null || response.statusCode() != 200)
+                s.errors.increment();
+        });
+    }
+
+    HttpRequest request(Operation op){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int user = 1 + random.nextInt(users);
+        switch(op){
+            case register:
+                return post("/register", "{\"username\":\"loaduser" + registered.incrementAndGet() + "\",\"password\":\"password\"}");
+            case login:
+                return post("/login", "{\"username\":\"" + username(user) + "\",\"password\":\"password\"}");
+            case post:
+                return post("/messages", "{\"posted_by\":" + user + ",\"message_text\":\"load test message\",\"time_posted_epoch\":"
+                        + System.currentTimeMillis() / 1000 + "}");
+            case read:
+                return HttpRequest.newBuilder(base.resolve("/messages/" + (1 + random.nextInt(messages)))).timeout(Duration.ofSeconds(60)).build();
+            case list:
+                return HttpRequest.newBuilder(base.resolve("/accounts/" + user + "/messages")).timeout(Duration.ofSeconds(60)).build();
+            case patch:
+                return HttpRequest.newBuilder(base.resolve("/messages/" + (1 + random.nextInt(messages))))
+                        .timeout(Duration.ofSeconds(60))
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"edited by the load test\"}"))
+                        .build();
+            default:
+                // delete what the load test posted, so the seeded messages stay readable; before any post completes
+                // this deletes an ID that does not exist
+                Integer id = postedIds.poll();
+                return HttpRequest.newBuilder(base.resolve("/messages/" + (id == null ? Integer.MAX_VALUE : id)))
+                        .timeout(Duration.ofSeconds(60)).DELETE().build();
+        }
+    }
+
+    HttpRequest post(String path, String json){
+        return HttpRequest.newBuilder(base.resolve(path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    void rememberPostedId(String body){
+        int start = body.indexOf("\"message_id\":");
+        if(start < 0)
+            return;
+        int i = start + "\"message_id\":".length();
+        int end = i;
+        while(end < body.length() && Character.isDigit(body.charAt(end)))
+            end++;
+        if(end > i)
+            postedIds.add(Integer.parseInt(body.substring(i, end)));
+    }
+
+    void report(int seconds, long worstLagNanos){
+        System.out.printf("%-9s %9s %9s %8s %9s %9s %9s %9s %9s%n",
+                "op", "count", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        LatencyHistogram all = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        long errors = 0;
+        for(Map.Entry<Operation, Stats> e : stats.entrySet()){
+            Stats s = e.getValue();
+            if(s.latency.getCount() == 0)
+                continue;
+            print(e.getKey().name(), s.latency, s.errors.sum(), seconds);
+            all.add(s.latency);
+            errors += s.errors.sum();
+        }
+        print("all", all, errors, seconds);
+        System.out.printf("skipped (too many in flight): %d, late: %.2f ms%n", skipped.sum(), worstLagNanos / 1e6);
+    }
+
+    static void print(String name, LatencyHistogram h, long errors, int seconds){
+        System.out.printf("%-9s %9d %9.0f %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, h.getCount(),
+                h.getCount() / (double) seconds, errors,
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6, h.getValueAtPercentile(99) / 1e6,
+                h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+    }
+
+    static Map<Operation, Integer> parseMix(String mix){
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for(String part : mix.split(",")){
+            String[] kv = part.trim().split(":");
+            weights.put(Operation.valueOf(kv[0].trim()), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    static String username(int user){
+        return user == 1 ? "testuser1" : "seeduser" + user;
+    }
+
+    /**
+     * Adds accounts 2..users (account 1 is testuser1 from the schema script) and messages 2..messages, spread over
+     * those accounts. Every account's password is "password".
+     */
+    static void seed(int users, int messages) throws SQLException {
+        try(Connection conn = ConnectionPool.getConnection()){
+            conn.setAutoCommit(false);
+            PreparedStatement accounts = conn.prepareStatement("insert into account (username, password) values (?, 'password')");
+            for(int i = 2; i <= users; i++){
+                accounts.setString(1, username(i));
+                accounts.addBatch();
+            }
+            accounts.executeBatch();
+            PreparedStatement ps = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)");
+            for(int i = 2; i <= messages; i++){
+                ps.setInt(1, 1 + i % users);
+                ps.setString(2, "seeded message " + i);
+                ps.setLong(3, 1669947792L + i);
+                ps.addBatch();
+                if(i % 1000 == 0)
+                    ps.executeBatch();
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+    }
+
+    static class Stats {
+        final LatencyHistogram latency = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        final LongAdder errors = new LongAdder();
+    }
+}
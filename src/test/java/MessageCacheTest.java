@@ -0,0 +1,89 @@
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.MessageCache;
+import Service.SocialMediaService;
+
+public class MessageCacheTest {
+
+    /**
+     * Repeated reads of the same message through the service should only reach the DAO once.
+     */
+    @Test
+    public void repeatedReadsAreServedFromCache() {
+        SocialMediaDAO dao = mock(SocialMediaDAO.class);
+        when(dao.getMessageById(1)).thenReturn(new Message(1, 1, "test message 1", 1669947792));
+        SocialMediaService service = new SocialMediaService(dao);
+
+        for(int i = 0; i < 5; i++)
+            Assert.assertEquals("test message 1", service.getMessageById(1).getMessage_text());
+
+        verify(dao, times(1)).getMessageById(1);
+        Assert.assertEquals(4, service.getMessageCache().getHitCount());
+        Assert.assertEquals(1, service.getMessageCache().getMissCount());
+    }
+
+    /**
+     * Updating or deleting a message through the service should drop the cached copy.
+     */
+    @Test
+    public void writesInvalidate() {
+        SocialMediaDAO dao = mock(SocialMediaDAO.class);
+        Message original = new Message(1, 1, "test message 1", 1669947792);
+        Message updated = new Message(1, 1, "updated message", 1669947792);
+        when(dao.getMessageById(1)).thenReturn(original, updated);
+        when(dao.updateMessageTextById(updated, 1)).thenReturn(updated);
+        when(dao.deleteMessageById(1)).thenReturn(updated);
+        SocialMediaService service = new SocialMediaService(dao);
+
+        service.getMessageById(1);
+        service.updateMessageTextById(updated, 1);
+        Assert.assertEquals(updated, service.getMessageById(1));
+
+        service.deleteMessageById(1);
+        when(dao.getMessageById(1)).thenReturn(null);
+        Assert.assertNull(service.getMessageById(1));
+    }
+
+    /**
+     * A scan over many messages read once each should not push out a message that keeps being read.
+     */
+    @Test
+    public void scansDoNotEvictPopularMessages() {
+        MessageCache cache = new MessageCache(100);
+        Message popular = new Message(1, 1, "popular", 1669947792);
+        cache.put(popular);
+        for(int i = 0; i < 20; i++)
+            cache.get(1);
+
+        for(int id = 1000; id < 3000; id++){
+            if(id % 100 == 0)
+                Assert.assertEquals(popular, cache.get(1));
+            if(cache.get(id) == null)
+                cache.put(new Message(id, 1, "scan", 1669947792));
+        }
+
+        Assert.assertEquals(popular, cache.get(1));
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    /**
+     * A row loaded before an invalidation must not be cached, since it may predate the write.
+     */
+    @Test
+    public void loadRacingAWriteIsDropped() {
+        MessageCache cache = new MessageCache(100);
+        long stamp = cache.generation();
+        cache.invalidate(1);
+        cache.putIfUnchanged(new Message(1, 1, "stale", 1669947792), stamp);
+        Assert.assertNull(cache.get(1));
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.MessageEventHub;
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageEventStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Creating, updating and deleting a message should each reach a subscriber as an event carrying the message.
+     */
+    @Test
+    public void writesArePushedAsEvents() throws Exception {
+        EventReader events = open("/messages/stream", null);
+        Message created = objectMapper.readValue(send("POST", "/messages",
+                "{\"posted_by\":1,\"message_text\":\"streamed\",\"time_posted_epoch\":1669947800}").body(), Message.class);
+        send("PATCH", "/messages/" + created.getMessage_id(), "{\"message_text\":\"edited\"}");
+        send("DELETE", "/messages/" + created.getMessage_id(), null);
+
+        Map<String, String> event = events.next();
+        Assert.assertEquals("created", event.get("event"));
+        Assert.assertEquals(created, objectMapper.readValue(event.get("data"), Message.class));
+        event = events.next();
+        Assert.assertEquals("updated", event.get("event"));
+        Assert.assertEquals("edited", objectMapper.readValue(event.get("data"), Message.class).getMessage_text());
+        event = events.next();
+        Assert.assertEquals("deleted", event.get("event"));
+        Assert.assertEquals(created.getMessage_id(), objectMapper.readValue(event.get("data"), Message.class).getMessage_id());
+        events.close();
+    }
+
+    /**
+     * A stream filtered by posted_by should only see that account's messages.
+     */
+    @Test
+    public void streamsCanBeFilteredByAuthor() throws Exception {
+        send("POST", "/register", "{\"username\":\"second\",\"password\":\"password\"}");
+        EventReader events = open("/messages/stream?posted_by=2", null);
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"by one\",\"time_posted_epoch\":1669947800}");
+        send("POST", "/messages", "{\"posted_by\":2,\"message_text\":\"by two\",\"time_posted_epoch\":1669947801}");
+        Assert.assertEquals("by two", objectMapper.readValue(events.next().get("data"), Message.class).getMessage_text());
+        events.close();
+        Assert.assertEquals(400, send("GET", "/messages/stream?posted_by=x", null).statusCode());
+    }
+
+    /**
+     * A client reconnecting with Last-Event-ID should be sent the events it missed, and a client with an unknown
+     * ID should be told to reset.
+     */
+    @Test
+    public void reconnectingResumesFromLastEventId() throws Exception {
+        EventReader events = open("/messages/stream", null);
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"first\",\"time_posted_epoch\":1669947800}");
+        String lastEventId = events.next().get("id");
+        events.close();
+
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"second\",\"time_posted_epoch\":1669947801}");
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"third\",\"time_posted_epoch\":1669947802}");
+
+        events = open("/messages/stream", lastEventId);
+        Assert.assertEquals("second", objectMapper.readValue(events.next().get("data"), Message.class).getMessage_text());
+        Assert.assertEquals("third", objectMapper.readValue(events.next().get("data"), Message.class).getMessage_text());
+        events.close();
+
+        events = open("/messages/stream", "unknown-1");
+        Assert.assertEquals("reset", events.next().get("event"));
+        events.close();
+    }
+
+    /**
+     * With the DISCONNECT policy a subscriber that falls behind its queue is closed, and can resume from the ring;
+     * with DROP it stays open and misses the overflowing events.
+     */
+    @Test
+    public void slowSubscribersAreDisconnectedOrSkipEvents() throws InterruptedException {
+        MessageEventHub hub = new MessageEventHub(new JsonFactory(), 16, 2, 10, MessageEventHub.OverflowPolicy.DISCONNECT);
+        MessageEventHub.Subscriber slow = hub.subscribe(0, null);
+        for(int i = 1; i <= 3; i++)
+            hub.messageCreated(new Message(i, 1, "message " + i, 1669947800L + i));
+        Assert.assertNull(slow.take(10));
+        Assert.assertEquals(0, hub.getSubscriberCount());
+        String resumed = new String(hub.subscribe(0, "x-0").take(10), StandardCharsets.UTF_8);
+        Assert.assertTrue(resumed.startsWith("id: ") && resumed.contains("event: reset"));
+
+        hub = new MessageEventHub(new JsonFactory(), 16, 2, 10, MessageEventHub.OverflowPolicy.DROP);
+        slow = hub.subscribe(0, null);
+        for(int i = 1; i <= 3; i++)
+            hub.messageCreated(new Message(i, 1, "message " + i, 1669947800L + i));
+        Assert.assertTrue(new String(slow.take(10), StandardCharsets.UTF_8).contains("message 1"));
+        Assert.assertTrue(new String(slow.take(10), StandardCharsets.UTF_8).contains("message 2"));
+        Assert.assertNull(slow.poll());
+        Assert.assertEquals(1, hub.getSubscriberCount());
+    }
+
+    /**
+     * Beyond maxSubscribers, new streams should be refused.
+     */
+    @Test
+    public void subscribersAreCapped() {
+        MessageEventHub hub = new MessageEventHub(new JsonFactory(), 16, 2, 1, MessageEventHub.OverflowPolicy.DISCONNECT);
+        MessageEventHub.Subscriber first = hub.subscribe(0, null);
+        Assert.assertNotNull(first);
+        Assert.assertNull(hub.subscribe(0, null));
+        hub.unsubscribe(first);
+        Assert.assertNotNull(hub.subscribe(0, null));
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private EventReader open(String path, String lastEventId) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path));
+        if(lastEventId != null)
+            request.header("Last-Event-ID", lastEventId);
+        HttpResponse<InputStream> response = webClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("text/event-stream", response.headers().firstValue("Content-Type").get());
+        return new EventReader(response.body());
+    }
+
+    /**
+     * Reads events on a background thread, so a test waiting for one can time out instead of hanging.
+     */
+    private static class EventReader {
+        private final InputStream in;
+        private final BlockingQueue<Map<String, String>> events = new LinkedBlockingQueue<>();
+
+        EventReader(InputStream in){
+            this.in = in;
+            Thread reader = new Thread(() -> {
+                try(BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))){
+                    Map<String, String> event = new HashMap<>();
+                    String line;
+                    while((line = lines.readLine()) != null){
+                        if(line.isEmpty()){
+                            if(!event.isEmpty())
+                                events.add(event);
+                            event = new HashMap<>();
+                        }else if(!line.startsWith(":")){
+                            int colon = line.indexOf(':');
+                            event.put(line.substring(0, colon), line.substring(colon + 1).trim());
+                        }
+                    }
+                }catch(IOException e){
+                    // closed by the test
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        Map<String, String> next() throws InterruptedException {
+            Map<String, String> event = events.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("no event within 5 seconds", event);
+            return event;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
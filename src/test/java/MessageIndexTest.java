@@ -0,0 +1,73 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.SocialMediaDAO;
+import Util.ConnectionUtil;
+
+public class MessageIndexTest {
+
+    /**
+     * Before every test, reset the database so the indexes from SocialMedia.sql exist.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * The full listings should be read straight off an index in timeline order, with no scan and no sort.
+     */
+    @Test
+    public void fullListingsWalkAnIndex() throws SQLException {
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_ALL_MESSAGES), "MESSAGE_TIME_IDX");
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_MESSAGES_BY_USER, 1), "MESSAGE_POSTED_BY_TIME_IDX");
+    }
+
+    /**
+     * Forward pages should seek into the index at the cursor and read rows in index order.
+     */
+    @Test
+    public void forwardPagesSeekAnIndex() throws SQLException {
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE, 10), "MESSAGE_TIME_IDX");
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE_AFTER, 1669947792L, 1669947792L, 1, 10), "MESSAGE_TIME_IDX");
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE_BY_USER, 1, 10), "MESSAGE_POSTED_BY_TIME_IDX");
+        assertIndexSorted(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE_BY_USER_AFTER, 1, 1669947792L, 1669947792L, 1, 10), "MESSAGE_POSTED_BY_TIME_IDX");
+    }
+
+    /**
+     * Backward pages run against the index order, but should still use an index range rather than a table scan.
+     */
+    @Test
+    public void backwardPagesUseAnIndexRange() throws SQLException {
+        assertUsesIndex(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE_BEFORE, 1669947792L, 1669947792L, 1, 10), "MESSAGE_TIME_IDX");
+        assertUsesIndex(explain(SocialMediaDAO.SELECT_MESSAGES_PAGE_BY_USER_BEFORE, 1, 1669947792L, 1669947792L, 1, 10), "MESSAGE_POSTED_BY_TIME_IDX");
+    }
+
+    private void assertUsesIndex(String plan, String index){
+        Assert.assertFalse("table scan in plan: " + plan, plan.contains("tableScan"));
+        Assert.assertTrue("expected " + index + " in plan: " + plan, plan.contains(index));
+    }
+
+    private void assertIndexSorted(String plan, String index){
+        assertUsesIndex(plan, index);
+        Assert.assertTrue("expected no sort in plan: " + plan, plan.contains("index sorted"));
+    }
+
+    private String explain(String sql, Object... params) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        PreparedStatement ps = conn.prepareStatement("EXPLAIN " + sql);
+        for(int i = 0; i < params.length; i++)
+            ps.setObject(i + 1, params[i]);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        String plan = rs.getString(1);
+        conn.close();
+        return plan;
+    }
+}
@@ -0,0 +1,80 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.MessageJsonCache;
+import Model.Message;
+import Model.MessagePage;
+import Service.ResourceVersions;
+import Util.ByteArrayPool;
+
+public class MessageJsonCacheTest {
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * A fragment should be reused until its message is written, and then be serialized again from the new copy.
+     */
+    @Test
+    public void fragmentReusedUntilMessageChanges() throws Exception {
+        ResourceVersions versions = new ResourceVersions(1024);
+        MessageJsonCache cache = new MessageJsonCache(new JsonFactory(), versions, 100);
+        Message m = new Message(1, 1, "with \"quotes\" and \u00fcnicode", 1669947792);
+
+        byte[] json = cache.fragment(m, cache.stamp());
+        Assert.assertEquals(m, objectMapper.readValue(json, Message.class));
+        Assert.assertSame(json, cache.get(1));
+        Assert.assertSame(json, cache.fragment(m, cache.stamp()));
+
+        Message edited = new Message(1, 1, "edited", 1669947792);
+        versions.messageUpdated(edited);
+        cache.messageUpdated(edited);
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(edited, objectMapper.readValue(cache.fragment(edited, cache.stamp()), Message.class));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * A message read under an older stamp than its latest write must not be cached, since it may predate the write.
+     */
+    @Test
+    public void messageWrittenAfterStampIsNotCached(){
+        ResourceVersions versions = new ResourceVersions(1024);
+        MessageJsonCache cache = new MessageJsonCache(new JsonFactory(), versions, 100);
+        long stamp = cache.stamp();
+        Message m = new Message(1, 1, "old", 1669947792);
+        versions.messageUpdated(new Message(1, 1, "new", 1669947792));
+        cache.fragment(m, stamp);
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * Arrays and pages assembled from fragments should parse back to the same messages.
+     */
+    @Test
+    public void arraysAndPagesAssembledFromFragments() throws Exception {
+        MessageJsonCache cache = new MessageJsonCache(new JsonFactory(), new ResourceVersions(1024), 100);
+        List<Message> messages = List.of(new Message(1, 1, "one", 1), new Message(2, 1, "two", 2));
+
+        ByteArrayPool.Buffer array = cache.array(messages, cache.stamp());
+        Assert.assertEquals(messages, List.of(objectMapper.readValue(array.toByteArray(), Message[].class)));
+        cache.release(array);
+
+        ByteArrayPool.Buffer page = cache.page(messages, "abc_-", cache.stamp());
+        MessagePage parsed = objectMapper.readValue(new String(page.toByteArray(), StandardCharsets.UTF_8), MessagePage.class);
+        cache.release(page);
+        Assert.assertEquals(messages, parsed.getMessages());
+        Assert.assertEquals("abc_-", parsed.getNext());
+
+        ByteArrayPool.Buffer empty = cache.page(List.of(), null, cache.stamp());
+        Assert.assertEquals("{\"messages\":[],\"next\":null}", new String(empty.toByteArray(), StandardCharsets.UTF_8));
+        cache.release(empty);
+        Assert.assertEquals(2, cache.getHitCount());
+    }
+}
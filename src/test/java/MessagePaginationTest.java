@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessagePaginationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add a few more messages for testuser1 (two of them sharing a
+     * timestamp), restart the Javalin app, and create a new webClient and ObjectMapper.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessage("test message 2", 1669947800);
+        insertMessage("test message 3", 1669947800);
+        insertMessage("test message 4", 1669947900);
+        insertMessage("test message 5", 1669948000);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Following next cursors through GET localhost:8080/messages?limit=2 should visit every message exactly once,
+     * oldest first, and the last page should have no next cursor.
+     */
+    @Test
+    public void pageForwardThroughAllMessages() throws IOException, InterruptedException {
+        List<Integer> seen = new ArrayList<>();
+        String url = "http://localhost:8080/messages?limit=2";
+        int pages = 0;
+        while(url != null){
+            MessagePage page = getPage(url);
+            pages++;
+            for(Message m : page.getMessages())
+                seen.add(m.getMessage_id());
+            url = page.getNext() == null ? null : "http://localhost:8080/messages?limit=2&after=" + page.getNext();
+        }
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5), seen);
+    }
+
+    /**
+     * A user's messages are listed newest first; paging backward from a cursor returns the rows just before it.
+     */
+    @Test
+    public void pageUserMessagesBothDirections() throws IOException, InterruptedException {
+        MessagePage first = getPage("http://localhost:8080/accounts/1/messages?limit=3");
+        Assert.assertEquals(List.of(5, 4, 2), ids(first));
+        Assert.assertNotNull(first.getNext());
+
+        MessagePage second = getPage("http://localhost:8080/accounts/1/messages?limit=3&after=" + first.getNext());
+        Assert.assertEquals(List.of(3, 1), ids(second));
+        Assert.assertNull(second.getNext());
+
+        MessagePage back = getPage("http://localhost:8080/accounts/1/messages?limit=2&before=" + first.getNext());
+        Assert.assertEquals(List.of(5, 4), ids(back));
+        Assert.assertNull(back.getNext());
+    }
+
+    /**
+     * A malformed cursor, an out of range limit, or both after and before should be rejected with a 400.
+     */
+    @Test
+    public void invalidPagingParametersRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, status("http://localhost:8080/messages?after=not-a-cursor"));
+        Assert.assertEquals(400, status("http://localhost:8080/messages?limit=0"));
+        Assert.assertEquals(400, status("http://localhost:8080/messages?after=MTox&before=MTox"));
+    }
+
+    /**
+     * A page query that fails should be a 500, not an empty page whose null cursor looks like the end of the listing.
+     */
+    @Test
+    public void failedPageQueryIsAServerError() throws IOException, InterruptedException, SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        conn.createStatement().execute("alter table message rename to message_hidden");
+        try{
+            Assert.assertEquals(500, status("http://localhost:8080/messages?limit=2"));
+            Assert.assertEquals(500, status("http://localhost:8080/accounts/1/messages?limit=2"));
+        }finally{
+            // resetTestDatabase() recreates the table by name, so put it back for the tests that follow
+            conn.createStatement().execute("alter table message_hidden rename to message");
+        }
+    }
+
+    private MessagePage getPage(String url) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessagePage.class);
+    }
+
+    private int status(String url) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+
+    private List<Integer> ids(MessagePage page){
+        List<Integer> ids = new ArrayList<>();
+        for(Message m : page.getMessages())
+            ids.add(m.getMessage_id());
+        return ids;
+    }
+
+    private void insertMessage(String text, long epoch){
+        try {
+            Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+            ps.setString(1, text);
+            ps.setLong(2, epoch);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
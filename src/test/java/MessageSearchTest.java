@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageRowWriter;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.MessageSearchIndex;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+import Util.PrometheusTextWriter;
+import io.javalin.Javalin;
+
+public class MessageSearchTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and add messages directly, so that they are only searchable if the
+     * index is rebuilt from the table at startup. Then restart the Javalin app.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessage("Cats are great, cats are fun", 1669947800);
+        insertMessage("Dogs are great", 1669947900);
+        insertMessage("a great day for cats and dogs", 1669948000);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Messages already in the table should be found, ranked by relevance by default or newest first on request.
+     */
+    @Test
+    public void searchesExistingMessagesByRelevanceAndRecency() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(2, 4), search("CATS", null));
+        Assert.assertEquals(List.of(4, 3), search("great dogs", "recent"));
+        Assert.assertEquals(List.of(), search("giraffe", null));
+    }
+
+    /**
+     * Creating, updating and deleting messages should be reflected in the next search.
+     */
+    @Test
+    public void indexFollowsWrites() throws IOException, InterruptedException {
+        send("POST", "/messages", "{\"posted_by\": 1, \"message_text\": \"giraffes are tall\", \"time_posted_epoch\": 1669949000}");
+        Assert.assertEquals(List.of(5), search("giraffes", null));
+
+        send("PATCH", "/messages/2", "{\"message_text\": \"birds only now\"}");
+        Assert.assertEquals(List.of(4), search("cats", null));
+        Assert.assertEquals(List.of(2), search("birds", null));
+
+        send("DELETE", "/messages/4", "");
+        Assert.assertEquals(List.of(), search("cats", null));
+    }
+
+    /**
+     * A missing query or an out of range limit should be rejected with a 400.
+     */
+    @Test
+    public void invalidSearchesRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=cats&limit=0").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=cats&sort=sideways").statusCode());
+    }
+
+    /**
+     * Many updates to the same messages should leave only live postings once the index compacts itself.
+     */
+    @Test
+    public void stalePostingsAreCompacted(){
+        MessageSearchIndex index = new MessageSearchIndex();
+        for(int id = 1; id <= 3000; id++)
+            index.messageCreated(new Message(id, 1, "word" + (id % 10) + " common", id));
+        for(int round = 0; round < 3; round++)
+            for(int id = 1; id <= 3000; id++)
+                index.messageUpdated(new Message(id, 1, "round" + round + " common", id));
+        Assert.assertEquals(3000, index.size());
+        Assert.assertEquals(0, index.search("word1", 10, MessageSearchIndex.Order.relevance).length);
+        Assert.assertEquals(10, index.search("round2 common", 10, MessageSearchIndex.Order.recent).length);
+        Assert.assertEquals(3000, index.search("round2", 5000, MessageSearchIndex.Order.relevance).length);
+        Assert.assertArrayEquals(new int[]{3000, 2999}, index.search("common", 2, MessageSearchIndex.Order.recent));
+        Assert.assertTrue(index.getTermCount() <= 4);
+    }
+
+    /**
+     * A rebuild that cannot read part of the table should leave search disabled rather than missing messages.
+     */
+    @Test
+    public void failedRebuildDisablesSearch(){
+        SocialMediaService service = new SocialMediaService(new SocialMediaDAO(){
+            @Override
+            public void streamMessagesInRange(int fromId, int toId, MessageRowWriter writer) throws IOException{
+                throw new IOException("connection lost");
+            }
+        });
+        Assert.assertNull(service.getSearchIndex());
+        Assert.assertNull(service.searchMessages("cats", 10, MessageSearchIndex.Order.relevance));
+        PrometheusTextWriter w = new PrometheusTextWriter();
+        service.writeMetrics(w);
+        Assert.assertTrue(w.toString().contains("search_index_rebuild_failed 1\n"));
+        service.close();
+    }
+
+    private List<Integer> search(String q, String sort) throws IOException, InterruptedException {
+        String path = "/messages/search?q=" + URLEncoder.encode(q, StandardCharsets.UTF_8) + (sort == null ? "" : "&sort=" + sort);
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for(Message m : objectMapper.readValue(response.body(), Message[].class))
+            ids.add(m.getMessage_id());
+        return ids;
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder(URI.create("http://localhost:8080" + path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private void insertMessage(String text, long epoch){
+        try {
+            Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+            ps.setString(1, text);
+            ps.setLong(2, epoch);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsEndpointTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Requests should be counted under their route pattern and status class, and the pool, cache and session
+     * metrics should be exported alongside them in the Prometheus text format.
+     */
+    @Test
+    public void requestsCountedPerRouteAndStatusClass() throws IOException, InterruptedException {
+        get("/messages/1");
+        get("/messages/1");
+        HttpRequest badPost = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(400, webClient.send(badPost, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> response = get("/metrics");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+        String body = response.body();
+        Assert.assertTrue(body, body.contains("# TYPE http_server_requests_seconds histogram"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds_count{method=\"GET\",route=\"/messages/{message_id}\",status=\"2xx\"} 2\n"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds_bucket{method=\"GET\",route=\"/messages/{message_id}\",status=\"2xx\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds_count{method=\"POST\",route=\"/messages\",status=\"4xx\"} 1\n"));
+        Assert.assertTrue(body, body.contains("http_server_requests_latency_seconds{method=\"GET\",route=\"/messages/{message_id}\",status=\"2xx\",quantile=\"0.99\"}"));
+        Assert.assertTrue(body, body.contains("message_cache_requests_total{result=\"miss\"} 1\n"));
+        Assert.assertTrue(body, body.contains("message_json_cache_requests_total{result=\"hit\"} 1\n"));
+        Assert.assertTrue(body, body.contains("db_pool_connections{state=\"active\"}"));
+        Assert.assertTrue(body, body.contains("session_store_size 0\n"));
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.QueryStats;
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+
+public class QueryStatsTest {
+    SocialMediaDAO socialMediaDAO;
+    PrintStream originalErr;
+    ByteArrayOutputStream err;
+
+    /**
+     * Before every test, reset the database and create a DAO that treats every call as slow but logs at most one
+     * slow query a second. The error stream, where the slow query log goes, is captured.
+     */
+    @Before
+    public void setUp(){
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.db.slowQueryMs", "-1");
+        System.setProperty("socialmedia.db.slowQueryLogsPerSecond", "1");
+        socialMediaDAO = new SocialMediaDAO();
+        System.clearProperty("socialmedia.db.slowQueryMs");
+        System.clearProperty("socialmedia.db.slowQueryLogsPerSecond");
+        originalErr = System.err;
+        err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true));
+    }
+
+    @After
+    public void tearDown(){
+        System.setErr(originalErr);
+    }
+
+    /**
+     * Each call should be recorded in every phase of its method's histograms.
+     */
+    @Test
+    public void callsAreTimedPerPhase(){
+        socialMediaDAO.getMessageById(1);
+        socialMediaDAO.getMessageById(1);
+        QueryStats.MethodStats stats = socialMediaDAO.getQueryStats().getMethods().get("getMessageById");
+        for(QueryStats.Phase phase : QueryStats.Phase.values())
+            Assert.assertEquals(phase.name(), 2, stats.get(phase).getCount());
+    }
+
+    /**
+     * The slow query log should give the SQL and parameter shapes, never the password, and should be rate limited.
+     */
+    @Test
+    public void slowQueryLogRedactsPasswordsAndIsRateLimited(){
+        Assert.assertNotNull(socialMediaDAO.validUser(new Account("testuser1", "password")));
+        for(int i = 0; i < 4; i++)
+            socialMediaDAO.validUser(new Account("testuser1", "hunter2hunter2"));
+
+        String log = err.toString();
+        Assert.assertTrue(log, log.contains("slow query validUser"));
+        Assert.assertTrue(log, log.contains("select * from account where username=? and password=?"));
+        Assert.assertTrue(log, log.contains("[string(9), <redacted>]"));
+        Assert.assertFalse(log, log.contains("testuser1"));
+        Assert.assertFalse(log, log.contains("hunter2"));
+        Assert.assertEquals(5, socialMediaDAO.getQueryStats().getSlowCount());
+        // one line a second; two if the calls happened to straddle a second boundary
+        Assert.assertTrue(log, log.split("slow query", -1).length - 1 <= 2);
+    }
+}
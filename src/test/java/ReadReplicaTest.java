@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.RoutingDataSource;
+import io.javalin.Javalin;
+
+public class ReadReplicaTest {
+    static final String REPLICA_1 = "jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_2 = "jdbc:h2:mem:replica2;DB_CLOSE_DELAY=-1";
+
+    RoutingDataSource dataSource;
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, start two in-memory replicas (the first with weight 3) kept in sync by
+     * the replication feed, wait for their first copy, and start the app over them.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        dataSource = new RoutingDataSource(ConnectionPool.getInstance(), REPLICA_1 + "@3," + REPLICA_2,
+                SocialMediaDAO.getReplicatedTables(), 10000, 1000, 100);
+        waitFor(() -> dataSource.getReplicas().stream().allMatch(r -> r.isHealthy() && r.getApplier().isReady()));
+        socialMediaController = new SocialMediaController(new SocialMediaService(new SocialMediaDAO(dataSource)));
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        dataSource.close();
+    }
+
+    /**
+     * Listings should be read from the replicas in proportion to their weights.
+     */
+    @Test
+    public void readsAreSpreadByWeight() throws IOException, InterruptedException {
+        for(int i = 0; i < 8; i++){
+            HttpResponse<String> response = send("GET", "/messages", null, null);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertTrue(response.body().contains("test message 1"));
+        }
+        List<RoutingDataSource.Replica> replicas = dataSource.getReplicas();
+        Assert.assertEquals(6, replicas.get(0).getReadCount());
+        Assert.assertEquals(2, replicas.get(1).getReadCount());
+        String metrics = send("GET", "/metrics", null, null).body();
+        Assert.assertTrue(metrics, metrics.contains("db_reads_total{target=\"" + REPLICA_1 + "\"} 6\n"));
+    }
+
+    /**
+     * Accounts, messages, edits and deletes should all reach every replica.
+     */
+    @Test
+    public void writesAreReplicated() throws Exception {
+        HttpResponse<String> response = send("POST", "/register", "{\"username\":\"second\",\"password\":\"password\"}", null);
+        Assert.assertEquals(200, response.statusCode());
+        response = send("POST", "/messages", "{\"posted_by\":2,\"message_text\":\"replicated\",\"time_posted_epoch\":1669947800}", null);
+        Message created = objectMapper.readValue(response.body(), Message.class);
+        send("PATCH", "/messages/1", "{\"message_text\":\"edited\"}", null);
+        response = send("DELETE", "/messages/" + created.getMessage_id(), null, null);
+        long position = Long.parseLong(response.headers().firstValue("X-Write-Position").get());
+        waitFor(() -> dataSource.getReplicas().stream().allMatch(r -> r.getApplier().getAppliedPosition() >= position));
+
+        for(String url : new String[]{REPLICA_1, REPLICA_2}){
+            try(Connection conn = DriverManager.getConnection(url, "sa", "sa")){
+                Assert.assertEquals("second", queryString(conn, "select username from account where account_id = 2"));
+                Assert.assertEquals("edited", queryString(conn, "select message_text from message where message_id = 1"));
+                Assert.assertNull(queryString(conn, "select message_text from message where message_id = " + created.getMessage_id()));
+            }
+        }
+    }
+
+    /**
+     * With the replicas held behind, a read carrying a write's position should still see the write, from the
+     * primary; a read without one may be served stale by a replica, and then carries no ETag.
+     */
+    @Test
+    public void readAfterSeesTheWrite() throws Exception {
+        for(RoutingDataSource.Replica r : dataSource.getReplicas())
+            r.getApplier().pause();
+        HttpResponse<String> response = send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"just written\",\"time_posted_epoch\":1669947800}", null);
+        String position = response.headers().firstValue("X-Write-Position").get();
+
+        response = send("GET", "/accounts/1/messages", null, position);
+        Assert.assertTrue(response.body(), response.body().contains("just written"));
+        response = send("GET", "/accounts/1/messages", null, null);
+        Assert.assertFalse(response.body(), response.body().contains("just written"));
+        Assert.assertFalse(response.headers().firstValue("ETag").isPresent());
+        Assert.assertEquals(400, send("GET", "/accounts/1/messages", null, "x").statusCode());
+
+        for(RoutingDataSource.Replica r : dataSource.getReplicas())
+            r.getApplier().resume();
+        waitFor(() -> dataSource.getReplicas().stream().allMatch(r -> r.getApplier().getAppliedPosition() >= Long.parseLong(position)));
+        response = send("GET", "/accounts/1/messages", null, null);
+        Assert.assertTrue(response.body(), response.body().contains("just written"));
+        Assert.assertTrue(response.headers().firstValue("ETag").isPresent());
+    }
+
+    /**
+     * A replica that cannot be reached should never be sent reads, whatever its weight, and reads outside a
+     * request scope should go to the primary.
+     */
+    @Test
+    public void unreachableReplicasGetNoReads() throws InterruptedException {
+        RoutingDataSource routing = new RoutingDataSource(ConnectionPool.getInstance(),
+                "jdbc:h2:mem:replica3;DB_CLOSE_DELAY=-1,jdbc:h2:tcp://localhost:1/unreachable@5",
+                SocialMediaDAO.getReplicatedTables(), 10000, 1000, 100);
+        try{
+            RoutingDataSource.Replica reachable = routing.getReplicas().get(0);
+            RoutingDataSource.Replica unreachable = routing.getReplicas().get(1);
+            waitFor(() -> reachable.isHealthy() && reachable.getApplier().isReady());
+            SocialMediaDAO dao = new SocialMediaDAO(routing);
+            Assert.assertEquals(1, dao.getAllMessages().size());
+            Assert.assertEquals(0, reachable.getReadCount());
+            RoutingDataSource.beginRequest(0);
+            try{
+                for(int i = 0; i < 4; i++)
+                    Assert.assertEquals(1, dao.getAllMessages().size());
+            }finally{
+                RoutingDataSource.endRequest();
+            }
+            Assert.assertEquals(4, reachable.getReadCount());
+            Assert.assertEquals(0, unreachable.getReadCount());
+            Assert.assertFalse(unreachable.isHealthy());
+        }finally{
+            routing.close();
+        }
+    }
+
+    private static String queryString(Connection conn, String sql) throws SQLException {
+        try(PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()){
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!condition.getAsBoolean()){
+            Assert.assertTrue("condition not met within 10 seconds", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private HttpResponse<String> send(String method, String path, String body, String readAfter) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if(readAfter != null)
+            request.header("X-Read-After", readAfter);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Service.SessionStore;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A login should return the account as before, plus a token that lets POST /messages omit posted_by.
+     */
+    @Test
+    public void loginTokenPostsAsTheAccount() throws IOException, InterruptedException {
+        HttpResponse<String> login = login("testuser1", "password");
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals(new Account(1, "testuser1", "password"), objectMapper.readValue(login.body(), Account.class));
+        String token = login.headers().firstValue("X-Session-Token").orElse(null);
+        Assert.assertNotNull(token);
+
+        HttpResponse<String> response = send("POST", "/messages", "{\"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}", token);
+        Assert.assertEquals(200, response.statusCode());
+        Message created = objectMapper.readValue(response.body(), Message.class);
+        Assert.assertEquals(1, created.getPosted_by());
+    }
+
+    /**
+     * A forged or revoked token should be refused with a 401, and a valid token cannot post as another account.
+     */
+    @Test
+    public void invalidTokensAndOtherAccountsRejected() throws IOException, InterruptedException {
+        String token = login("testuser1", "password").headers().firstValue("X-Session-Token").get();
+
+        Assert.assertEquals(401, send("POST", "/messages", "{\"message_text\": \"hello\"}", token + "x").statusCode());
+        Assert.assertEquals(403, send("POST", "/messages", "{\"posted_by\": 2, \"message_text\": \"hello\"}", token).statusCode());
+
+        Assert.assertEquals(200, send("POST", "/logout", "", token).statusCode());
+        Assert.assertEquals(401, send("POST", "/messages", "{\"message_text\": \"hello\"}", token).statusCode());
+    }
+
+    /**
+     * With a token, only the author of a message may edit or delete it. Without a token the old behaviour remains.
+     */
+    @Test
+    public void onlyTheAuthorMayModifyWithAToken() throws IOException, InterruptedException {
+        send("POST", "/register", "{\"username\": \"testuser2\", \"password\": \"password\"}", null);
+        String token = login("testuser2", "password").headers().firstValue("X-Session-Token").get();
+
+        Assert.assertEquals(403, send("PATCH", "/messages/1", "{\"message_text\": \"mine now\"}", token).statusCode());
+        Assert.assertEquals(403, send("DELETE", "/messages/1", "", token).statusCode());
+
+        HttpResponse<String> legacy = send("PATCH", "/messages/1", "{\"message_text\": \"edited\"}", null);
+        Assert.assertEquals(200, legacy.statusCode());
+        Assert.assertEquals("edited", objectMapper.readValue(legacy.body(), Message.class).getMessage_text());
+    }
+
+    /**
+     * Sessions expire lazily on lookup, and the store reports its size and lookup timings.
+     */
+    @Test
+    public void sessionsExpire() throws InterruptedException {
+        SessionStore store = new SessionStore(50, 60000);
+        String token = store.create(7, "someone");
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(7, store.get(token).getAccount_id());
+        Thread.sleep(100);
+        Assert.assertNull(store.get(token));
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(1, store.getExpiredCount());
+        Assert.assertEquals(2, store.getLookupCount());
+        Assert.assertTrue(store.getTotalLookupNanos() > 0);
+        store.close();
+    }
+
+    private HttpResponse<String> login(String username, String password) throws IOException, InterruptedException {
+        return send("POST", "/login", "{\"username\": \"" + username + "\", \"password\": \"" + password + "\"}", null);
+    }
+
+    private HttpResponse<String> send(String method, String path, String body, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if(token != null)
+            request.header("Authorization", "Bearer " + token);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,174 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Compares the platform-thread and virtual-thread handler modes of SocialMediaController.
+ *
+ * For each mode and each concurrency level, the given number of clients each keep exactly one request to
+ * GET /accounts/1/messages in flight (a blocking JDBC query per request) for a fixed duration, over their own
+ * connections. It reports requests per second, p50/p99 latency and errors.
+ *
+ * This is not a unit test and is not run by surefire. Virtual threads need JDK 21, so run it under the loom profile:
+ *
+ *     mvn -Ploom test-compile exec:java -Dexec.mainClass=ThreadModeBenchmark -Dexec.args="1000 5000 10000"
+ *
+ * The client and server share one JVM and one machine, so compare the two modes against each other rather than
+ * reading the absolute numbers. Raise the open file limit (ulimit -n) above twice the highest concurrency.
+ * The run length per level can be set with -Dbench.seconds (default 10).
+ */
+public class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] concurrencies = args.length == 0
+                ? new int[]{1000, 2500, 5000, 10000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        int seconds = Integer.getInteger("bench.seconds", 10);
+
+        ConnectionUtil.resetTestDatabase();
+        seedMessages(100);
+
+        System.out.printf("%-10s %12s %12s %12s %12s %10s%n", "mode", "concurrency", "req/s", "p50 ms", "p99 ms", "errors");
+        for(boolean virtualThreads : new boolean[]{false, true}){
+            Javalin app = new SocialMediaController().startAPI(virtualThreads).start(0);
+            try{
+                URI uri = URI.create("http://localhost:" + app.port() + "/accounts/1/messages");
+                run(uri, concurrencies[0], 2);
+                for(int concurrency : concurrencies){
+                    Result r = run(uri, concurrency, seconds);
+                    System.out.printf("%-10s %12d %12.0f %12.2f %12.2f %10d%n", virtualThreads ? "virtual" : "platform",
+                            concurrency, r.requestsPerSecond, r.p50Millis, r.p99Millis, r.errors);
+                }
+            }finally{
+                app.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Drives the endpoint with a fixed number of clients, each sending its next request as soon as the previous
+     * response arrives, until the duration is over.
+     */
+    static Result run(URI uri, int concurrency, int seconds) throws InterruptedException {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(concurrency);
+        LongAdder errors = new LongAdder();
+        List<Worker> workers = new ArrayList<>(concurrency);
+        for(int i = 0; i < concurrency; i++){
+            Worker w = new Worker(client, request, end, errors, done);
+            workers.add(w);
+            w.next();
+        }
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        clientExecutor.shutdownNow();
+
+        int total = 0;
+        for(Worker w : workers)
+            total += w.count;
+        long[] all = new long[total];
+        int i = 0;
+        for(Worker w : workers){
+            System.arraycopy(w.latencies, 0, all, i, w.count);
+            i += w.count;
+        }
+        Arrays.sort(all);
+        Result r = new Result();
+        r.requestsPerSecond = total / elapsedSeconds;
+        r.p50Millis = percentile(all, 0.50) / 1e6;
+        r.p99Millis = percentile(all, 0.99) / 1e6;
+        r.errors = errors.sum();
+        return r;
+    }
+
+    static long percentile(long[] sorted, double p){
+        if(sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    static void seedMessages(int count) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        PreparedStatement ps = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+        for(int i = 0; i < count; i++){
+            ps.setString(1, "benchmark message " + i);
+            ps.setLong(2, 1669947800L + i);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        conn.close();
+    }
+
+    static class Result {
+        double requestsPerSecond;
+        double p50Millis;
+        double p99Millis;
+        long errors;
+    }
+
+    /**
+     * One simulated client. Its callbacks never overlap, since it only sends after the previous response,
+     * so its latency buffer needs no synchronization.
+     */
+    static class Worker {
+        final HttpClient client;
+        final HttpRequest request;
+        final long end;
+        final LongAdder errors;
+        final CountDownLatch done;
+        long[] latencies = new long[256];
+        int count;
+
+        Worker(HttpClient client, HttpRequest request, long end, LongAdder errors, CountDownLatch done){
+            this.client = client;
+            this.request = request;
+            this.end = end;
+            this.errors = errors;
+            this.done = done;
+        }
+
+        void next(){
+            if(System.nanoTime() >= end){
+                done.countDown();
+                return;
+            }
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if(error != null || response.statusCode() != 200){
+                    errors.increment();
+                }
+                else{
+                    if(count == latencies.length)
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = System.nanoTime() - sent;
+                }
+                next();
+            });
+        }
+    }
+}
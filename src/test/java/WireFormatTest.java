@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import Controller.SocialMediaController;
+import Controller.WireFormat;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class WireFormatTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Messages and listings should come back in CBOR or Smile when asked for, with the same content as the JSON.
+     */
+    @Test
+    public void messagesAreSentInTheAcceptedFormat() throws IOException, InterruptedException {
+        for(WireFormat format : new WireFormat[]{WireFormat.CBOR, WireFormat.SMILE}){
+            HttpResponse<byte[]> one = get("/messages/1", format.getMediaType());
+            Assert.assertEquals(200, one.statusCode());
+            Assert.assertEquals(format.getMediaType(), one.headers().firstValue("Content-Type").get());
+            Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), format.read(one.body(), Message.class));
+
+            for(String path : new String[]{"/messages", "/messages?stream=true", "/accounts/1/messages"}){
+                HttpResponse<byte[]> list = get(path, format.getMediaType());
+                Assert.assertEquals(path, format.getMediaType(), list.headers().firstValue("Content-Type").get());
+                Message[] messages = format.read(list.body(), Message[].class);
+                Assert.assertEquals(path, 1, messages.length);
+                Assert.assertEquals(path, new Message(1, 1, "test message 1", 1669947792), messages[0]);
+            }
+
+            JsonNode page = format.read(get("/messages?limit=1", format.getMediaType()).body(), JsonNode.class);
+            Assert.assertEquals(1, page.get("messages").size());
+            Assert.assertTrue(page.get("next").isNull());
+        }
+    }
+
+    /**
+     * Without an Accept header naming a binary format, or with one that prefers JSON, responses stay JSON.
+     */
+    @Test
+    public void jsonRemainsTheDefault() throws IOException, InterruptedException {
+        for(String accept : new String[]{null, "*/*", "application/json, application/cbor;q=0.5", "text/html"}){
+            HttpResponse<byte[]> response = get("/messages/1", accept);
+            Assert.assertEquals(String.valueOf(accept), "application/json", response.headers().firstValue("Content-Type").get());
+            Assert.assertTrue(response.headers().allValues("Vary").contains("Accept"));
+        }
+        Assert.assertEquals("application/x-jackson-smile",
+                get("/messages", "application/json;q=0.5, application/x-jackson-smile").headers().firstValue("Content-Type").get());
+    }
+
+    /**
+     * Request bodies in CBOR or Smile should be accepted on creation, update and registration.
+     */
+    @Test
+    public void binaryRequestBodiesAreAccepted() throws IOException, InterruptedException {
+        WireFormat cbor = WireFormat.CBOR;
+        HttpResponse<byte[]> created = send("POST", "/messages", cbor, new Message(1, "cbor message", 1669947800L));
+        Assert.assertEquals(200, created.statusCode());
+        Message message = cbor.read(created.body(), Message.class);
+        Assert.assertEquals("cbor message", message.getMessage_text());
+
+        WireFormat smile = WireFormat.SMILE;
+        HttpResponse<byte[]> updated = send("PATCH", "/messages/" + message.getMessage_id(), smile, new Message(0, "smile message", 0));
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertEquals("smile message", smile.read(updated.body(), Message.class).getMessage_text());
+
+        HttpResponse<byte[]> registered = send("POST", "/register", cbor, new Account("cbor user", "password"));
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals("cbor user", cbor.read(registered.body(), Account.class).getUsername());
+
+        HttpResponse<byte[]> invalid = send("POST", "/messages", cbor, new Message(1, "", 1669947800L));
+        Assert.assertEquals(400, invalid.statusCode());
+    }
+
+    /**
+     * Each format should have its own ETag, and a 304 should only be given for the format's own tag.
+     */
+    @Test
+    public void eachFormatHasItsOwnETag() throws IOException, InterruptedException {
+        String json = get("/messages/1", null).headers().firstValue("ETag").get();
+        String cbor = get("/messages/1", "application/cbor").headers().firstValue("ETag").get();
+        Assert.assertTrue(cbor.endsWith("-cbor\""));
+        Assert.assertNotEquals(json, cbor);
+        Assert.assertEquals(304, get("/messages/1", "application/cbor", cbor).statusCode());
+        Assert.assertEquals(200, get("/messages/1", "application/cbor", json).statusCode());
+        Assert.assertEquals(200, get("/messages/1", null, cbor).statusCode());
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept) throws IOException, InterruptedException {
+        return get(path, accept, null);
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path));
+        if(accept != null)
+            request.header("Accept", accept);
+        if(ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> send(String method, String path, WireFormat format, Object body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(format.write(body)))
+                .header("Content-Type", format.getMediaType())
+                .header("Accept", format.getMediaType())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+}